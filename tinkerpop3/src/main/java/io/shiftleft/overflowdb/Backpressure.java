@@ -0,0 +1,121 @@
+package io.shiftleft.overflowdb;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Graduated backpressure for threads that create nodes and edges (see `OdbConfig.withGraduatedBackpressure`): rather
+ * than blocking them all until a round of clearing references is complete, they're throttled in proportion to how
+ * far the heap is above the threshold.
+ *
+ * That's a token bucket: while the heap is below the threshold, we measure the rate at which elements are created.
+ * Above it, that rate is reduced by the `pressure` (0.0 - 1.0), i.e. the part of the headroom between the threshold
+ * and the max heap that's in use. Each creation takes a token, and waits if there's none.
+ *
+ * Also records the time threads have been stalled, in both modes.
+ */
+public class Backpressure {
+  /* max share of the measured rate that we throttle away - at that point, we're better off blocking */
+  public static final double MAX_PRESSURE = 0.9;
+  /* rate to start with if we haven't been able to measure one yet */
+  private static final double DEFAULT_RATE = 10_000;
+  /* tokens can accumulate for this long, i.e. short bursts aren't throttled */
+  private static final long BURST_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+  private static final double SMOOTHING = 0.3;
+
+  private final float threshold;
+
+  private volatile double pressure = 0;
+  /* elements created while unthrottled, since `windowStartNanos` */
+  private final LongAdder createdCount = new LongAdder();
+  private long windowStartNanos = System.nanoTime();
+  /* elements per second while unthrottled */
+  private double measuredRate = 0;
+  /* token bucket, expressed as the time at which the next token is available */
+  private long nextTokenNanos = System.nanoTime();
+
+  private final LongAdder stallNanos = new LongAdder();
+  private final LongAdder stallCount = new LongAdder();
+
+  /** @param thresholdPercentage see `OdbConfig.withHeapPercentageThreshold` */
+  public Backpressure(int thresholdPercentage) {
+    this.threshold = thresholdPercentage / 100f;
+  }
+
+  /** called with each (actual or expected) heap usage, range 0.0 - 1.0 */
+  public synchronized void onHeapUsage(float heapUsage) {
+    final long now = System.nanoTime();
+    if (pressure == 0) {
+      final long elapsed = now - windowStartNanos;
+      final long count = createdCount.sumThenReset();
+      if (elapsed > 0 && count > 0) {
+        final double rate = count * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+        measuredRate = measuredRate == 0 ? rate : SMOOTHING * rate + (1 - SMOOTHING) * measuredRate;
+      }
+    }
+    windowStartNanos = now;
+
+    final double headroom = 1.0 - threshold;
+    final double newPressure = headroom <= 0 ?
+        (heapUsage > threshold ? 1.0 : 0.0) :
+        Math.max(0, Math.min(1.0, (heapUsage - threshold) / headroom));
+    if (pressure == 0 && newPressure > 0) {
+      nextTokenNanos = now;
+    }
+    pressure = newPressure;
+  }
+
+  public double getPressure() {
+    return pressure;
+  }
+
+  /** @return true if the pressure is so high that we should block until the current round of clearing is complete */
+  public boolean isCritical() {
+    return pressure >= MAX_PRESSURE;
+  }
+
+  /** take a token - blocks the calling thread if there's none. lock-free as long as there's no pressure */
+  public void acquire() {
+    if (pressure == 0) {
+      createdCount.increment();
+      return;
+    }
+    final long waitNanos;
+    synchronized (this) {
+      final long now = System.nanoTime();
+      final double rate = (measuredRate > 0 ? measuredRate : DEFAULT_RATE) * (1 - Math.min(pressure, MAX_PRESSURE));
+      nextTokenNanos = Long.max(nextTokenNanos, now - BURST_NANOS) + (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+      waitNanos = nextTokenNanos - now;
+    }
+    if (waitNanos > 0) {
+      LockSupport.parkNanos(waitNanos);
+      recordStall(waitNanos);
+    }
+  }
+
+  public void recordStall(long nanos) {
+    stallNanos.add(nanos);
+    stallCount.increment();
+  }
+
+  /** total time that threads have been stalled by backpressure */
+  public long getStallMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(stallNanos.sum());
+  }
+
+  public long getStallCount() {
+    return stallCount.sum();
+  }
+
+  /** element creation rate (per second) that we measured while the heap was below the threshold */
+  public synchronized double getMeasuredRate() {
+    return measuredRate;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("Backpressure(pressure=%.2f, measuredRate=%.0f/s, stalls=%d, stallMillis=%d)",
+        pressure, getMeasuredRate(), getStallCount(), getStallMillis());
+  }
+}
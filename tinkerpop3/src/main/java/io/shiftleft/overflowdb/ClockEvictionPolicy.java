@@ -0,0 +1,46 @@
+package io.shiftleft.overflowdb;
+
+import java.util.ArrayDeque;
+
+/**
+ * CLOCK, a.k.a. second chance: refs are evicted in registration order, unless they've been accessed since the clock
+ * hand last passed them - then their access bit is reset, and they go round once more.
+ * Cheap approximation of LRU, but not scan resistant: a full scan touches every node once, i.e. it looks just as
+ * recent as the working set. See {@link TwoQueueEvictionPolicy} for that.
+ */
+public class ClockEvictionPolicy implements EvictionPolicy {
+  public static final EvictionPolicy.Factory factory = ClockEvictionPolicy::new;
+
+  /* head is the clock hand */
+  private final ArrayDeque<NodeRef> clock = new ArrayDeque<>();
+
+  @Override
+  public synchronized void register(NodeRef ref) {
+    ref.testAndClearAccessed();
+    clock.addLast(ref);
+  }
+
+  @Override
+  public synchronized NodeRef nextToEvict() {
+    /* terminates: after one full round, all access bits are reset */
+    NodeRef ref;
+    while ((ref = clock.pollFirst()) != null) {
+      if (ref.isCleared()) {
+        /* e.g. removed from the graph in the meantime. unregister it, so it can be registered again once it's read back in */
+        ref.unmarkRegistered();
+        continue;
+      }
+      if (ref.testAndClearAccessed()) {
+        clock.addLast(ref);
+      } else {
+        return ref;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public synchronized int size() {
+    return clock.size();
+  }
+}
@@ -0,0 +1,61 @@
+package io.shiftleft.overflowdb;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Node table that supports concurrent modifications, used if `OdbConfig.withConcurrentMutation` is enabled. Costs
+ * more memory than the other tables (the ids are boxed), which is the price for lock-free reads and fine grained
+ * locking for writes.
+ */
+public class ConcurrentNodeTable implements NodeTable {
+  public static final NodeTable.Factory factory = ConcurrentNodeTable::new;
+
+  private final ConcurrentHashMap<Long, NodeRef> nodes;
+
+  public ConcurrentNodeTable(int expectedSize) {
+    this.nodes = new ConcurrentHashMap<>(Integer.max(expectedSize, 16));
+  }
+
+  @Override
+  public NodeRef get(long id) {
+    return nodes.get(id);
+  }
+
+  @Override
+  public void put(NodeRef ref) {
+    nodes.put(ref.id, ref);
+  }
+
+  @Override
+  public NodeRef remove(long id) {
+    return nodes.remove(id);
+  }
+
+  @Override
+  public boolean contains(long id) {
+    return nodes.containsKey(id);
+  }
+
+  @Override
+  public int size() {
+    return nodes.size();
+  }
+
+  @Override
+  public Iterator<NodeRef> iterator() {
+    return nodes.values().iterator();
+  }
+
+  @Override
+  public void forEach(Consumer<? super NodeRef> action) {
+    nodes.values().forEach(action);
+  }
+
+  @Override
+  public Stream<NodeRef> stream(boolean parallel) {
+    return parallel ? nodes.values().parallelStream() : nodes.values().stream();
+  }
+}
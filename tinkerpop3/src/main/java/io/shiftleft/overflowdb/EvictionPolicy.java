@@ -0,0 +1,32 @@
+package io.shiftleft.overflowdb;
+
+/**
+ * Decides which nodes the {@link ReferenceManager} clears from memory when the heap runs full.
+ * Nodes are registered when they're created or read back from storage, and policies may use the access bit on
+ * {@link NodeRef} (see `NodeRef.testAndClearAccessed`) to find out which ones have been used since.
+ *
+ * Implementations must be thread safe.
+ */
+public interface EvictionPolicy {
+
+  /** the node of the given ref has just been created or read from storage, i.e. it can be cleared from now on */
+  void register(NodeRef ref);
+
+  /**
+   * @return the next ref to clear, `null` if there are no more registered refs.
+   * the returned ref is no longer registered.
+   */
+  NodeRef nextToEvict();
+
+  /** number of registered refs */
+  int size();
+
+  default boolean isEmpty() {
+    return size() == 0;
+  }
+
+  interface Factory {
+    /** one policy per graph */
+    EvictionPolicy create();
+  }
+}
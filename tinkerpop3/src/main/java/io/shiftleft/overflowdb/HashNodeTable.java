@@ -0,0 +1,56 @@
+package io.shiftleft.overflowdb;
+
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * Hash map from id to NodeRef - works equally well for all kinds of ids, but costs more memory than
+ * {@link PagedNodeTable}, and needs to rehash while it grows.
+ */
+public class HashNodeTable implements NodeTable {
+  public static final NodeTable.Factory factory = HashNodeTable::new;
+
+  private final TLongObjectMap<NodeRef> nodes;
+
+  public HashNodeTable(int expectedSize) {
+    this.nodes = new TLongObjectHashMap<>(Integer.max(expectedSize, 10));
+  }
+
+  @Override
+  public NodeRef get(long id) {
+    return nodes.get(id);
+  }
+
+  @Override
+  public void put(NodeRef ref) {
+    nodes.put(ref.id, ref);
+  }
+
+  @Override
+  public NodeRef remove(long id) {
+    return nodes.remove(id);
+  }
+
+  @Override
+  public boolean contains(long id) {
+    return nodes.containsKey(id);
+  }
+
+  @Override
+  public int size() {
+    return nodes.size();
+  }
+
+  @Override
+  public Iterator<NodeRef> iterator() {
+    return nodes.valueCollection().iterator();
+  }
+
+  @Override
+  public Stream<NodeRef> stream(boolean parallel) {
+    return parallel ? nodes.valueCollection().parallelStream() : nodes.valueCollection().stream();
+  }
+}
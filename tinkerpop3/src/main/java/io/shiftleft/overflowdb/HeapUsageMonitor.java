@@ -23,38 +23,36 @@ import java.util.Set;
  */
 public class HeapUsageMonitor implements AutoCloseable {
   interface HeapNotificationListener {
-    void notifyHeapAboveThreshold();
+    /** called after each GC, with the usage of the relevant memory areas after the collection */
+    void notifyHeapUsage(long usedBytes, long maxBytes);
+
+    /**
+     * early warning, see {@link ProactiveHeapMonitor}: the tenured memory pools are expected to reach this usage
+     * before the next GC. n.b. that's before collecting any garbage, i.e. it's an upper bound.
+     */
+    void notifyHeapUsageExpected(long usedBytes, long maxBytes);
   }
 
   private final Logger logger = LoggerFactory.getLogger(getClass());
   private final Map<NotificationEmitter, NotificationListener> gcNotificationListeners = new HashMap<>(2);
 
-  public HeapUsageMonitor(int heapPercentageThreshold, HeapNotificationListener notificationListener) {
-    if (heapPercentageThreshold < 0 || heapPercentageThreshold > 100) {
-      throw new IllegalArgumentException("heapPercentageThreshold must be between 0 and 100, but is " + heapPercentageThreshold);
-    }
-    float heapUsageThreshold = (float) heapPercentageThreshold / 100f;
-    installGCMonitoring(heapUsageThreshold, notificationListener);
+  /** n.b. the listener decides whether to act, see {@link OverflowController} */
+  public HeapUsageMonitor(HeapNotificationListener notificationListener) {
+    installGCMonitoring(notificationListener);
   }
 
-  /**
-   * monitor GC, and should the heap grow above 80% usage, clear some strong references
-   *
-   * @param heapUsageThreshold range 0.0 - 1.0
-   */
-  protected void installGCMonitoring(float heapUsageThreshold, HeapNotificationListener notificationListener) {
+  protected void installGCMonitoring(HeapNotificationListener notificationListener) {
     List<GarbageCollectorMXBean> gcbeans = java.lang.management.ManagementFactory.getGarbageCollectorMXBeans();
     for (GarbageCollectorMXBean gcbean : gcbeans) {
-      NotificationListener listener = createNotificationListener(heapUsageThreshold, notificationListener);
+      NotificationListener listener = createNotificationListener(notificationListener);
       NotificationEmitter emitter = (NotificationEmitter) gcbean;
       emitter.addNotificationListener(listener, null, null);
       gcNotificationListeners.put(emitter, listener);
     }
-    int heapUsageThresholdPercent = (int) Math.floor(heapUsageThreshold * 100f);
-    logger.info("installed GC monitors. will clear references if heap (after GC) is larger than " + heapUsageThresholdPercent + "%");
+    logger.info("installed GC monitors.");
   }
 
-  private NotificationListener createNotificationListener(float heapUsageThreshold, HeapNotificationListener notificationListener) {
+  private NotificationListener createNotificationListener(HeapNotificationListener notificationListener) {
     Set<String> ignoredMemoryAreas = new HashSet<>(Arrays.asList("Code Cache", "Compressed Class Space", "Metaspace"));
     return (notification, handback) -> {
       if (notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION)) {
@@ -71,14 +69,10 @@ public class HeapUsageMonitor implements AutoCloseable {
             totalMemMax += detail.getMax();
           }
         }
-        float heapUsage = (float) totalMemUsed / (float) totalMemMax;
-        int heapUsagePercent = (int) Math.floor(heapUsage * 100f);
-        if (heapUsage > heapUsageThreshold) {
-          logger.info("heap usage after GC: " + heapUsagePercent + "% -> notifying HeapNotificationListener");
-          notificationListener.notifyHeapAboveThreshold();
-        } else {
-          logger.trace("heap usage after GC: " + heapUsagePercent + "%");
+        if (logger.isTraceEnabled()) {
+          logger.trace("heap usage after GC: " + (int) Math.floor(100f * totalMemUsed / totalMemMax) + "%");
         }
+        notificationListener.notifyHeapUsage(totalMemUsed, totalMemMax);
       }
     };
   }
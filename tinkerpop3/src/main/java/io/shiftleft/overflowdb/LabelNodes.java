@@ -0,0 +1,264 @@
+package io.shiftleft.overflowdb;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * All nodes with a given label, in a plain array that's sorted by id: costs one reference per node (plus the unused
+ * capacity), where a hash set costs two to three times that. Label scans iterate in id order (which is also the
+ * storage order of the default MVStoreBackend), and split evenly for parallel streams.
+ *
+ * Removed nodes leave a `null` (tombstone) behind, which are compacted away once they make up half the array. Nodes
+ * with generated ids are appended in order; if some come in out of order, the array is sorted before the next
+ * lookup or scan.
+ *
+ * Modifications are synchronized (uncontended unless `OdbConfig.withConcurrentMutation` is enabled). Iterators and
+ * spliterators work on a snapshot as of their creation, i.e. they neither see nodes that are added nor ones that are
+ * removed later on: appending only writes beyond the snapshot's length, and the first removal after an iterator has
+ * been handed out copies the array (as do sorting and compacting). Once frozen (see `OdbGraph.freeze`), reads don't
+ * synchronize at all.
+ */
+class LabelNodes implements Iterable<NodeRef> {
+  private static final Comparator<NodeRef> BY_ID = Comparator.comparingLong(ref -> ref.id);
+  private static final NodeRef[] EMPTY = new NodeRef[0];
+
+  private NodeRef[] elements;
+  /* number of used slots, including tombstones */
+  private int length = 0;
+  private int tombstones = 0;
+  private boolean sorted = true;
+  /* true while `elements` may be referenced by an iterator, i.e. it must not be modified below `length` */
+  private boolean shared = false;
+  /* highest id added so far */
+  private long maxId = Long.MIN_VALUE;
+  /* sorted and without tombstones, once the graph is frozen - read without synchronization from then on */
+  private volatile NodeRef[] frozen;
+
+  LabelNodes() {
+    this(0);
+  }
+
+  LabelNodes(int expectedSize) {
+    this.elements = expectedSize == 0 ? EMPTY : new NodeRef[expectedSize];
+  }
+
+  synchronized void add(NodeRef ref) {
+    if (length == elements.length) {
+      elements = Arrays.copyOf(elements, Integer.max(4, length + (length >> 1)));
+      shared = false;
+    }
+    if (ref.id < maxId) sorted = false;
+    else maxId = ref.id;
+    elements[length++] = ref;
+  }
+
+  synchronized void addAll(Collection<NodeRef> refs) {
+    if (length + refs.size() > elements.length) {
+      elements = Arrays.copyOf(elements, length + refs.size());
+      shared = false;
+    }
+    for (NodeRef ref : refs) add(ref);
+  }
+
+  /** @return true if the node was contained */
+  synchronized boolean remove(NodeRef ref) {
+    ensureSorted();
+    final int index = indexOf(ref.id);
+    if (index < 0) return false;
+    if (shared) {
+      /* copy on write: an iterator may still be reading it */
+      elements = elements.clone();
+      shared = false;
+    }
+    elements[index] = null;
+    tombstones++;
+    if (tombstones > length / 2) {
+      compact();
+    }
+    return true;
+  }
+
+  synchronized boolean contains(NodeRef ref) {
+    ensureSorted();
+    return indexOf(ref.id) >= 0;
+  }
+
+  /* n.b. binary search needs to skip over tombstones, which we do by scanning to the nearest non-null element */
+  private int indexOf(long id) {
+    int low = 0;
+    int high = length - 1;
+    while (low <= high) {
+      final int mid = (low + high) >>> 1;
+      int probe = mid;
+      while (probe <= high && elements[probe] == null) probe++;
+      if (probe > high) {
+        high = mid - 1;
+        continue;
+      }
+      final long probeId = elements[probe].id;
+      if (probeId < id) low = probe + 1;
+      else if (probeId > id) high = mid - 1;
+      else return probe;
+    }
+    return -1;
+  }
+
+  int size() {
+    final NodeRef[] frozen = this.frozen;
+    if (frozen != null) return frozen.length;
+    synchronized (this) {
+      return length - tombstones;
+    }
+  }
+
+  /** trims the array and stops all further modifications, see `OdbGraph.freeze` */
+  synchronized void freeze() {
+    if (frozen == null) {
+      ensureSorted();
+      replaceElements(compacted(length - tombstones));
+      frozen = elements;
+    }
+  }
+
+  private void ensureSorted() {
+    if (!sorted) {
+      final NodeRef[] copy = compacted(length - tombstones);
+      Arrays.sort(copy, 0, length - tombstones, BY_ID);
+      replaceElements(copy);
+      sorted = true;
+    }
+  }
+
+  private void compact() {
+    replaceElements(compacted(Integer.max(4, (length - tombstones) * 3 / 2)));
+  }
+
+  private NodeRef[] compacted(int capacity) {
+    final NodeRef[] copy = new NodeRef[Integer.max(capacity, length - tombstones)];
+    int index = 0;
+    for (int i = 0; i < length; i++) {
+      if (elements[i] != null) copy[index++] = elements[i];
+    }
+    return copy;
+  }
+
+  private void replaceElements(NodeRef[] newElements) {
+    length -= tombstones;
+    tombstones = 0;
+    elements = newElements;
+    shared = false;
+  }
+
+  @Override
+  public Iterator<NodeRef> iterator() {
+    final NodeRef[] frozen = this.frozen;
+    if (frozen != null) return new SnapshotIterator(frozen, frozen.length);
+    synchronized (this) {
+      ensureSorted();
+      shared = true;
+      return new SnapshotIterator(elements, length);
+    }
+  }
+
+  @Override
+  public Spliterator<NodeRef> spliterator() {
+    final NodeRef[] frozen = this.frozen;
+    if (frozen != null) return new ArraySpliterator(frozen, 0, frozen.length);
+    synchronized (this) {
+      ensureSorted();
+      shared = true;
+      return new ArraySpliterator(elements, 0, length);
+    }
+  }
+
+  Stream<NodeRef> stream(boolean parallel) {
+    return StreamSupport.stream(spliterator(), parallel);
+  }
+
+  private static class SnapshotIterator implements Iterator<NodeRef> {
+    private final NodeRef[] elements;
+    private final int length;
+    private int index = 0;
+
+    SnapshotIterator(NodeRef[] elements, int length) {
+      this.elements = elements;
+      this.length = length;
+    }
+
+    @Override
+    public boolean hasNext() {
+      while (index < length && elements[index] == null) index++;
+      return index < length;
+    }
+
+    @Override
+    public NodeRef next() {
+      if (!hasNext()) throw new NoSuchElementException();
+      return elements[index++];
+    }
+  }
+
+  /* like `Spliterators.spliterator(Object[], ...)`, but skips tombstones */
+  private static class ArraySpliterator implements Spliterator<NodeRef> {
+    private final NodeRef[] elements;
+    private int index;
+    private final int end;
+
+    ArraySpliterator(NodeRef[] elements, int start, int end) {
+      this.elements = elements;
+      this.index = start;
+      this.end = end;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super NodeRef> action) {
+      while (index < end) {
+        final NodeRef ref = elements[index++];
+        if (ref != null) {
+          action.accept(ref);
+          return true;
+        }
+      }
+      return false;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super NodeRef> action) {
+      for (; index < end; index++) {
+        final NodeRef ref = elements[index];
+        if (ref != null) action.accept(ref);
+      }
+    }
+
+    @Override
+    public Spliterator<NodeRef> trySplit() {
+      final int mid = (index + end) >>> 1;
+      if (mid <= index) return null;
+      final Spliterator<NodeRef> prefix = new ArraySpliterator(elements, index, mid);
+      index = mid;
+      return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+      return end - index;
+    }
+
+    @Override
+    public int characteristics() {
+      return ORDERED | SORTED | DISTINCT | NONNULL;
+    }
+
+    @Override
+    public Comparator<? super NodeRef> getComparator() {
+      return BY_ID;
+    }
+  }
+}
@@ -0,0 +1,116 @@
+package io.shiftleft.overflowdb;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * traversals mostly walk along the same kind of edges (e.g. AST or CFG), so when a node is faulted in from storage,
+ * its neighbours along that edge are likely to be next. this reads them in the background, so that the traversal
+ * thread usually finds them in memory already.
+ *
+ * which edge (label and direction) to follow is based on the most recent traversal from any node of the same type,
+ * see `NodeLayoutInformation.getLastTraversedOffsetPosition`.
+ */
+public class NeighbourPrefetcher implements AutoCloseable {
+  /* pending prefetches beyond this are dropped - prefetching is best effort, and old requests are likely stale */
+  private static final int QUEUE_CAPACITY = 1024;
+
+  private final Logger logger = LoggerFactory.getLogger(getClass());
+  private final int depth;
+  private final int budget;
+  private final ThreadPoolExecutor executor;
+  private final LongAdder prefetchedCount = new LongAdder();
+
+  /**
+   * @param depth  how many hops to follow from the faulted node
+   * @param budget max number of nodes to read from storage per faulted node
+   */
+  public NeighbourPrefetcher(int depth, int budget, int threadCount) {
+    if (depth < 1) throw new IllegalArgumentException("prefetch depth must be positive, but is " + depth);
+    if (budget < 1) throw new IllegalArgumentException("prefetch budget must be positive, but is " + budget);
+    if (threadCount < 1) throw new IllegalArgumentException("prefetch threadCount must be positive, but is " + threadCount);
+    this.depth = depth;
+    this.budget = budget;
+    this.executor = new ThreadPoolExecutor(threadCount, threadCount, 0, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(QUEUE_CAPACITY), new PrefetchThreadFactory(), new ThreadPoolExecutor.DiscardPolicy());
+  }
+
+  /**
+   * called after a node has been read from storage. nodes that are read by the prefetcher itself don't trigger
+   * any further prefetching, that's what `depth` is for.
+   */
+  void nodeFaulted(OdbNode node) {
+    if (Thread.currentThread() instanceof PrefetchThread) return;
+    if (node.layoutInformation().getLastTraversedOffsetPosition() == -1) return;
+    executor.execute(() -> prefetchNeighbours(node));
+  }
+
+  /** number of nodes that have been read from storage by the prefetcher */
+  public long getPrefetchedCount() {
+    return prefetchedCount.sum();
+  }
+
+  private void prefetchNeighbours(OdbNode faultedNode) {
+    try {
+      List<OdbNode> frontier = Collections.singletonList(faultedNode);
+      int remainingBudget = budget;
+      for (int level = 0; level < depth && remainingBudget > 0 && !frontier.isEmpty(); level++) {
+        final List<OdbNode> nextFrontier = new ArrayList<>();
+        for (OdbNode node : frontier) {
+          final Iterator<NodeRef> neighbours = node.adjacentNodeIterator(node.layoutInformation().getLastTraversedOffsetPosition());
+          while (neighbours.hasNext() && remainingBudget > 0) {
+            final NodeRef neighbour = neighbours.next();
+            /* n.b. removed edges leave `null` holes */
+            if (neighbour != null && neighbour.isCleared()) {
+              nextFrontier.add(neighbour.get());
+              prefetchedCount.increment();
+              remainingBudget--;
+            }
+          }
+        }
+        frontier = nextFrontier;
+      }
+    } catch (Exception e) {
+      /* e.g. the node has been removed or the graph has been closed in the meantime - prefetching is best effort */
+      logger.debug("unable to prefetch neighbours of node " + faultedNode.ref.id, e);
+    }
+  }
+
+  @Override
+  public void close() {
+    executor.shutdownNow();
+    try {
+      executor.awaitTermination(10, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    logger.debug("prefetched " + getPrefetchedCount() + " nodes in total");
+  }
+
+  private static class PrefetchThread extends Thread {
+    PrefetchThread(Runnable runnable, String name) {
+      super(runnable, name);
+      setDaemon(true);
+    }
+  }
+
+  private static class PrefetchThreadFactory implements ThreadFactory {
+    private final AtomicInteger threadCount = new AtomicInteger(0);
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      return new PrefetchThread(runnable, "overflowdb-prefetch-" + threadCount.incrementAndGet());
+    }
+  }
+}
@@ -39,6 +39,10 @@ public class NodeLayoutInformation {
    * 1-based, because index `0` is the adjacent node ref */
   private final Map<LabelAndKey, Integer> edgeLabelAndKeyToStrideIndex;
 
+  /* position in edgeOffsets of the edge block that was most recently traversed, for any node of this type. -1 if none.
+   * only a hint for the NeighbourPrefetcher, i.e. deliberately not synchronized */
+  private int lastTraversedOffsetPosition = -1;
+
   public NodeLayoutInformation(Set<String> propertyKeys,
                                List<EdgeLayoutInformation> outEdgeLayouts,
                                List<EdgeLayoutInformation> inEdgeLayouts) {
@@ -77,6 +81,17 @@ public class NodeLayoutInformation {
     }
   }
 
+  public int getLastTraversedOffsetPosition() {
+    return lastTraversedOffsetPosition;
+  }
+
+  /* on the hot path: only write if it changed, so that concurrent traversals don't keep invalidating the cache line */
+  void traversed(int offsetPosition) {
+    if (lastTraversedOffsetPosition != offsetPosition) {
+      lastTraversedOffsetPosition = offsetPosition;
+    }
+  }
+
   private Map<String, HashSet<String>> createEdgePropertyKeysByLabel(Set<EdgeLayoutInformation> allEdgeLayouts) {
     Map<String, HashSet<String>> edgePropertyKeysByLabel = new HashMap<>(allEdgeLayouts.size());
     for (EdgeLayoutInformation edgeLayout : allEdgeLayouts) {
@@ -8,21 +8,49 @@ import org.apache.tinkerpop.gremlin.structure.VertexProperty;
 
 import java.io.IOException;
 import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 /**
  * Wrapper for a node, which may be set to `null` by @ReferenceManager and persisted to storage to avoid `OutOfMemory` errors.
  *
  * When starting from an existing storage location, only `NodeRef` instances are created - the underlying nodes
  * are lazily fetched from storage.
+ *
+ * Loading and clearing the node follow a small state machine (see `state`), so that concurrent readers never read the
+ * same node twice or end up with different instances: only the thread that moves the ref from CLEARED to LOADING
+ * reads it from storage, all others wait for that load to complete. Clearing (CLEARING) waits for in-flight loads,
+ * and loads wait for in-flight clears.
  */
 public abstract class NodeRef<N extends OdbNode> implements Vertex {
+  private static final AtomicIntegerFieldUpdater<NodeRef> REGISTERED =
+      AtomicIntegerFieldUpdater.newUpdater(NodeRef.class, "registered");
+  private static final AtomicIntegerFieldUpdater<NodeRef> PINNED =
+      AtomicIntegerFieldUpdater.newUpdater(NodeRef.class, "pinned");
+  private static final AtomicIntegerFieldUpdater<NodeRef> STATE =
+      AtomicIntegerFieldUpdater.newUpdater(NodeRef.class, "state");
+
+  static final int CLEARED = 0;
+  static final int LOADING = 1;
+  static final int LOADED = 2;
+  static final int CLEARING = 3;
+
   public final long id;
   protected final OdbGraph graph;
-  private N node;
+  private volatile N node;
+  /* one of CLEARED, LOADING, LOADED, CLEARING. transitions from a stable (CLEARED, LOADED) into a transient state
+   * (LOADING, CLEARING) are CAS'd, and only the thread that won the CAS moves it on to the next stable state */
+  private volatile int state;
+  /* set whenever the node is accessed, see `EvictionPolicy`. racy on purpose, it's only a hint */
+  private boolean accessed;
+  /* 1 while the ref is registered with the ReferenceManager, so it's only ever registered once */
+  private volatile int registered;
+  /* 1 if the node must stay in memory, see `OdbGraph.pin` */
+  private volatile int pinned;
 
   public NodeRef(final OdbGraph graph, N node) {
     this.graph = graph;
     this.node = node;
+    this.state = LOADED;
     this.id = node.ref.id;
   }
 
@@ -33,6 +61,7 @@ public abstract class NodeRef<N extends OdbNode> implements Vertex {
   public NodeRef(final OdbGraph graph, final long id) {
     this.graph = graph;
     this.id = id;
+    this.state = CLEARED;
   }
 
   public boolean isSet() {
@@ -43,34 +72,181 @@ public abstract class NodeRef<N extends OdbNode> implements Vertex {
     return node == null;
   }
 
-  /* only called by @ReferenceManager */
+  /* only called by @ReferenceManager
+   * only serializes the node if it has been modified since it was last read from / written to storage, otherwise
+   * the bytes in storage are still up to date and we can simply drop the reference */
   protected void clear() throws IOException {
+    while (!STATE.compareAndSet(this, LOADED, CLEARING)) {
+      if (state == CLEARED) return;
+      awaitTransition();
+    }
+    boolean cleared = false;
+    try {
+      OdbNode node = this.node;
+      if (node != null && node.isModifiedSinceLastSerialization()) {
+        graph.storage.persist(node);
+      }
+      this.node = null;
+      cleared = true;
+    } finally {
+      completeTransition(cleared ? CLEARED : LOADED);
+    }
+  }
+
+  /* only called by @ReferenceManager
+   * @return the serialized node if it has been modified since it was last persisted, `null` otherwise */
+  protected byte[] serializeIfModified() throws IOException {
     OdbNode node = this.node;
-    if (node != null) {
-      graph.storage.persist(node);
+    if (node != null && node.isModifiedSinceLastSerialization()) {
+      return graph.storage.serialize(node);
+    } else {
+      return null;
     }
-    this.node = null;
   }
 
   public N get() {
     N ref = node;
     if (ref != null) {
+      if (!accessed) accessed = true; // only write if necessary, to not invalidate the cache line every time
       return ref;
     } else {
-      try {
-        final N node = readFromDisk(id);
-        if (node == null) throw new IllegalStateException("unable to read node from disk; id=" + id);
-        this.node = node;
-        graph.referenceManager.registerRef(this); // so it can be cleared on low memory
-        return node;
-      } catch (Exception e) {
-        throw new RuntimeException(e);
+      final N node = load();
+      graph.prefetcher.ifPresent(prefetcher -> prefetcher.nodeFaulted(node));
+      return node;
+    }
+  }
+
+  /* reads the node from storage - without triggering the NeighbourPrefetcher.
+   * if another thread is already loading (or clearing) it, waits for that to complete */
+  N load() {
+    while (true) {
+      final N node = this.node;
+      if (node != null) return node;
+      if (startLoad()) break;
+      awaitTransition();
+    }
+
+    N node = null;
+    try {
+      node = readFromDisk(id);
+      if (node == null) throw new IllegalStateException("unable to read node from disk; id=" + id);
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    } finally {
+      completeLoad(node);
+    }
+    return node;
+  }
+
+  /* first half of a load, for loading many nodes in one batch (see `OdbGraph.loadNodes`): nobody else reads (or
+   * modifies and persists) the node until `completeLoad` is called, which the caller must do in any case.
+   * @return false if it's not cleared, or someone else is loading it already */
+  boolean startLoad() {
+    return STATE.compareAndSet(this, CLEARED, LOADING);
+  }
+
+  /* second half of a load, see `startLoad`
+   * @param node as read from storage, `null` if that failed */
+  void completeLoad(N node) {
+    try {
+      /* it may not have been in memory when the graph was frozen */
+      if (node != null && graph.isFrozen()) node.compact();
+      this.node = node;
+    } finally {
+      completeTransition(this.node != null ? LOADED : CLEARED);
+    }
+    if (node != null) graph.referenceManager.registerRef(this); // so it can be cleared on low memory
+  }
+
+  /* waits until the current transient state (LOADING, CLEARING) is over */
+  private void awaitTransition() {
+    synchronized (this) {
+      while (state == LOADING || state == CLEARING) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new RuntimeException("interrupted while waiting for node to be loaded or cleared; id=" + id, e);
+        }
       }
     }
   }
 
+  /* n.b. waiters check the state while holding the monitor, so they can't miss the notification */
+  private void completeTransition(int newState) {
+    synchronized (this) {
+      state = newState;
+      notifyAll();
+    }
+  }
+
+  /* @return the node if it's in memory, `null` otherwise - doesn't read it from storage, nor mark it as accessed */
+  N getIfLoaded() {
+    return node;
+  }
+
+  /** @return one of CLEARED, LOADING, LOADED, CLEARING */
+  int getState() {
+    return state;
+  }
+
+  /** @return true if the node has been accessed since the last call */
+  public boolean testAndClearAccessed() {
+    if (accessed) {
+      accessed = false;
+      return true;
+    } else {
+      return false;
+    }
+  }
+
+  /* only called by @ReferenceManager
+   * @return true if the ref wasn't registered before */
+  boolean markRegistered() {
+    return registered == 0 && REGISTERED.compareAndSet(this, 0, 1);
+  }
+
+  /* called by @ReferenceManager once the ref has been handed out for clearing, and by the EvictionPolicy when it
+   * drops a ref that has been cleared otherwise */
+  void unmarkRegistered() {
+    registered = 0;
+  }
+
+  /** @return approximate heap size of the node (see `OdbNode.estimatedSize`), 0 if it's not in memory */
+  public int estimatedSize() {
+    final N node = this.node;
+    return node == null ? 0 : node.estimatedSize();
+  }
+
+  public boolean isPinned() {
+    return pinned == 1;
+  }
+
+  /* only called by @ReferenceManager
+   * @return true if the ref wasn't pinned before */
+  boolean markPinned() {
+    return PINNED.compareAndSet(this, 0, 1);
+  }
+
+  /* only called by @ReferenceManager
+   * @return true if the ref was pinned before */
+  boolean unmarkPinned() {
+    return PINNED.compareAndSet(this, 1, 0);
+  }
+
+  /**
+   * publishes a new node, i.e. one that isn't in storage yet, on a ref that doesn't have one: that's what
+   * `NodeFactory.createNode(graph, id)` does. nodes from storage are only ever published by the ref itself, once
+   * they're completely deserialized - neither the OdbNode constructor nor `NodeFactory.createNode(ref)` set the node.
+   * @throws IllegalStateException if the ref already has a node, or one is being loaded or cleared
+   */
   public void setNode(N node) {
+    if (node == null) throw new IllegalArgumentException("node must not be null; id=" + id);
+    if (!STATE.compareAndSet(this, CLEARED, LOADING)) {
+      throw new IllegalStateException("node is already set, or being loaded or cleared; id=" + id);
+    }
     this.node = node;
+    completeTransition(LOADED);
   }
 
   protected N readFromDisk(long nodeId) throws IOException {
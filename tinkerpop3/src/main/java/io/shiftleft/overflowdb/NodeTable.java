@@ -0,0 +1,47 @@
+package io.shiftleft.overflowdb;
+
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * All NodeRefs of a graph, by id. See {@link HashNodeTable} (the default) and {@link PagedNodeTable}.
+ *
+ * Implementations don't need to support concurrent modifications, but must tolerate concurrent reads while there's
+ * (at most) one writer.
+ */
+public interface NodeTable extends Iterable<NodeRef> {
+
+  /** @return `null` if there's no node with that id */
+  NodeRef get(long id);
+
+  /** stores the ref by its id, replacing any existing one */
+  void put(NodeRef ref);
+
+  /** @return the removed ref, `null` if there was none */
+  NodeRef remove(long id);
+
+  boolean contains(long id);
+
+  int size();
+
+  @Override
+  Iterator<NodeRef> iterator();
+
+  @Override
+  default void forEach(Consumer<? super NodeRef> action) {
+    iterator().forEachRemaining(action);
+  }
+
+  default Stream<NodeRef> stream(boolean parallel) {
+    return StreamSupport.stream(Spliterators.spliterator(iterator(), size(), Spliterator.NONNULL | Spliterator.DISTINCT), parallel);
+  }
+
+  interface Factory {
+    /** one table per graph */
+    NodeTable create(int expectedSize);
+  }
+}
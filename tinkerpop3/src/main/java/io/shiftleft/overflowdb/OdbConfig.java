@@ -1,11 +1,38 @@
 package io.shiftleft.overflowdb;
 
+import io.shiftleft.overflowdb.storage.CompressionCodec;
+import io.shiftleft.overflowdb.storage.MVStoreBackend;
+import io.shiftleft.overflowdb.storage.StorageBackend;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Optional;
+import java.util.Set;
 
 public class OdbConfig {
   private boolean overflowEnabled = true;
   private int heapPercentageThreshold = 80;
+  private int heapLowWatermark = -1; // see `getHeapLowWatermark`
+  private int heapSamplingIntervalMillis = 0;
+  private boolean graduatedBackpressure = false;
   private Optional<String> storageLocation = Optional.empty();
+  private int evictionBatchSize = 10000;
+  private Set<String> pinnedLabels = Collections.emptySet();
+  private EvictionPolicy.Factory evictionPolicyFactory = TwoQueueEvictionPolicy.factory;
+  private NodeTable.Factory nodeTableFactory = HashNodeTable.factory;
+  private StorageBackend.Factory storageBackendFactory = MVStoreBackend.factory;
+  private int startupThreadCount = Runtime.getRuntime().availableProcessors();
+  private StartupListener startupListener = StartupListener.NOOP;
+  private Optional<CompressionCodec> compressionCodec = Optional.empty();
+  private int compressionThreshold = 128;
+  private long offHeapCacheSize = 0;
+  private boolean partialMaterialization = true;
+  private int prefetchDepth = 0;
+  private int prefetchBudget = 0;
+  private int prefetchThreadCount = 2;
+  private int batchLoadThreadCount = Runtime.getRuntime().availableProcessors();
+  private boolean concurrentMutation = false;
 
   public static OdbConfig withDefaults() {
     return new OdbConfig();
@@ -30,6 +57,37 @@ public class OdbConfig {
     return this;
   }
 
+  /**
+   * once OdbGraph started clearing references (see `withHeapPercentageThreshold`), it continues to do so until the
+   * heap - after GC - is at or below this percentage.
+   * defaults to 10 percentage points below the heapPercentageThreshold, i.e. 70%
+   */
+  public OdbConfig withHeapLowWatermark(int percentage) {
+    this.heapLowWatermark = percentage;
+    return this;
+  }
+
+  /**
+   * in addition to checking the heap after each GC, watch the tenured memory pools (via usage thresholds, and by
+   * sampling their usage at this interval) and start clearing references when they're expected to exceed the
+   * heapPercentageThreshold before the next GC, see `ProactiveHeapMonitor`. useful for bursty allocations.
+   * disabled (0) by default
+   */
+  public OdbConfig withProactiveHeapMonitoring(int samplingIntervalMillis) {
+    this.heapSamplingIntervalMillis = samplingIntervalMillis;
+    return this;
+  }
+
+  /**
+   * by default, threads that create nodes or edges are blocked while references are being cleared. with graduated
+   * backpressure, they're throttled instead, in proportion to how far the heap is above the heapPercentageThreshold
+   * (see `Backpressure`), and only blocked when it's nearly full. disabled by default
+   */
+  public OdbConfig withGraduatedBackpressure(boolean enabled) {
+    this.graduatedBackpressure = enabled;
+    return this;
+  }
+
   /* If specified, OdbGraph will be saved there on `close`.
    * To load from that location, just instantiate a new OdbGraph with the same location. */
   public OdbConfig withStorageLocation(String path) {
@@ -37,6 +95,141 @@ public class OdbConfig {
     return this;
   }
 
+  /**
+   * when clearing references, nodes are serialized in parallel and then written to storage in batches of this size.
+   * larger batches mean fewer (contended) storage writes, at the cost of holding more serialized nodes in memory.
+   * defaults to 10000
+   */
+  public OdbConfig withEvictionBatchSize(int batchSize) {
+    this.evictionBatchSize = batchSize;
+    return this;
+  }
+
+  /**
+   * decides which nodes to clear first when the heap runs full. defaults to `TwoQueueEvictionPolicy.factory`, which is
+   * scan resistant. an alternative is e.g. `ClockEvictionPolicy.factory`
+   */
+  public OdbConfig withEvictionPolicy(EvictionPolicy.Factory evictionPolicyFactory) {
+    this.evictionPolicyFactory = evictionPolicyFactory;
+    return this;
+  }
+
+  /**
+   * how to look up nodes by id. defaults to `HashNodeTable.factory`. `PagedNodeTable.factory` uses a lot less memory
+   * and is faster for (mostly) dense ids, e.g. the ones that are generated if you don't specify any
+   */
+  public OdbConfig withNodeTable(NodeTable.Factory nodeTableFactory) {
+    this.nodeTableFactory = nodeTableFactory;
+    return this;
+  }
+
+  /**
+   * nodes with these labels are pinned in memory, i.e. they're never cleared, see `OdbGraph.pin`. useful for nodes that
+   * (almost) every traversal touches. when starting from an existing storage location, they're read in eagerly.
+   */
+  public OdbConfig withPinnedLabels(String... labels) {
+    this.pinnedLabels = new HashSet<>(Arrays.asList(labels));
+    return this;
+  }
+
+  /**
+   * the key/value store that holds the serialized nodes. defaults to `MVStoreBackend.factory`,
+   * an alternative is e.g. `SegmentLogBackend.factory`
+   */
+  public OdbConfig withStorageBackend(StorageBackend.Factory storageBackendFactory) {
+    this.storageBackendFactory = storageBackendFactory;
+    return this;
+  }
+
+  /**
+   * number of threads used to initialize the graph from an existing storage location.
+   * defaults to the number of available processors
+   */
+  public OdbConfig withStartupThreadCount(int threadCount) {
+    this.startupThreadCount = threadCount;
+    return this;
+  }
+
+  /* gets notified about progress and timing when initializing from an existing storage location */
+  public OdbConfig withStartupListener(StartupListener startupListener) {
+    this.startupListener = startupListener;
+    return this;
+  }
+
+  /**
+   * compress serialized nodes before writing them to storage, e.g. with `LzfCodec.instance`.
+   * trades some cpu for less disk I/O and storage cache pressure. disabled by default
+   */
+  public OdbConfig withCompression(CompressionCodec codec) {
+    this.compressionCodec = Optional.ofNullable(codec);
+    return this;
+  }
+
+  /**
+   * only compress serialized nodes of at least this many bytes - smaller ones rarely compress well.
+   * defaults to 128
+   */
+  public OdbConfig withCompressionThreshold(int bytes) {
+    this.compressionThreshold = bytes;
+    return this;
+  }
+
+  /**
+   * keep the serialized bytes of up to this many bytes of recently written / read nodes in an off-heap cache (direct
+   * memory, see `-XX:MaxDirectMemorySize`), so that reading them back in doesn't need to go to storage.
+   * disabled (0) by default
+   */
+  public OdbConfig withOffHeapCache(long sizeInBytes) {
+    this.offHeapCacheSize = sizeInBytes;
+    return this;
+  }
+
+  /**
+   * when a node is read back from storage, only deserialize its properties right away - each edge block (i.e. the
+   * adjacent nodes for one direction and edge label) is deserialized on first access. that way e.g. reading a
+   * single property of a node with many edges doesn't deserialize all of its adjacent nodes. enabled by default
+   */
+  public OdbConfig withPartialMaterialization(boolean enabled) {
+    this.partialMaterialization = enabled;
+    return this;
+  }
+
+  /**
+   * after a node has been read from storage, read its neighbours in the background, following the edge label and
+   * direction that was most recently traversed for that node type: up to `depth` hops, and at most `budget` nodes
+   * per faulted node. disabled by default
+   */
+  public OdbConfig withNeighbourPrefetch(int depth, int budget) {
+    this.prefetchDepth = depth;
+    this.prefetchBudget = budget;
+    return this;
+  }
+
+  /* number of background threads for the neighbour prefetch, defaults to 2 */
+  public OdbConfig withPrefetchThreadCount(int threadCount) {
+    this.prefetchThreadCount = threadCount;
+    return this;
+  }
+
+  /**
+   * number of threads used to read a batch of nodes from storage, e.g. for all traversers in a barrier step, see
+   * `OdbGraph.loadNodes`. defaults to the number of available processors
+   */
+  public OdbConfig withBatchLoadThreadCount(int threadCount) {
+    this.batchLoadThreadCount = threadCount;
+    return this;
+  }
+
+  /**
+   * allows multiple threads to add and remove nodes and edges at the same time, e.g. to build a graph in parallel.
+   * uses a `ConcurrentNodeTable` instead of the configured one, and locks nodes while adding edges, which costs some
+   * memory and single threaded performance. default: false
+   */
+  public OdbConfig withConcurrentMutation(boolean enabled) {
+    this.concurrentMutation = enabled;
+    return this;
+  }
+
   public boolean isOverflowEnabled() {
     return overflowEnabled;
   }
@@ -45,7 +238,91 @@ public class OdbConfig {
     return heapPercentageThreshold;
   }
 
+  public int getHeapLowWatermark() {
+    return heapLowWatermark >= 0 ? heapLowWatermark : Integer.max(0, heapPercentageThreshold - 10);
+  }
+
+  public boolean isProactiveHeapMonitoringEnabled() {
+    return heapSamplingIntervalMillis > 0;
+  }
+
+  public int getHeapSamplingIntervalMillis() {
+    return heapSamplingIntervalMillis;
+  }
+
+  public boolean isGraduatedBackpressureEnabled() {
+    return graduatedBackpressure;
+  }
+
   public Optional<String> getStorageLocation() {
     return storageLocation;
   }
+
+  public int getEvictionBatchSize() {
+    return evictionBatchSize;
+  }
+
+  public EvictionPolicy.Factory getEvictionPolicyFactory() {
+    return evictionPolicyFactory;
+  }
+
+  public NodeTable.Factory getNodeTableFactory() {
+    return nodeTableFactory;
+  }
+
+  public Set<String> getPinnedLabels() {
+    return pinnedLabels;
+  }
+
+  public StorageBackend.Factory getStorageBackendFactory() {
+    return storageBackendFactory;
+  }
+
+  public int getStartupThreadCount() {
+    return startupThreadCount;
+  }
+
+  public StartupListener getStartupListener() {
+    return startupListener;
+  }
+
+  public Optional<CompressionCodec> getCompressionCodec() {
+    return compressionCodec;
+  }
+
+  public int getCompressionThreshold() {
+    return compressionThreshold;
+  }
+
+  public long getOffHeapCacheSize() {
+    return offHeapCacheSize;
+  }
+
+  public boolean isPartialMaterializationEnabled() {
+    return partialMaterialization;
+  }
+
+  public boolean isNeighbourPrefetchEnabled() {
+    return prefetchDepth > 0;
+  }
+
+  public int getPrefetchDepth() {
+    return prefetchDepth;
+  }
+
+  public int getPrefetchBudget() {
+    return prefetchBudget;
+  }
+
+  public int getPrefetchThreadCount() {
+    return prefetchThreadCount;
+  }
+
+  public int getBatchLoadThreadCount() {
+    return batchLoadThreadCount;
+  }
+
+  public boolean isConcurrentMutationEnabled() {
+    return concurrentMutation;
+  }
 }
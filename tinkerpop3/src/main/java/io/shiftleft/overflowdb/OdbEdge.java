@@ -93,6 +93,7 @@ public abstract class OdbEdge implements Edge {
 
   @Override
   public <V> Property<V> property(String key, V value) {
+    graph.checkMutable();
     // TODO check if it's an allowed property key
     if (inBlockOffset != UNINITIALIZED_BLOCK_OFFSET) {
       if (outBlockOffset == UNINITIALIZED_BLOCK_OFFSET) {
@@ -105,8 +106,14 @@ public abstract class OdbEdge implements Edge {
     } else {
       throw new RuntimeException("Cannot set property. In and out block offset unitialized.");
     }
-    inVertex.get().setEdgeProperty(Direction.IN, label, key, value, inBlockOffset);
-    outVertex.get().setEdgeProperty(Direction.OUT, label, key, value, outBlockOffset);
+    final StripedLocks locks = graph.nodeLocks;
+    if (locks != null) locks.lock(outVertex.id, inVertex.id);
+    try {
+      inVertex.get().setEdgeProperty(Direction.IN, label, key, value, inBlockOffset);
+      outVertex.get().setEdgeProperty(Direction.OUT, label, key, value, outBlockOffset);
+    } finally {
+      if (locks != null) locks.unlock(outVertex.id, inVertex.id);
+    }
     return new OdbProperty<>(key, value, this);
   }
 
@@ -117,9 +124,16 @@ public abstract class OdbEdge implements Edge {
 
   @Override
   public void remove() {
-    fixupBlockOffsets();
-    outVertex.get().removeEdge(Direction.OUT, label(), outBlockOffset);
-    inVertex.get().removeEdge(Direction.IN, label(), inBlockOffset);
+    graph.checkMutable();
+    final StripedLocks locks = graph.nodeLocks;
+    if (locks != null) locks.lock(outVertex.id, inVertex.id);
+    try {
+      fixupBlockOffsets();
+      outVertex.get().removeEdge(Direction.OUT, label(), outBlockOffset);
+      inVertex.get().removeEdge(Direction.IN, label(), inBlockOffset);
+    } finally {
+      if (locks != null) locks.unlock(outVertex.id, inVertex.id);
+    }
   }
 
   @Override
@@ -1,16 +1,17 @@
 package io.shiftleft.overflowdb;
 
-import gnu.trove.map.TLongObjectMap;
 import gnu.trove.map.hash.THashMap;
-import gnu.trove.map.hash.TLongObjectHashMap;
-import gnu.trove.set.hash.THashSet;
 import io.shiftleft.overflowdb.storage.NodeDeserializer;
 import io.shiftleft.overflowdb.storage.OdbStorage;
+import io.shiftleft.overflowdb.storage.OffHeapNodeCache;
+import io.shiftleft.overflowdb.storage.StorageBackend;
+import io.shiftleft.overflowdb.storage.SymbolTable;
 import io.shiftleft.overflowdb.tp3.GraphVariables;
 import io.shiftleft.overflowdb.tp3.TinkerIoRegistryV1d0;
 import io.shiftleft.overflowdb.tp3.TinkerIoRegistryV2d0;
 import io.shiftleft.overflowdb.tp3.TinkerIoRegistryV3d0;
 import io.shiftleft.overflowdb.tp3.optimizations.CountStrategy;
+import io.shiftleft.overflowdb.tp3.optimizations.FrontierBatchLoadStrategy;
 import io.shiftleft.overflowdb.tp3.optimizations.OdbGraphStepStrategy;
 import io.shiftleft.overflowdb.util.MultiIterator2;
 import org.apache.commons.configuration.Configuration;
@@ -37,7 +38,10 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -45,7 +49,16 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
 
 public final class OdbGraph implements Graph {
   private final Logger logger = LoggerFactory.getLogger(getClass());
@@ -53,24 +66,37 @@ public final class OdbGraph implements Graph {
   static {
     TraversalStrategies.GlobalCache.registerStrategies(OdbGraph.class, TraversalStrategies.GlobalCache.getStrategies(Graph.class).clone().addStrategies(
         OdbGraphStepStrategy.instance(),
-        CountStrategy.instance()));
+        CountStrategy.instance(),
+        FrontierBatchLoadStrategy.instance()));
   }
 
   private final GraphFeatures features = new GraphFeatures();
   protected final AtomicLong currentId = new AtomicLong(-1L);
-  protected TLongObjectMap<NodeRef> nodes;
-  protected THashMap<String, Set<NodeRef>> nodesByLabel;
+  protected NodeTable nodes;
+  protected Map<String, LabelNodes> nodesByLabel;
+  /* see `OdbConfig.withConcurrentMutation`, `null` if that's disabled */
+  final StripedLocks nodeLocks;
   protected final GraphVariables variables = new GraphVariables();
   protected OdbIndex<Vertex> nodeIndex = null;
   private final OdbConfig config;
   private boolean closed = false;
+  /* see `freeze` */
+  private volatile boolean frozen = false;
+  /* see `loadNodes`, created on first use */
+  private ExecutorService batchLoadExecutorService;
+  private static final int MIN_BATCH_LOAD_PARTITION_SIZE = 64;
+  private static final int NODE_LOCK_STRIPES = 1024;
 
   protected final Map<String, NodeFactory> nodeFactoryByLabel;
   protected final Map<String, EdgeFactory> edgeFactoryByLabel;
 
   protected final OdbStorage storage;
   protected final Optional<HeapUsageMonitor> heapUsageMonitor;
+  protected final Optional<ProactiveHeapMonitor> proactiveHeapMonitor;
   protected final ReferenceManager referenceManager;
+  protected final Optional<NeighbourPrefetcher> prefetcher;
+  /* new nodes with these labels are pinned right away */
+  private final Set<String> pinnedLabels = ConcurrentHashMap.newKeySet();
 
   public static OdbGraph open(OdbConfig configuration,
                               List<NodeFactory<?>> nodeFactories,
@@ -88,86 +114,186 @@ public final class OdbGraph implements Graph {
     this.config = config;
     this.nodeFactoryByLabel = nodeFactoryByLabel;
     this.edgeFactoryByLabel = edgeFactoryByLabel;
-
-    referenceManager = new ReferenceManager();
+    this.nodeLocks = config.isConcurrentMutationEnabled() ? new StripedLocks(NODE_LOCK_STRIPES) : null;
+
+    StorageBackend storageBackend = config.getStorageBackendFactory().create(config.getStorageLocation().map(File::new));
+    NodeDeserializer nodeDeserializer = new NodeDeserializer(this, nodeFactoryByLabel, new SymbolTable(storageBackend),
+        config.isPartialMaterializationEnabled());
+    storage = OdbStorage.createWithBackend(nodeDeserializer,
+        storageBackend,
+        config.getCompressionCodec(),
+        config.getCompressionThreshold(),
+        config.getOffHeapCacheSize() > 0 ? Optional.of(new OffHeapNodeCache(config.getOffHeapCacheSize())) : Optional.empty());
+
+    referenceManager = new ReferenceManager(storage, config);
     heapUsageMonitor = config.isOverflowEnabled() ?
-        Optional.of(new HeapUsageMonitor(config.getHeapPercentageThreshold(), referenceManager)) :
+        Optional.of(new HeapUsageMonitor(referenceManager)) :
+        Optional.empty();
+    proactiveHeapMonitor = config.isOverflowEnabled() && config.isProactiveHeapMonitoringEnabled() ?
+        Optional.of(new ProactiveHeapMonitor(config.getHeapPercentageThreshold(), config.getHeapSamplingIntervalMillis(), referenceManager)) :
+        Optional.empty();
+    prefetcher = config.isNeighbourPrefetchEnabled() ?
+        Optional.of(new NeighbourPrefetcher(config.getPrefetchDepth(), config.getPrefetchBudget(), config.getPrefetchThreadCount())) :
         Optional.empty();
 
-    NodeDeserializer nodeDeserializer = new NodeDeserializer(this, nodeFactoryByLabel);
     if (config.getStorageLocation().isPresent()) {
-      storage = OdbStorage.createWithSpecificLocation(nodeDeserializer, new File(config.getStorageLocation().get()));
       initElementCollections(storage);
     } else {
-      storage = OdbStorage.createWithTempFile(nodeDeserializer);
       initEmptyElementCollections();
     }
+    if (!config.getPinnedLabels().isEmpty()) {
+      pin(config.getPinnedLabels().toArray(new String[0]));
+    }
   }
 
   private void initEmptyElementCollections() {
-    nodes = new TLongObjectHashMap<>();
-    nodesByLabel = new THashMap<>(100);
+    nodes = nodeTableFactory().create(0);
+    nodesByLabel = config.isConcurrentMutationEnabled() ? new ConcurrentHashMap<>(100) : new THashMap<>(100);
   }
 
+  private NodeTable.Factory nodeTableFactory() {
+    return config.isConcurrentMutationEnabled() ? ConcurrentNodeTable.factory : config.getNodeTableFactory();
+  }
+
+  /**
+   * initializes NodeRefs for all nodes in storage.
+   * storage is scanned in partitions, which are decoded in parallel - the results are merged into presized collections.
+   * only the (id, label id) pairs are scanned, unless the storage was written by an older version that didn't have
+   * those yet - then we need to read the label from each serialized node.
+   */
   private void initElementCollections(OdbStorage storage) {
     long start = System.currentTimeMillis();
-    final Set<Map.Entry<Long, byte[]>> serializedNodes = storage.allNodes();
-    logger.info("initializing " + serializedNodes.size() + " nodes from existing storage - this may take some time");
-    int importCount = 0;
-    long maxId = currentId.get();
-
-    nodes = new TLongObjectHashMap<>(serializedNodes.size());
-    nodesByLabel = new THashMap<>(serializedNodes.size());
-    final Iterator<Map.Entry<Long, byte[]>> serializedVertexIter = serializedNodes.iterator();
-    while (serializedVertexIter.hasNext()) {
-      final Map.Entry<Long, byte[]> entry = serializedVertexIter.next();
-      try {
-        final NodeRef nodeRef = storage.getNodeDeserializer().get().deserializeRef(entry.getValue());
-        nodes.put(nodeRef.id, nodeRef);
-        storeInByLabelCollection(nodeRef);
-        importCount++;
-        if (importCount % 131072 == 0) {
-          logger.debug("imported " + importCount + " elements - still running...");
+    final int nodeCount = storage.nodeCount();
+    final int threadCount = Integer.max(1, config.getStartupThreadCount());
+    final StartupListener startupListener = config.getStartupListener();
+    logger.info("initializing " + nodeCount + " nodes from existing storage using " + threadCount + " threads - this may take some time");
+    startupListener.onStart(nodeCount, threadCount);
+
+    final AtomicInteger importCount = new AtomicInteger(0);
+    final AtomicLong maxId = new AtomicLong(currentId.get());
+    final List<Map<String, List<NodeRef>>> refsByLabelByPartition = new ArrayList<>();
+    final ExecutorService executorService = Executors.newFixedThreadPool(threadCount);
+    try {
+      final List<Future<Map<String, List<NodeRef>>>> futures = new ArrayList<>();
+      final NodeDeserializer nodeDeserializer = storage.getNodeDeserializer().get();
+      if (storage.hasLabelIdsForAllNodes()) {
+        final Function<Map.Entry<Long, Integer>, NodeRef> createRef = entry -> nodeDeserializer.createNodeRef(entry.getKey(), entry.getValue());
+        for (Iterator<Map.Entry<Long, Integer>> partition : storage.allLabelIdsPartitioned(threadCount)) {
+          futures.add(executorService.submit(() -> createRefs(partition, createRef, importCount, maxId, nodeCount, startupListener)));
+        }
+      } else {
+        logger.info("storage doesn't have label ids for all nodes, reading the labels from the serialized nodes instead");
+        final Function<Map.Entry<Long, byte[]>, NodeRef> createRef = entry -> {
+          try {
+            return nodeDeserializer.deserializeRef(storage.decompress(entry.getValue()));
+          } catch (IOException e) {
+            throw new RuntimeException("error while initializing vertex from storage: id=" + entry.getKey(), e);
+          }
+        };
+        for (Iterator<Map.Entry<Long, byte[]>> partition : storage.allNodesPartitioned(threadCount)) {
+          futures.add(executorService.submit(() -> createRefs(partition, createRef, importCount, maxId, nodeCount, startupListener)));
         }
-        if (nodeRef.id > maxId) maxId = nodeRef.id;
-      } catch (IOException e) {
-        throw new RuntimeException("error while initializing vertex from storage: id=" + entry.getKey(), e);
       }
+      for (Future<Map<String, List<NodeRef>>> future : futures) {
+        refsByLabelByPartition.add(future.get());
+      }
+
+      /* merge: all counts are known at this point, so we can presize all collections. since they're independent of
+       * each other, they can be populated concurrently */
+      final Map<String, Integer> countByLabel = new HashMap<>();
+      for (Map<String, List<NodeRef>> refsByLabel : refsByLabelByPartition) {
+        refsByLabel.forEach((label, refs) -> countByLabel.merge(label, refs.size(), Integer::sum));
+      }
+      nodes = nodeTableFactory().create(nodeCount);
+      nodesByLabel = config.isConcurrentMutationEnabled() ? new ConcurrentHashMap<>(countByLabel.size()) : new THashMap<>(countByLabel.size());
+      countByLabel.forEach((label, count) -> nodesByLabel.put(label, new LabelNodes(count)));
+
+      final List<Future<?>> mergeFutures = new ArrayList<>();
+      mergeFutures.add(executorService.submit(() -> {
+        for (Map<String, List<NodeRef>> refsByLabel : refsByLabelByPartition) {
+          for (List<NodeRef> refs : refsByLabel.values()) {
+            for (NodeRef ref : refs) nodes.put(ref);
+          }
+        }
+      }));
+      for (String label : countByLabel.keySet()) {
+        final LabelNodes refsForLabel = nodesByLabel.get(label);
+        mergeFutures.add(executorService.submit(() -> {
+          for (Map<String, List<NodeRef>> refsByLabel : refsByLabelByPartition) {
+            refsForLabel.addAll(refsByLabel.getOrDefault(label, Collections.emptyList()));
+          }
+        }));
+      }
+      for (Future<?> future : mergeFutures) {
+        future.get();
+      }
+    } catch (InterruptedException e) {
+      throw new RuntimeException("interrupted while initializing from storage", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+      else throw new RuntimeException("error while initializing from storage", e.getCause());
+    } finally {
+      executorService.shutdown();
     }
 
-    currentId.set(maxId + 1);
+    currentId.set(maxId.get() + 1);
     long elapsedMillis = System.currentTimeMillis() - start;
     logger.info("initialized " + this.toString() + " from existing storage in " + elapsedMillis + "ms");
+    startupListener.onComplete(nodes.size(), elapsedMillis);
+  }
+
+  private <T> Map<String, List<NodeRef>> createRefs(Iterator<T> entries,
+                                                    Function<T, NodeRef> createRef,
+                                                    AtomicInteger importCount,
+                                                    AtomicLong maxId,
+                                                    int nodeCount,
+                                                    StartupListener startupListener) {
+    final Map<String, List<NodeRef>> refsByLabel = new HashMap<>();
+    long partitionMaxId = maxId.get();
+    while (entries.hasNext()) {
+      final NodeRef nodeRef = createRef.apply(entries.next());
+      refsByLabel.computeIfAbsent(nodeRef.label(), label -> new ArrayList<>()).add(nodeRef);
+      if (nodeRef.id > partitionMaxId) partitionMaxId = nodeRef.id;
+      final int currentCount = importCount.incrementAndGet();
+      if (currentCount % StartupListener.PROGRESS_INTERVAL == 0) {
+        startupListener.onProgress(currentCount, nodeCount);
+      }
+    }
+    maxId.accumulateAndGet(partitionMaxId, Long::max);
+    return refsByLabel;
   }
 
+
   ////////////// STRUCTURE API METHODS //////////////////
   @Override
   public Vertex addVertex(final Object... keyValues) {
     if (isClosed()) {
       throw new IllegalStateException("cannot add more elements, graph is closed");
     }
+    checkMutable();
     ElementHelper.legalPropertyKeyValueArray(keyValues);
     final String label = ElementHelper.getLabelValue(keyValues).orElse(Vertex.DEFAULT_LABEL);
 
-    final long idValue = determineNewNodeId(keyValues);
-    currentId.set(Long.max(idValue, currentId.get()));
-
-    final NodeRef node = createNode(idValue, label, keyValues);
-    nodes.put(node.id, node);
-    storeInByLabelCollection(node);
-    return node;
-  }
-
-  private long determineNewNodeId(final Object... keyValues) {
-    Optional idValueMaybe = ElementHelper.getIdValue(keyValues);
-    if (idValueMaybe.isPresent()) {
-      final long idValue = parseLong(idValueMaybe.get());
-      if (nodes.containsKey(idValue)) {
-        throw Exceptions.vertexWithIdAlreadyExists(idValue);
+    final Optional idValueMaybe = ElementHelper.getIdValue(keyValues);
+    /* n.b. may block for a while, i.e. not while holding the node lock: other threads would wait on the same stripe */
+    if (nodeLocks != null) referenceManager.applyBackpressureMaybe();
+    while (true) {
+      final long idValue = idValueMaybe.isPresent() ? parseLong(idValueMaybe.get()) : currentId.incrementAndGet();
+      currentId.accumulateAndGet(idValue, Long::max);
+      if (nodeLocks != null) nodeLocks.lock(idValue);
+      try {
+        if (nodes.contains(idValue)) {
+          if (idValueMaybe.isPresent()) throw Exceptions.vertexWithIdAlreadyExists(idValue);
+          /* generated id is already taken: another thread added a node with that (explicit) id in the meantime */
+          continue;
+        }
+        final NodeRef node = createNode(idValue, label, keyValues);
+        nodes.put(node);
+        storeInByLabelCollection(node);
+        return node;
+      } finally {
+        if (nodeLocks != null) nodeLocks.unlock(idValue);
       }
-      return idValue;
-    } else {
-      return currentId.incrementAndGet();
     }
   }
 
@@ -191,6 +317,7 @@ public final class OdbGraph implements Graph {
     }
     final NodeFactory factory = nodeFactoryByLabel.get(label);
     final OdbNode underlying = factory.createNode(this, idValue);
+    if (pinnedLabels.contains(label)) referenceManager.pin(underlying.ref);
     this.referenceManager.registerRef(underlying.ref);
     node = underlying.ref;
     ElementHelper.attachProperties(node, VertexProperty.Cardinality.list, keyValues);
@@ -233,7 +360,12 @@ public final class OdbGraph implements Graph {
   @Override
   public void close() {
     this.closed = true;
+    prefetcher.ifPresent(prefetcher -> prefetcher.close());
+    synchronized (this) {
+      if (batchLoadExecutorService != null) batchLoadExecutorService.shutdown();
+    }
     heapUsageMonitor.ifPresent(monitor -> monitor.close());
+    proactiveHeapMonitor.ifPresent(monitor -> monitor.close());
     if (config.getStorageLocation().isPresent()) {
       /* persist to disk */
       referenceManager.clearAllReferences();
@@ -259,7 +391,7 @@ public final class OdbGraph implements Graph {
   @Override
   public Iterator<Vertex> vertices(final Object... ids) {
     if (ids.length == 0) { //return all nodes - that's how the tinkerpop api rolls.
-      final Iterator<NodeRef> nodeRefIter = nodes.valueCollection().iterator();
+      final Iterator<NodeRef> nodeRefIter = nodes.iterator();
       return IteratorUtils.map(nodeRefIter, ref -> ref); // javac has humour
     } else if (ids.length == 1) {
       // optimization for common case where only one id is requested
@@ -286,27 +418,207 @@ public final class OdbGraph implements Graph {
     return nodes.size();
   }
 
+  /** decides when and how many nodes are cleared from memory - exposed for monitoring and tuning */
+  public OverflowController overflowController() {
+    return referenceManager.getOverflowController();
+  }
+
+  /** throttling of node / edge creation while the heap runs full, including the time threads have been stalled */
+  public Backpressure backpressure() {
+    return referenceManager.getBackpressure();
+  }
+
+  /**
+   * pins the given nodes in memory, i.e. they'll never be cleared (unless the graph is closed). the ones that are
+   * currently only in storage are read back in.
+   * @return number of nodes that weren't pinned before
+   */
+  public int pin(long... ids) {
+    final List<NodeRef> refs = new ArrayList<>(ids.length);
+    for (long id : ids) {
+      final NodeRef ref = nodes.get(id);
+      if (ref != null) refs.add(ref);
+    }
+    return pinRefs(refs.iterator());
+  }
+
+  /** pins all nodes with the given labels, including the ones that are created later on, see `pin(long...)` */
+  public int pin(String... labels) {
+    int count = 0;
+    for (String label : labels) {
+      pinnedLabels.add(label);
+      if (nodesByLabel.containsKey(label)) count += pinRefs(nodesByLabel(label));
+    }
+    return count;
+  }
+
+  /**
+   * pins all nodes that match the given predicate, see `pin(long...)`.
+   * n.b. the predicate is evaluated on all nodes, which may mean reading them all from storage
+   */
+  public int pin(Predicate<Vertex> predicate) {
+    return pinRefs(IteratorUtils.filter(nodes.iterator(), predicate::test));
+  }
+
+  private int pinRefs(Iterator<NodeRef> refs) {
+    final List<NodeRef> newlyPinned = new ArrayList<>();
+    refs.forEachRemaining(ref -> {
+      if (referenceManager.pin(ref)) newlyPinned.add(ref);
+    });
+    loadNodes((Collection<NodeRef>) newlyPinned);
+    return newlyPinned.size();
+  }
+
+  /** @return number of nodes that were pinned before */
+  public int unpin(long... ids) {
+    int count = 0;
+    for (long id : ids) {
+      final NodeRef ref = nodes.get(id);
+      if (ref != null && referenceManager.unpin(ref)) count++;
+    }
+    return count;
+  }
+
+  /** unpins all nodes with the given labels, and stops pinning new nodes with those labels */
+  public int unpin(String... labels) {
+    int count = 0;
+    for (String label : labels) {
+      pinnedLabels.remove(label);
+      if (nodesByLabel.containsKey(label)) count += unpinRefs(nodesByLabel(label));
+    }
+    return count;
+  }
+
+  /** unpins all pinned nodes that match the given predicate */
+  public int unpin(Predicate<Vertex> predicate) {
+    return unpinRefs(IteratorUtils.filter(nodes.iterator(), ref -> ref.isPinned() && predicate.test(ref)));
+  }
+
+  private int unpinRefs(Iterator<NodeRef> refs) {
+    int count = 0;
+    while (refs.hasNext()) {
+      if (referenceManager.unpin(refs.next())) count++;
+    }
+    return count;
+  }
+
+  /**
+   * reads all given nodes that have been cleared from memory back in from storage, in one batch: read in the storage
+   * backend's physical order (see `OdbStorage.readSerializedNodes`) and deserialized in parallel. that's a lot faster
+   * than faulting them in one at a time, e.g. for all traversers in a barrier step, see `FrontierBatchLoadStrategy`.
+   * @return the number of nodes that have been read from storage
+   */
+  public int loadNodes(Collection<? extends Vertex> vertices) {
+    final List<NodeRef<?>> refs = new ArrayList<>();
+    for (Vertex vertex : vertices) {
+      if (vertex instanceof NodeRef && ((NodeRef<?>) vertex).isCleared()) {
+        refs.add((NodeRef<?>) vertex);
+      }
+    }
+    refs.sort(Comparator.comparingLong(ref -> ref.id));
+    /* the same ref may be in there multiple times, and it may be faulted in concurrently: we only read the ones we can
+     * claim, and nobody else can read, modify or persist those until we're done, i.e. the bytes we read stay current */
+    final List<NodeRef<?>> claimedRefs = new ArrayList<>(refs.size());
+    for (NodeRef<?> ref : refs) {
+      if (ref.startLoad()) claimedRefs.add(ref);
+    }
+    if (claimedRefs.isEmpty()) return 0;
+
+    final byte[][] serializedNodes;
+    try {
+      serializedNodes = storage.readSerializedNodes(claimedRefs.stream().mapToLong(ref -> ref.id).toArray());
+    } catch (RuntimeException e) {
+      for (NodeRef<?> ref : claimedRefs) ref.completeLoad(null);
+      throw e;
+    }
+
+    final int threadCount = Integer.max(1, config.getBatchLoadThreadCount());
+    if (threadCount == 1 || claimedRefs.size() < 2 * MIN_BATCH_LOAD_PARTITION_SIZE) {
+      completeLoads(claimedRefs, serializedNodes, 0, claimedRefs.size());
+    } else {
+      final int partitionSize = Integer.max(MIN_BATCH_LOAD_PARTITION_SIZE, (int) Math.ceil(claimedRefs.size() / (double) threadCount));
+      final ExecutorService executorService = batchLoadExecutorService();
+      final List<Future<?>> futures = new ArrayList<>();
+      for (int start = 0; start < claimedRefs.size(); start += partitionSize) {
+        final int partitionStart = start;
+        final int partitionEnd = Integer.min(start + partitionSize, claimedRefs.size());
+        futures.add(executorService.submit(() -> completeLoads(claimedRefs, serializedNodes, partitionStart, partitionEnd)));
+      }
+      try {
+        for (Future<?> future : futures) {
+          future.get();
+        }
+      } catch (InterruptedException e) {
+        throw new RuntimeException("interrupted while loading nodes from storage", e);
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+        else throw new RuntimeException("error while loading nodes from storage", e.getCause());
+      }
+    }
+    return claimedRefs.size();
+  }
+
+  /* deserializes the given range of claimed refs. every one of them must be completed, even if others fail, otherwise
+   * threads that are waiting for them would wait forever */
+  private void completeLoads(List<NodeRef<?>> claimedRefs, byte[][] serializedNodes, int start, int end) {
+    RuntimeException failure = null;
+    for (int i = start; i < end; i++) {
+      try {
+        completeLoad(claimedRefs.get(i), serializedNodes[i]);
+      } catch (RuntimeException e) {
+        if (failure == null) failure = e;
+      }
+    }
+    if (failure != null) throw failure;
+  }
+
+  private <N extends OdbNode> void completeLoad(NodeRef<N> ref, byte[] serializedNode) {
+    N node = null;
+    try {
+      node = storage.deserializeNode(serializedNode);
+      if (node == null) throw new IllegalStateException("unable to read node from disk; id=" + ref.id);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    } finally {
+      ref.completeLoad(node);
+    }
+  }
+
+  private synchronized ExecutorService batchLoadExecutorService() {
+    if (batchLoadExecutorService == null) {
+      batchLoadExecutorService = Executors.newFixedThreadPool(config.getBatchLoadThreadCount());
+    }
+    return batchLoadExecutorService;
+  }
+
   @Override
   public Iterator<Edge> edges(final Object... ids) {
     if (ids.length > 0) throw new IllegalArgumentException("edges only exist virtually, and they don't have ids");
     MultiIterator2 multiIterator = new MultiIterator2();
-    nodes.forEachValue(vertex -> {
-      multiIterator.addIterator(vertex.edges(Direction.OUT));
-      return true;
-    });
+    nodes.forEach(vertex -> multiIterator.addIterator(vertex.edges(Direction.OUT)));
     return multiIterator;
   }
 
   private void storeInByLabelCollection(NodeRef nodeRef) {
     final String label = nodeRef.label();
-    if (!nodesByLabel.containsKey(label))
-      nodesByLabel.put(label, new THashSet<>(1));
-
-    nodesByLabel.get(label).add(nodeRef);
+    nodesByLabel.computeIfAbsent(label, l -> new LabelNodes()).add(nodeRef);
   }
 
+  /** @return all nodes with the given label, in id order */
   public Iterator<NodeRef> nodesByLabel(final String label) {
-    return nodesByLabel.get(label).iterator();
+    final LabelNodes refs = nodesByLabel.get(label);
+    return refs == null ? Collections.emptyIterator() : refs.iterator();
+  }
+
+  /** @return all nodes with the given label, in id order - parallel streams split the label evenly */
+  public Stream<NodeRef> nodesByLabelStream(final String label, final boolean parallel) {
+    final LabelNodes refs = nodesByLabel.get(label);
+    return refs == null ? Stream.empty() : refs.stream(parallel);
+  }
+
+  public int nodeCount(final String label) {
+    final LabelNodes refs = nodesByLabel.get(label);
+    return refs == null ? 0 : refs.size();
   }
 
   public Iterator<NodeRef> nodesByLabel(final P<String> labelPredicate) {
@@ -319,6 +631,38 @@ public final class OdbGraph implements Graph {
     return multiIterator;
   }
 
+  /**
+   * switches the graph into read-only mode, e.g. once it's been built: all adjacency arrays of the nodes in memory are
+   * compacted (no more growth slack nor holes of removed edges), and so are the per label collections. from then on,
+   * reads don't need any coordination, and all mutations throw an IllegalStateException.
+   * nodes are still cleared from memory and read back in as needed, since that doesn't change the graph. nodes that
+   * are read back in are compacted as well, which materializes all their edge blocks right away.
+   *
+   * n.b. must not be called while other threads are modifying the graph, and edges (and their block offsets) that
+   * have been handed out before are invalid afterwards
+   */
+  public synchronized void freeze() {
+    if (frozen) return;
+    final long start = System.currentTimeMillis();
+    frozen = true;
+    nodes.stream(true).forEach(ref -> {
+      final OdbNode node = ref.getIfLoaded();
+      if (node != null) node.compact();
+    });
+    nodesByLabel.values().forEach(LabelNodes::freeze);
+    logger.info("froze " + this + " in " + (System.currentTimeMillis() - start) + "ms");
+  }
+
+  public boolean isFrozen() {
+    return frozen;
+  }
+
+  void checkMutable() {
+    if (frozen) {
+      throw new IllegalStateException("graph is frozen, i.e. read-only");
+    }
+  }
+
   @Override
   public Features features() {
     return features;
@@ -408,7 +752,7 @@ public final class OdbGraph implements Graph {
 
     @Override
     public boolean supportsConcurrentAccess() {
-      return false;
+      return config.isConcurrentMutationEnabled();
     }
 
     @Override
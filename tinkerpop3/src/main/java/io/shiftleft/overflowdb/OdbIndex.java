@@ -114,7 +114,7 @@ public final class OdbIndex<T extends Element> {
     this.indexedKeys.add(key);
 
     if (Vertex.class.isAssignableFrom(this.indexClass)) {
-      this.graph.nodes.valueCollection().<T>parallelStream()
+      this.graph.nodes.stream(true)
           .map(e -> new Object[]{((T) e).property(key), e})
           .filter(a -> ((Property) a[0]).isPresent())
           .forEach(a -> this.put(key, ((Property) a[0]).value(), (T) a[1]));
@@ -1,5 +1,6 @@
 package io.shiftleft.overflowdb;
 
+import io.shiftleft.overflowdb.storage.SerializedEdgeBlocks;
 import io.shiftleft.overflowdb.util.ArrayOffsetIterator;
 import io.shiftleft.overflowdb.util.MultiIterator2;
 import io.shiftleft.overflowdb.util.PackedIntArray;
@@ -31,6 +32,12 @@ import java.util.stream.StreamSupport;
  */
 public abstract class OdbNode implements Vertex {
 
+  /* see `estimatedSize`: assuming compressed oops, and a boxed value plus some overhead per property */
+  private static final int NODE_BASE_SIZE = 64;
+  private static final int ARRAY_HEADER_SIZE = 16;
+  private static final int REFERENCE_SIZE = 4;
+  private static final int PROPERTY_SIZE = 32;
+
   public final NodeRef ref;
 
   @Override
@@ -39,19 +46,31 @@ public abstract class OdbNode implements Vertex {
   }
 
   /**
-   * holds refs to all adjacent nodes (a.k.a. dummy edges) and the edge properties
+   * holds refs to all adjacent nodes (a.k.a. dummy edges) and the edge properties.
+   * volatile: grown arrays are replaced while other threads may be reading
    */
-  private Object[] adjacentNodesWithProperties = new Object[0];
+  private volatile Object[] adjacentNodesWithProperties = new Object[0];
 
   /* store the start offset and length into the above `adjacentNodesWithProperties` array in an interleaved manner,
    * i.e. each outgoing edge type has two entries in this array. */
   private PackedIntArray edgeOffsets;
 
+  /* edge blocks that haven't been deserialized yet, if this node was partially materialized from storage.
+   * `null` once all blocks are in `adjacentNodesWithProperties` */
+  private volatile SerializedEdgeBlocks serializedEdgeBlocks;
+
+  /* true if this node has been changed since it was last (de)serialized, i.e. the bytes in storage (if any) are stale.
+   * new nodes start out as modified, since they don't exist in storage yet.
+   * n.b. volatile: set by mutating threads, read and reset by the threads that serialize and clear the node */
+  private volatile boolean modifiedSinceLastSerialization = true;
+
   protected OdbNode(NodeRef ref) {
     this.ref = ref;
 
-    ref.setNode(this);
-    if (ref.graph != null) {
+    /* n.b. the node isn't published to the ref here: new nodes are set by `NodeFactory.createNode`, and nodes from
+     * storage by `NodeRef.load`, once they're completely deserialized */
+    /* in concurrent mutation mode, `OdbGraph.addVertex` does this before it takes the node lock */
+    if (ref.graph != null && ref.graph.nodeLocks == null) {
       ref.graph.referenceManager.applyBackpressureMaybe();
     }
 
@@ -63,11 +82,21 @@ public abstract class OdbNode implements Vertex {
   protected abstract <V> Iterator<VertexProperty<V>> specificProperties(String key);
 
   public Object[] getAdjacentNodesWithProperties() {
+    loadAllEdgeBlocks();
     return adjacentNodesWithProperties;
   }
 
   public void setAdjacentNodesWithProperties(Object[] adjacentNodesWithProperties) {
     this.adjacentNodesWithProperties = adjacentNodesWithProperties;
+    this.serializedEdgeBlocks = null;
+  }
+
+  /**
+   * the given edge blocks are deserialized into `adjacentNodesWithProperties` (which must already have the right size)
+   * on first access, see `OdbConfig.withPartialMaterialization`
+   */
+  public void setSerializedEdgeBlocks(SerializedEdgeBlocks serializedEdgeBlocks) {
+    this.serializedEdgeBlocks = serializedEdgeBlocks;
   }
 
   public int[] getEdgeOffsets() {
@@ -80,6 +109,19 @@ public abstract class OdbNode implements Vertex {
 
   public abstract Map<String, Object> valueMap();
 
+  /**
+   * approximate retained heap size in bytes, derived from the array lengths and the number of properties in the
+   * layout information - good enough to compare nodes with each other, see `SizeAwareEvictionPolicy`
+   */
+  public int estimatedSize() {
+    final SerializedEdgeBlocks serializedEdgeBlocks = this.serializedEdgeBlocks;
+    return NODE_BASE_SIZE
+        + ARRAY_HEADER_SIZE + REFERENCE_SIZE * adjacentNodesWithProperties.length
+        + ARRAY_HEADER_SIZE + Integer.BYTES * edgeOffsets.length()
+        + PROPERTY_SIZE * layoutInformation().propertyKeys().size()
+        + (serializedEdgeBlocks == null ? 0 : serializedEdgeBlocks.estimatedSize());
+  }
+
   @Override
   public Graph graph() {
     return ref.graph;
@@ -131,16 +173,40 @@ public abstract class OdbNode implements Vertex {
 
   @Override
   public <V> VertexProperty<V> property(VertexProperty.Cardinality cardinality, String key, V value, Object... keyValues) {
+    ref.graph.checkMutable();
     ElementHelper.legalPropertyKeyValueArray(keyValues);
     ElementHelper.validateProperty(key, value);
     synchronized (this) {
-//            this.modifiedSinceLastSerialization = true;
+      this.modifiedSinceLastSerialization = true;
       final VertexProperty<V> vp = updateSpecificProperty(cardinality, key, value);
       OdbIndex.autoUpdateIndex(this, key, value, null);
       return vp;
     }
   }
 
+  /**
+   * bulk setter used when deserializing a node from storage: sets the first `count` properties from the given
+   * arrays, without the validation, locking and modification tracking of `property(...)`.
+   * the arrays are reused by the caller, i.e. implementations must not hold on to them.
+   * list values are passed as a whole - this default implementation adds their elements one by one, specialized
+   * nodes may override it to e.g. assign them directly.
+   */
+  public void setPropertiesFromStorage(String[] keys, Object[] values, int count) {
+    for (int i = 0; i < count; i++) {
+      final String key = keys[i];
+      final Object value = values[i];
+      if (value instanceof List) {
+        for (Object element : (List) value) {
+          updateSpecificProperty(VertexProperty.Cardinality.list, key, element);
+          OdbIndex.autoUpdateIndex(this, key, element, null);
+        }
+      } else if (value != null) {
+        updateSpecificProperty(VertexProperty.Cardinality.list, key, value);
+        OdbIndex.autoUpdateIndex(this, key, value, null);
+      }
+    }
+  }
+
   protected abstract <V> VertexProperty<V> updateSpecificProperty(
       VertexProperty.Cardinality cardinality, String key, V value);
 
@@ -149,6 +215,7 @@ public abstract class OdbNode implements Vertex {
   @Override
   public void remove() {
     OdbGraph graph = ref.graph;
+    graph.checkMutable();
     final List<Edge> edges = new ArrayList<>();
     this.edges(Direction.BOTH).forEachRemaining(edges::add);
     for (Edge edge : edges) {
@@ -158,15 +225,21 @@ public abstract class OdbNode implements Vertex {
     }
     OdbIndex.removeElementIndex(this);
     graph.nodes.remove(ref.id);
-    graph.nodesByLabel.get(label()).remove(this);
+    graph.nodesByLabel.get(label()).remove(ref);
 
     graph.storage.removeNode(ref.id);
-//        this.modifiedSinceLastSerialization = true;
+    graph.referenceManager.unpin(ref);
+    /* the node is gone from storage, make sure it doesn't get written back when its ref is cleared */
+    this.modifiedSinceLastSerialization = false;
   }
 
-//    public void setModifiedSinceLastSerialization(boolean modifiedSinceLastSerialization) {
-//        this.modifiedSinceLastSerialization = modifiedSinceLastSerialization;
-//    }
+  public boolean isModifiedSinceLastSerialization() {
+    return modifiedSinceLastSerialization;
+  }
+
+  public void setModifiedSinceLastSerialization(boolean modifiedSinceLastSerialization) {
+    this.modifiedSinceLastSerialization = modifiedSinceLastSerialization;
+  }
 
   public <V> Iterator<Property<V>> getEdgeProperties(Direction direction,
                                                      OdbEdge edge,
@@ -212,6 +285,7 @@ public abstract class OdbNode implements Vertex {
       throw new RuntimeException("Edge " + edgeLabel + " does not support property " + key + ".");
     }
     adjacentNodesWithProperties[propertyPosition] = value;
+    this.modifiedSinceLastSerialization = true;
   }
 
   private int calcAdjacentNodeIndex(Direction direction,
@@ -222,6 +296,7 @@ public abstract class OdbNode implements Vertex {
       return -1;
     }
 
+    loadEdgeBlock(offsetPos);
     int start = startIndex(offsetPos);
     return start + blockOffset;
   }
@@ -248,11 +323,26 @@ public abstract class OdbNode implements Vertex {
 
   @Override
   public Edge addEdge(String label, Vertex inNode, Object... keyValues) {
+    ref.graph.checkMutable();
     final NodeRef inNodeRef = (NodeRef) inNode;
     NodeRef thisNodeRef = ref;
 
-    int outBlockOffset = storeAdjacentNode(Direction.OUT, label, inNodeRef, keyValues);
-    int inBlockOffset = inNodeRef.get().storeAdjacentNode(Direction.IN, label, thisNodeRef, keyValues);
+    final int outBlockOffset;
+    final int inBlockOffset;
+    final StripedLocks locks = ref.graph.nodeLocks;
+    if (locks == null) {
+      outBlockOffset = storeAdjacentNode(Direction.OUT, label, inNodeRef, keyValues);
+      inBlockOffset = inNodeRef.get().storeAdjacentNode(Direction.IN, label, thisNodeRef, keyValues);
+    } else {
+      /* n.b. the dummy edge is created outside of the locks, since that may block for backpressure */
+      locks.lock(thisNodeRef.id, inNodeRef.id);
+      try {
+        outBlockOffset = thisNodeRef.get().storeAdjacentNode(Direction.OUT, label, inNodeRef, keyValues);
+        inBlockOffset = inNodeRef.get().storeAdjacentNode(Direction.IN, label, thisNodeRef, keyValues);
+      } finally {
+        locks.unlock(thisNodeRef.id, inNodeRef.id);
+      }
+    }
 
     OdbEdge dummyEdge = instantiateDummyEdge(label, thisNodeRef, inNodeRef);
     dummyEdge.setOutBlockOffset(outBlockOffset);
@@ -310,6 +400,7 @@ public abstract class OdbNode implements Vertex {
                                      NodeRef otherNode,
                                      int blockOffset) {
     int offsetPos = getPositionInEdgeOffsets(direction, label);
+    loadEdgeBlock(offsetPos);
     int start = startIndex(offsetPos);
     int strideSize = getStrideSize(label);
 
@@ -335,6 +426,7 @@ public abstract class OdbNode implements Vertex {
                                      NodeRef adjacentNode,
                                      int occurrence) {
     int offsetPos = getPositionInEdgeOffsets(direction, label);
+    loadEdgeBlock(offsetPos);
     int start = startIndex(offsetPos);
     int length = blockLength(offsetPos);
     int strideSize = getStrideSize(label);
@@ -364,18 +456,22 @@ public abstract class OdbNode implements Vertex {
    */
   protected void removeEdge(Direction direction, String label, int blockOffset) {
     int offsetPos = getPositionInEdgeOffsets(direction, label);
+    loadEdgeBlock(offsetPos);
     int start = startIndex(offsetPos) + blockOffset;
     int strideSize = getStrideSize(label);
 
     for (int i = start; i < start + strideSize; i++) {
       adjacentNodesWithProperties[i] = null;
     }
+    this.modifiedSinceLastSerialization = true;
   }
 
   private Iterator<Edge> createDummyEdgeIterator(Direction direction,
                                                  String label) {
     int offsetPos = getPositionInEdgeOffsets(direction, label);
     if (offsetPos != -1) {
+      layoutInformation().traversed(offsetPos);
+      loadEdgeBlock(offsetPos);
       int start = startIndex(offsetPos);
       int length = blockLength(offsetPos);
       int strideSize = getStrideSize(label);
@@ -395,6 +491,15 @@ public abstract class OdbNode implements Vertex {
   // This is on the hot path, hence final.
 public final Iterator<NodeRef> createAdjacentNodeIteratorByOffSet(int offsetPos){
     if (offsetPos != -1) {
+      layoutInformation().traversed(offsetPos);
+    }
+    return adjacentNodeIterator(offsetPos);
+  }
+
+  /* same as `createAdjacentNodeIteratorByOffSet`, but doesn't count as a traversal, see `NeighbourPrefetcher` */
+  final Iterator<NodeRef> adjacentNodeIterator(int offsetPos) {
+    if (offsetPos != -1) {
+      loadEdgeBlock(offsetPos);
       int start = startIndex(offsetPos);
       int length = blockLength(offsetPos);
       int strideSize = layoutInformation().getEdgePropertyCountByOffsetPos(offsetPos) + 1;
@@ -428,6 +533,8 @@ public final Iterator<NodeRef> createAdjacentNodeIteratorByOffSet(int offsetPos)
       throw new RuntimeException("Edge of type " + edgeLabel + " with direction " + direction +
           " not supported by class " + getClass().getSimpleName());
     }
+    /* growing shifts all following blocks, i.e. they all need to be deserialized */
+    loadAllEdgeBlocks();
     int start = startIndex(offsetPos);
     int length = blockLength(offsetPos);
     int strideSize = getStrideSize(edgeLabel);
@@ -435,17 +542,40 @@ public final Iterator<NodeRef> createAdjacentNodeIteratorByOffSet(int offsetPos)
     int insertAt = start + length;
     if (adjacentNodesWithProperties.length <= insertAt || adjacentNodesWithProperties[insertAt] != null) {
       // space already occupied - grow adjacentNodesWithProperties array, leaving some room for more elements
-      adjacentNodesWithProperties = growAdjacentNodesWithProperties(offsetPos, strideSize, insertAt, length);
+      final Object[] grown = growAdjacentNodesWithProperties(offsetPos, strideSize, insertAt, length);
+      // fill in the new element before publishing the new array
+      grown[insertAt] = nodeRef;
+      adjacentNodesWithProperties = grown;
+    } else {
+      adjacentNodesWithProperties[insertAt] = nodeRef;
     }
-
-    adjacentNodesWithProperties[insertAt] = nodeRef;
     // update edgeOffset length to include the newly inserted element
     edgeOffsets.set(2 * offsetPos + 1, length + strideSize);
+    this.modifiedSinceLastSerialization = true;
 
     int blockOffset = length;
     return blockOffset;
   }
 
+  /* deserialize the given edge block, if this node was partially materialized and that didn't happen yet */
+  private void loadEdgeBlock(int offsetPosition) {
+    final SerializedEdgeBlocks blocks = serializedEdgeBlocks;
+    if (blocks != null && offsetPosition != -1) {
+      blocks.load(offsetPosition, adjacentNodesWithProperties, startIndex(offsetPosition), blockLength(offsetPosition));
+      if (blocks.isComplete()) serializedEdgeBlocks = null;
+    }
+  }
+
+  private void loadAllEdgeBlocks() {
+    final SerializedEdgeBlocks blocks = serializedEdgeBlocks;
+    if (blocks != null) {
+      for (int offsetPos = 0; offsetPos < blocks.blockCount(); offsetPos++) {
+        blocks.load(offsetPos, adjacentNodesWithProperties, startIndex(offsetPos), blockLength(offsetPos));
+      }
+      serializedEdgeBlocks = null;
+    }
+  }
+
   private int startIndex(int offsetPosition) {
     return edgeOffsets.get(2 * offsetPosition);
   }
@@ -531,6 +661,47 @@ public final Iterator<NodeRef> createAdjacentNodeIteratorByOffSet(int offsetPos)
     return newArray;
   }
 
+  /**
+   * drops the slack that `growAdjacentNodesWithProperties` left behind, as well as the holes of removed edges,
+   * i.e. `adjacentNodesWithProperties` ends up with exactly one entry per edge (and edge property). see `OdbGraph.freeze`
+   * n.b. this changes the block offsets, i.e. edges that have been handed out before are invalid afterwards
+   */
+  synchronized void compact() {
+    /* nodes are stored with the slack and holes they had in memory, i.e. those from storage need compacting, too */
+    loadAllEdgeBlocks();
+    final Object[] adjacentNodesWithProperties = this.adjacentNodesWithProperties;
+    final int blockCount = edgeOffsets.length() / 2;
+    int compactedSize = 0;
+    for (int offsetPos = 0; offsetPos < blockCount; offsetPos++) {
+      final int strideSize = layoutInformation().getEdgePropertyCountByOffsetPos(offsetPos) + 1;
+      final int start = startIndex(offsetPos);
+      for (int i = start; i < start + blockLength(offsetPos); i += strideSize) {
+        if (adjacentNodesWithProperties[i] != null) compactedSize += strideSize;
+      }
+    }
+    if (compactedSize == adjacentNodesWithProperties.length) return;
+
+    final Object[] compacted = new Object[compactedSize];
+    int position = 0;
+    for (int offsetPos = 0; offsetPos < blockCount; offsetPos++) {
+      final int strideSize = layoutInformation().getEdgePropertyCountByOffsetPos(offsetPos) + 1;
+      final int start = startIndex(offsetPos);
+      final int end = start + blockLength(offsetPos);
+      final int newStart = position;
+      for (int i = start; i < end; i += strideSize) {
+        if (adjacentNodesWithProperties[i] != null) {
+          System.arraycopy(adjacentNodesWithProperties, i, compacted, position, strideSize);
+          position += strideSize;
+        }
+      }
+      edgeOffsets.set(2 * offsetPos, newStart);
+      edgeOffsets.set(2 * offsetPos + 1, position - newStart);
+    }
+    this.adjacentNodesWithProperties = compacted;
+    /* the layout in storage is stale now: if it was read back in, edges handed out since would point to the wrong entries */
+    this.modifiedSinceLastSerialization = true;
+  }
+
   /**
    * to follow the tinkerpop api, instantiate and return a dummy edge, which doesn't really exist in the graph
    */
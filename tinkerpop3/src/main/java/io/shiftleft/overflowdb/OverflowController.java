@@ -0,0 +1,230 @@
+package io.shiftleft.overflowdb;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decides when, and how many, references the {@link ReferenceManager} clears, based on the heap usage after GC.
+ *
+ * Once the heap is above the high watermark, references are cleared in rounds until it's below the low watermark
+ * again - that's the hysteresis that avoids lots of small clearings right after one another.
+ * The size of each round is estimated from the bytes that previous rounds have freed per node: it's the number of
+ * nodes that should bring the heap down to the low watermark. A round also ends early once the estimated size of the
+ * cleared nodes (see `NodeRef.estimatedSize`, calibrated with the bytes actually freed) reaches that target - that's
+ * what makes e.g. the `SizeAwareEvictionPolicy` clear fewer nodes.
+ *
+ * All getters are meant for monitoring and tuning, e.g. via `OdbGraph.overflowController`.
+ */
+public class OverflowController {
+  /* estimate until we have the first measurement */
+  public static final int INITIAL_BYTES_PER_NODE = 1024;
+  /* avoids lots of tiny rounds, e.g. when the estimate is way off */
+  public static final int MIN_RELEASE_COUNT = 1000;
+  /* weight of the latest measurement in the (exponential moving average) estimate */
+  private static final double SMOOTHING = 0.5;
+
+  private final float highWatermark;
+  private final float lowWatermark;
+
+  private volatile boolean releasing = false;
+  private volatile double estimatedBytesPerNode = INITIAL_BYTES_PER_NODE;
+  private volatile float lastHeapUsage = 0f;
+  private volatile float lastExpectedHeapUsage = 0f;
+  private volatile int lastReleaseCount = 0;
+  private volatile int measurementCount = 0;
+  /* actual bytes freed / sum of `NodeRef.estimatedSize` of the cleared nodes */
+  private volatile double sizeEstimateRatio = 1.0;
+  private volatile long lastReleaseTargetBytes = 0;
+  private final AtomicInteger pinnedNodeCount = new AtomicInteger(0);
+
+  /* measurement of the last round: heap usage before it was scheduled, and the number of nodes actually cleared */
+  private long usedBytesBeforeRelease;
+  private int releasedCount = -1;
+  private long releasedEstimatedBytes;
+  /* false for rounds that were triggered by an expected heap usage: we can't tell how much of the heap was garbage */
+  private boolean measurable;
+  /* (expected) usage that triggered the last round based on an expected heap usage, -1 once a GC has reported the
+   * actual usage since: until then, the same usage (which may be mostly garbage) mustn't trigger yet another round */
+  private long expectedReleaseUsedBytes = -1;
+
+  /**
+   * @param highWatermarkPercentage start clearing references when heap usage after GC is above this
+   * @param lowWatermarkPercentage keep clearing references until heap usage after GC is at or below this
+   */
+  public OverflowController(int highWatermarkPercentage, int lowWatermarkPercentage) {
+    if (highWatermarkPercentage < 0 || highWatermarkPercentage > 100) {
+      throw new IllegalArgumentException("heapPercentageThreshold must be between 0 and 100, but is " + highWatermarkPercentage);
+    }
+    if (lowWatermarkPercentage < 0 || lowWatermarkPercentage > highWatermarkPercentage) {
+      throw new IllegalArgumentException("heapLowWatermark must be between 0 and heapPercentageThreshold (" +
+          highWatermarkPercentage + "), but is " + lowWatermarkPercentage);
+    }
+    this.highWatermark = highWatermarkPercentage / 100f;
+    this.lowWatermark = lowWatermarkPercentage / 100f;
+  }
+
+  /**
+   * called after each GC
+   * @param releaseInProgress if the previous round is still running, we don't schedule another one
+   * @return the number of references to clear now, 0 if none
+   */
+  public synchronized int onHeapUsage(long usedBytes, long maxBytes, boolean releaseInProgress) {
+    if (maxBytes <= 0) return 0;
+    final float heapUsage = (float) usedBytes / maxBytes;
+    lastHeapUsage = heapUsage;
+    expectedReleaseUsedBytes = -1;
+
+    if (releasedCount > 0 && !releaseInProgress) {
+      if (measurable) measure(usedBytes);
+      releasedCount = -1;
+    }
+
+    if (!releasing && heapUsage > highWatermark) {
+      releasing = true;
+    } else if (releasing && heapUsage <= lowWatermark) {
+      releasing = false;
+    }
+    if (!releasing || releaseInProgress) {
+      return 0;
+    }
+
+    final double excessBytes = usedBytes - (double) lowWatermark * maxBytes;
+    final int releaseCount = (int) Math.max(MIN_RELEASE_COUNT, Math.min(Integer.MAX_VALUE, Math.ceil(excessBytes / estimatedBytesPerNode)));
+    lastReleaseCount = releaseCount;
+    lastReleaseTargetBytes = (long) excessBytes;
+    usedBytesBeforeRelease = usedBytes;
+    releasedCount = -1;
+    measurable = true;
+    return releaseCount;
+  }
+
+  /**
+   * called with an expected (upper bound of the) heap usage before the next GC, see {@link ProactiveHeapMonitor}.
+   * if that's above the high watermark, we start clearing right away - but only to get below the high watermark,
+   * since part of that usage is garbage. the next GC then tells us whether we need to go down to the low watermark.
+   * until then, we only start another round if the expected usage has grown beyond the one that started the last.
+   * @return the number of references to clear now, 0 if none
+   */
+  public synchronized int onExpectedHeapUsage(long usedBytes, long maxBytes, boolean releaseInProgress) {
+    if (maxBytes <= 0) return 0;
+    final float heapUsage = (float) usedBytes / maxBytes;
+    lastExpectedHeapUsage = heapUsage;
+    if (releaseInProgress || heapUsage <= highWatermark || usedBytes <= expectedReleaseUsedBytes) {
+      return 0;
+    }
+
+    releasing = true;
+    final double excessBytes = usedBytes - (double) highWatermark * maxBytes;
+    final int releaseCount = (int) Math.max(MIN_RELEASE_COUNT, Math.min(Integer.MAX_VALUE, Math.ceil(excessBytes / estimatedBytesPerNode)));
+    lastReleaseCount = releaseCount;
+    lastReleaseTargetBytes = (long) excessBytes;
+    releasedCount = -1;
+    measurable = false;
+    expectedReleaseUsedBytes = usedBytes;
+    return releaseCount;
+  }
+
+  /**
+   * called once a round is complete
+   * @param releasedCount number of references that have actually been cleared
+   * @param releasedEstimatedBytes sum of their `NodeRef.estimatedSize`
+   */
+  public synchronized void onReleaseCompleted(int releasedCount, long releasedEstimatedBytes) {
+    this.releasedCount = releasedCount;
+    this.releasedEstimatedBytes = releasedEstimatedBytes;
+  }
+
+  /**
+   * @return true if clearing a node of the given estimated size would be enough to free `lastReleaseTargetBytes`,
+   * i.e. the ReferenceManager can stop clearing more nodes in this round
+   */
+  public boolean isReleaseTargetReached(long estimatedBytes) {
+    return estimatedBytes * sizeEstimateRatio >= lastReleaseTargetBytes;
+  }
+
+  /* n.b. allocations in the meantime make this an underestimate, and a young GC may not have collected the
+   * cleared nodes yet - we therefore ignore measurements where the heap hasn't shrunk at all */
+  private void measure(long usedBytes) {
+    final long freedBytes = usedBytesBeforeRelease - usedBytes;
+    if (freedBytes > 0) {
+      final double bytesPerNode = (double) freedBytes / releasedCount;
+      estimatedBytesPerNode = measurementCount == 0 ?
+          bytesPerNode :
+          SMOOTHING * bytesPerNode + (1 - SMOOTHING) * estimatedBytesPerNode;
+      if (releasedEstimatedBytes > 0) {
+        final double ratio = (double) freedBytes / releasedEstimatedBytes;
+        sizeEstimateRatio = measurementCount == 0 ?
+            ratio :
+            SMOOTHING * ratio + (1 - SMOOTHING) * sizeEstimateRatio;
+      }
+      measurementCount++;
+    }
+  }
+
+  public float getHighWatermark() {
+    return highWatermark;
+  }
+
+  public float getLowWatermark() {
+    return lowWatermark;
+  }
+
+  /** true between the heap crossing the high watermark and dropping to the low watermark */
+  public boolean isReleasing() {
+    return releasing;
+  }
+
+  public double getEstimatedBytesPerNode() {
+    return estimatedBytesPerNode;
+  }
+
+  /** number of rounds that have contributed to `estimatedBytesPerNode` */
+  public int getMeasurementCount() {
+    return measurementCount;
+  }
+
+  /** heap usage after the last GC, range 0.0 - 1.0 */
+  public float getLastHeapUsage() {
+    return lastHeapUsage;
+  }
+
+  /** expected heap usage (upper bound) before the next GC, see `onExpectedHeapUsage`, range 0.0 - 1.0 */
+  public float getLastExpectedHeapUsage() {
+    return lastExpectedHeapUsage;
+  }
+
+  public int getLastReleaseCount() {
+    return lastReleaseCount;
+  }
+
+  /** bytes that the last round was supposed to free, i.e. to get down to the low watermark */
+  public long getLastReleaseTargetBytes() {
+    return lastReleaseTargetBytes;
+  }
+
+  /** how far off `NodeRef.estimatedSize` is from the bytes actually freed per node, 1.0 until we've measured it */
+  public double getSizeEstimateRatio() {
+    return sizeEstimateRatio;
+  }
+
+  /* called by the ReferenceManager when nodes are pinned / unpinned */
+  void pinnedNodeCountChanged(int delta) {
+    pinnedNodeCount.addAndGet(delta);
+  }
+
+  /** number of nodes that are pinned in memory, i.e. that won't be cleared, see `OdbGraph.pin` */
+  public int getPinnedNodeCount() {
+    return pinnedNodeCount.get();
+  }
+
+  /** heap that can't be freed because it's held by pinned nodes, based on `estimatedBytesPerNode` */
+  public long getEstimatedPinnedBytes() {
+    return (long) (pinnedNodeCount.get() * estimatedBytesPerNode);
+  }
+
+  @Override
+  public String toString() {
+    return String.format("OverflowController(watermarks=%d%%/%d%%, releasing=%s, heapUsage=%d%%, estimatedBytesPerNode=%.0f, sizeEstimateRatio=%.2f, lastReleaseCount=%d, pinnedNodes=%d (~%dMB))",
+        (int) (lowWatermark * 100), (int) (highWatermark * 100), releasing, (int) (lastHeapUsage * 100),
+        estimatedBytesPerNode, sizeEstimateRatio, lastReleaseCount, pinnedNodeCount.get(), getEstimatedPinnedBytes() / (1024 * 1024));
+  }
+}
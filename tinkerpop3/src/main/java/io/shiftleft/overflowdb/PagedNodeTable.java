@@ -0,0 +1,166 @@
+package io.shiftleft.overflowdb;
+
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
+
+/**
+ * Node table for graphs with (mostly) dense ids, e.g. the ones that OdbGraph generates: the NodeRefs are stored in
+ * pages of a directory that's indexed by id, i.e. a lookup is two array accesses, and there's no per-entry overhead
+ * nor rehashing.
+ *
+ * Pages are allocated on first use and the directory grows as needed. Ids that are negative or far beyond the
+ * allocated pages (which would leave large holes) go into a hash map instead, so a few outliers don't cost much.
+ */
+public class PagedNodeTable implements NodeTable {
+  public static final NodeTable.Factory factory = PagedNodeTable::new;
+
+  static final int PAGE_BITS = 16;
+  static final int PAGE_SIZE = 1 << PAGE_BITS;
+  private static final int PAGE_MASK = PAGE_SIZE - 1;
+  /* ids that are this many pages beyond the directory still count as dense */
+  private static final int MAX_PAGE_GAP = 16;
+
+  /* n.b. the directory may be replaced (growth), readers must only read the field once */
+  private volatile NodeRef[][] pages;
+  private final TLongObjectMap<NodeRef> sparse = new TLongObjectHashMap<>();
+  private int size = 0;
+
+  public PagedNodeTable(int expectedSize) {
+    this.pages = new NodeRef[Integer.max(1, (expectedSize + PAGE_SIZE - 1) >>> PAGE_BITS)][];
+  }
+
+  @Override
+  public NodeRef get(long id) {
+    final NodeRef[][] pages = this.pages;
+    final long pageIndex = id >>> PAGE_BITS;
+    if (id >= 0 && pageIndex < pages.length) {
+      final NodeRef[] page = pages[(int) pageIndex];
+      if (page != null) {
+        final NodeRef ref = page[(int) (id & PAGE_MASK)];
+        if (ref != null) return ref;
+      }
+    }
+    return sparse.isEmpty() ? null : sparse.get(id);
+  }
+
+  @Override
+  public void put(NodeRef ref) {
+    final long id = ref.id;
+    if (isDense(id)) {
+      final NodeRef[] page = page((int) (id >>> PAGE_BITS));
+      final int offset = (int) (id & PAGE_MASK);
+      /* it may have gone into `sparse` before the directory grew to cover its page */
+      final NodeRef previous = sparse.isEmpty() ? null : sparse.remove(id);
+      if (page[offset] == null && previous == null) size++;
+      page[offset] = ref;
+    } else {
+      if (sparse.put(id, ref) == null) size++;
+    }
+  }
+
+  @Override
+  public NodeRef remove(long id) {
+    final NodeRef[][] pages = this.pages;
+    final long pageIndex = id >>> PAGE_BITS;
+    if (id >= 0 && pageIndex < pages.length && pages[(int) pageIndex] != null) {
+      final NodeRef[] page = pages[(int) pageIndex];
+      final int offset = (int) (id & PAGE_MASK);
+      final NodeRef ref = page[offset];
+      if (ref != null) {
+        page[offset] = null;
+        size--;
+        return ref;
+      }
+    }
+    final NodeRef ref = sparse.remove(id);
+    if (ref != null) size--;
+    return ref;
+  }
+
+  @Override
+  public boolean contains(long id) {
+    return get(id) != null;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  /** number of entries that didn't fit into the pages */
+  public int sparseSize() {
+    return sparse.size();
+  }
+
+  private boolean isDense(long id) {
+    return id >= 0 && (id >>> PAGE_BITS) < (long) pages.length + MAX_PAGE_GAP;
+  }
+
+  private NodeRef[] page(int pageIndex) {
+    NodeRef[][] pages = this.pages;
+    if (pageIndex >= pages.length) {
+      final NodeRef[][] grown = new NodeRef[Integer.max(pageIndex + 1, pages.length * 2)][];
+      System.arraycopy(pages, 0, grown, 0, pages.length);
+      this.pages = pages = grown;
+    }
+    if (pages[pageIndex] == null) {
+      pages[pageIndex] = new NodeRef[PAGE_SIZE];
+    }
+    return pages[pageIndex];
+  }
+
+  @Override
+  public void forEach(Consumer<? super NodeRef> action) {
+    for (NodeRef[] page : pages) {
+      if (page == null) continue;
+      for (NodeRef ref : page) {
+        if (ref != null) action.accept(ref);
+      }
+    }
+    sparse.forEachValue(ref -> {
+      action.accept(ref);
+      return true;
+    });
+  }
+
+  @Override
+  public Iterator<NodeRef> iterator() {
+    final NodeRef[][] pages = this.pages;
+    final Iterator<NodeRef> sparseIterator = sparse.valueCollection().iterator();
+    return new Iterator<NodeRef>() {
+      private int pageIndex = 0;
+      private int offset = 0;
+      private NodeRef next = advance();
+
+      private NodeRef advance() {
+        while (pageIndex < pages.length) {
+          final NodeRef[] page = pages[pageIndex];
+          while (page != null && offset < PAGE_SIZE) {
+            final NodeRef ref = page[offset++];
+            if (ref != null) return ref;
+          }
+          pageIndex++;
+          offset = 0;
+        }
+        return sparseIterator.hasNext() ? sparseIterator.next() : null;
+      }
+
+      @Override
+      public boolean hasNext() {
+        return next != null;
+      }
+
+      @Override
+      public NodeRef next() {
+        if (next == null) throw new NoSuchElementException();
+        final NodeRef current = next;
+        next = advance();
+        return current;
+      }
+    };
+  }
+}
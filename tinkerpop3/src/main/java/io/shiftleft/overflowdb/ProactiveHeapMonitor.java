@@ -0,0 +1,161 @@
+package io.shiftleft.overflowdb;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Complements the {@link HeapUsageMonitor}, which only learns about the heap usage after a GC - by then, bursty
+ * allocations may have filled the heap to a point where clearing references doesn't complete before an
+ * OutOfMemoryError. This one warns the ReferenceManager ahead of time, based on the tenured memory pools, i.e. the
+ * ones that hold long lived objects such as our nodes:
+ * - usage and collection usage thresholds (at the high watermark) of these pools, via JMX notifications
+ * - a sampler that tracks how fast these pools grow (i.e. the promotion rate), and predicts their usage a little
+ *   while ahead
+ */
+public class ProactiveHeapMonitor implements AutoCloseable {
+  /* how far ahead we predict the usage: roughly the time it takes to clear a round of references */
+  public static final long PREDICTION_HORIZON_MILLIS = 2000;
+  /* weight of the latest sample in the (exponential moving average) growth rate */
+  private static final double SMOOTHING = 0.3;
+
+  private final Logger logger = LoggerFactory.getLogger(getClass());
+  private final HeapUsageMonitor.HeapNotificationListener notificationListener;
+  private final List<MemoryPoolMXBean> tenuredPools = new ArrayList<>();
+  /* thresholds are global to the JVM: the ones we've installed, and the ones before that (restored on close),
+   * each as {usage threshold, collection usage threshold} for the pool at the same index in `tenuredPools` */
+  private final List<long[]> installedThresholds = new ArrayList<>();
+  private final List<long[]> previousThresholds = new ArrayList<>();
+  private final NotificationEmitter memoryEmitter = (NotificationEmitter) ManagementFactory.getMemoryMXBean();
+  private final NotificationListener thresholdListener = this::onThresholdExceeded;
+  private final ScheduledExecutorService sampler;
+
+  /* only accessed by the sampler thread */
+  private long lastUsedBytes = -1;
+  private long lastSampleNanos;
+  private volatile double growthRate = 0; // bytes per second
+
+  /**
+   * @param highWatermarkPercentage threshold for the tenured pools, see `OdbConfig.withHeapPercentageThreshold`
+   * @param samplingIntervalMillis how often to sample the usage of the tenured pools
+   */
+  public ProactiveHeapMonitor(int highWatermarkPercentage,
+                              int samplingIntervalMillis,
+                              HeapUsageMonitor.HeapNotificationListener notificationListener) {
+    if (samplingIntervalMillis < 1) {
+      throw new IllegalArgumentException("samplingIntervalMillis must be positive, but is " + samplingIntervalMillis);
+    }
+    this.notificationListener = notificationListener;
+
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      /* eden and survivor spaces don't support usage thresholds */
+      if (pool.getType() == MemoryType.HEAP && pool.isUsageThresholdSupported() && pool.getUsage().getMax() > 0) {
+        final long threshold = pool.getUsage().getMax() * highWatermarkPercentage / 100;
+        final boolean collectionThresholdSupported = pool.isCollectionUsageThresholdSupported();
+        previousThresholds.add(new long[]{
+            pool.getUsageThreshold(), collectionThresholdSupported ? pool.getCollectionUsageThreshold() : 0});
+        pool.setUsageThreshold(threshold);
+        if (collectionThresholdSupported) pool.setCollectionUsageThreshold(threshold);
+        installedThresholds.add(new long[]{threshold, threshold});
+        tenuredPools.add(pool);
+      }
+    }
+    memoryEmitter.addNotificationListener(thresholdListener, null, null);
+
+    sampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "odb-heap-sampler");
+      thread.setDaemon(true);
+      return thread;
+    });
+    sampler.scheduleAtFixedRate(this::sample, samplingIntervalMillis, samplingIntervalMillis, TimeUnit.MILLISECONDS);
+    logger.info("installed proactive heap monitoring for tenured pools " +
+        tenuredPools.stream().map(MemoryPoolMXBean::getName).reduce((a, b) -> a + ", " + b).orElse("(none)"));
+  }
+
+  private void onThresholdExceeded(Notification notification, Object handback) {
+    final String type = notification.getType();
+    if (type.equals(MemoryNotificationInfo.MEMORY_THRESHOLD_EXCEEDED) ||
+        type.equals(MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED)) {
+      logger.debug("tenured pool above threshold: " + type);
+      final MemoryUsage usage = tenuredUsage();
+      notificationListener.notifyHeapUsageExpected(usage.getUsed(), usage.getMax());
+    }
+  }
+
+  /* n.b. must not throw, otherwise the executor stops scheduling it */
+  void sample() {
+    try {
+      sample(tenuredUsage(), System.nanoTime());
+    } catch (Exception e) {
+      logger.warn("error while sampling heap usage", e);
+    }
+  }
+
+  void sample(MemoryUsage usage, long now) {
+    final long used = usage.getUsed();
+    if (lastUsedBytes >= 0 && used >= lastUsedBytes) {
+      final double seconds = (now - lastSampleNanos) / 1e9;
+      if (seconds > 0) {
+        growthRate = SMOOTHING * ((used - lastUsedBytes) / seconds) + (1 - SMOOTHING) * growthRate;
+      }
+    } // otherwise a major GC has shrunk the pools - just start over from there
+    lastUsedBytes = used;
+    lastSampleNanos = now;
+
+    final long predictedUsed = used + (long) (growthRate * PREDICTION_HORIZON_MILLIS / 1000);
+    notificationListener.notifyHeapUsageExpected(Long.min(predictedUsed, usage.getMax()), usage.getMax());
+  }
+
+  private MemoryUsage tenuredUsage() {
+    long used = 0;
+    long committed = 0;
+    long max = 0;
+    for (MemoryPoolMXBean pool : tenuredPools) {
+      final MemoryUsage usage = pool.getUsage();
+      used += usage.getUsed();
+      committed += usage.getCommitted();
+      max += usage.getMax();
+    }
+    return new MemoryUsage(0, used, committed, max);
+  }
+
+  /** growth rate of the tenured pools in bytes per second, i.e. roughly the promotion rate */
+  public double getGrowthRate() {
+    return growthRate;
+  }
+
+  @Override
+  public void close() {
+    sampler.shutdownNow();
+    try {
+      memoryEmitter.removeNotificationListener(thresholdListener);
+    } catch (ListenerNotFoundException e) {
+      throw new RuntimeException("unable to remove memory threshold listener", e);
+    }
+    /* n.b. if someone else has installed a different threshold in the meantime, we leave theirs alone */
+    for (int i = 0; i < tenuredPools.size(); i++) {
+      final MemoryPoolMXBean pool = tenuredPools.get(i);
+      final long[] installed = installedThresholds.get(i);
+      final long[] previous = previousThresholds.get(i);
+      if (pool.getUsageThreshold() == installed[0]) pool.setUsageThreshold(previous[0]);
+      if (pool.isCollectionUsageThresholdSupported() && pool.getCollectionUsageThreshold() == installed[1]) {
+        pool.setCollectionUsageThreshold(previous[1]);
+      }
+    }
+    logger.info("uninstalled proactive heap monitoring.");
+  }
+}
@@ -1,18 +1,23 @@
 package io.shiftleft.overflowdb;
 
+import io.shiftleft.overflowdb.storage.OdbStorage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * can clear references to disk and apply backpressure when creating new nodes, both to avoid an OutOfMemoryError
@@ -23,19 +28,104 @@ import java.util.concurrent.atomic.AtomicInteger;
  * unchanged nodes.
  */
 public class ReferenceManager implements AutoCloseable, HeapUsageMonitor.HeapNotificationListener {
+  private static final Comparator<NodeRef> BY_ID = Comparator.comparingLong(ref -> ref.id);
+  private static final int REGISTRATION_QUEUE_CAPACITY = 1 << 16;
   private final Logger logger = LoggerFactory.getLogger(getClass());
 
-  public final int releaseCount = 100000; //TODO make configurable
+  private final OverflowController overflowController;
+  /* set while a round of clearing (scheduled by the overflowController) is running */
+  private volatile boolean releaseInProgress = false;
   private AtomicInteger totalReleaseCount = new AtomicInteger(0);
   private final Integer cpuCount = Runtime.getRuntime().availableProcessors();
   private final ExecutorService executorService = Executors.newFixedThreadPool(cpuCount);
-  private int clearingProcessCount = 0;
+  /* single writer: serialization happens in parallel on the above executor, but storage writes are funneled
+   * through this one thread to avoid contention on the underlying store */
+  private final ExecutorService writerExecutorService = Executors.newSingleThreadExecutor();
+  private volatile int clearingProcessCount = 0;
   private final Object backPressureSyncObject = new Object();
+  private final boolean graduatedBackpressure;
+  private final Backpressure backpressure;
+  private final OdbStorage storage;
+  private final int evictionBatchSize;
 
-  private final List<NodeRef> clearableRefs = Collections.synchronizedList(new LinkedList<>());
+  /* decides which of the refs (that can be cleared) to clear first */
+  private final EvictionPolicy evictionPolicy;
+  /* new registrations are buffered here without locking, and handed to the evictionPolicy in bulk */
+  private final RegistrationQueue registrationQueue = new RegistrationQueue(REGISTRATION_QUEUE_CAPACITY);
+  private final ReentrantLock drainLock = new ReentrantLock();
+  /* pinned refs are never cleared. they're not kept in the evictionPolicy, but may still be in there if they've
+   * been registered before they were pinned - they're then dropped when they come up for eviction */
+  private final Set<NodeRef> pinnedRefs = ConcurrentHashMap.newKeySet();
+  private final Object pinLock = new Object();
 
+  public ReferenceManager(OdbStorage storage, OdbConfig config) {
+    this.storage = storage;
+    this.evictionBatchSize = config.getEvictionBatchSize();
+    this.evictionPolicy = config.getEvictionPolicyFactory().create();
+    this.overflowController = new OverflowController(config.getHeapPercentageThreshold(), config.getHeapLowWatermark());
+    this.graduatedBackpressure = config.isGraduatedBackpressureEnabled();
+    this.backpressure = new Backpressure(config.getHeapPercentageThreshold());
+    if (evictionBatchSize < 1) {
+      throw new IllegalArgumentException("evictionBatchSize must be positive, but is " + evictionBatchSize);
+    }
+  }
+
+  /** lock-free unless the registration queue is full. refs that are already registered are ignored. */
   public void registerRef(NodeRef ref) {
-    clearableRefs.add(ref);
+    if (ref.isPinned() || !ref.markRegistered()) {
+      return;
+    }
+    while (!registrationQueue.offer(ref)) {
+      // queue is full: help draining it, or wait for whoever is draining it right now
+      if (drainLock.tryLock()) {
+        try {
+          registrationQueue.drain(evictionPolicy::register);
+        } finally {
+          drainLock.unlock();
+        }
+      } else {
+        Thread.yield();
+      }
+    }
+  }
+
+  /**
+   * excludes the ref from clearing. n.b. it may still be cleared if that's in progress right now - it'll then stay
+   * in memory once it's been read back from storage.
+   * @return true if the ref wasn't pinned before
+   */
+  public boolean pin(NodeRef ref) {
+    if (ref.markPinned()) {
+      pinnedRefs.add(ref);
+      overflowController.pinnedNodeCountChanged(1);
+      return true;
+    } else {
+      return false;
+    }
+  }
+
+  /** @return true if the ref was pinned before */
+  public boolean unpin(NodeRef ref) {
+    synchronized (pinLock) {
+      if (ref.unmarkPinned()) {
+        pinnedRefs.remove(ref);
+        overflowController.pinnedNodeCountChanged(-1);
+        if (ref.isSet()) registerRef(ref);
+        return true;
+      } else {
+        return false;
+      }
+    }
+  }
+
+  /* hand all queued registrations to the evictionPolicy */
+  private void drainRegistrations() {
+    drainLock.lock();
+    try {
+      registrationQueue.drain(evictionPolicy::register);
+    } finally {
+      drainLock.unlock();
+    }
   }
 
   /**
@@ -43,6 +133,18 @@ public class ReferenceManager implements AutoCloseable, HeapUsageMonitor.HeapNot
    * faster than old ones are serialized away, we're applying some backpressure in those situation
    */
   public void applyBackpressureMaybe() {
+    if (graduatedBackpressure) {
+      backpressure.acquire();
+      /* last resort, if throttling isn't enough */
+      if (backpressure.isCritical()) waitForClearing();
+    } else {
+      waitForClearing();
+    }
+  }
+
+  private void waitForClearing() {
+    if (clearingProcessCount == 0) return;
+    final long start = System.nanoTime();
     synchronized (backPressureSyncObject) {
       while (clearingProcessCount > 0) {
         try {
@@ -54,59 +156,124 @@ public class ReferenceManager implements AutoCloseable, HeapUsageMonitor.HeapNot
         }
       }
     }
+    backpressure.recordStall(System.nanoTime() - start);
+  }
+
+  /** throttling of node / edge creation, and the time it has stalled threads - in both modes */
+  public Backpressure getBackpressure() {
+    return backpressure;
+  }
+
+  @Override
+  public void notifyHeapUsage(long usedBytes, long maxBytes) {
+    final boolean releaseInProgress = isReleaseInProgress();
+    /* n.b. only the usage after GC, the expected usage (see below) includes garbage, i.e. it'd throttle too much */
+    if (maxBytes > 0) backpressure.onHeapUsage((float) usedBytes / maxBytes);
+    final int releaseCount = overflowController.onHeapUsage(usedBytes, maxBytes, releaseInProgress);
+    if (releaseCount == 0) {
+      if (releaseInProgress && overflowController.isReleasing()) {
+        logger.debug("cleaning in progress, will only queue up more references to clear after that's completed");
+      }
+      return;
+    }
+    scheduleRelease(releaseCount);
   }
 
   @Override
-  public void notifyHeapAboveThreshold() {
-    if (clearingProcessCount > 0) {
-      logger.debug("cleaning in progress, will only queue up more references to clear after that's completed");
-    } else if (clearableRefs.isEmpty()) {
+  public void notifyHeapUsageExpected(long usedBytes, long maxBytes) {
+    final int releaseCount = overflowController.onExpectedHeapUsage(usedBytes, maxBytes, isReleaseInProgress());
+    if (releaseCount > 0) {
+      logger.info("heap usage expected to exceed the threshold before the next GC");
+      scheduleRelease(releaseCount);
+    }
+  }
+
+  private boolean isReleaseInProgress() {
+    return releaseInProgress || clearingProcessCount > 0;
+  }
+
+  /* n.b. the GC notification thread and the ProactiveHeapMonitor may both get here, hence synchronized */
+  private synchronized void scheduleRelease(int releaseCount) {
+    if (releaseInProgress) return;
+    drainRegistrations();
+    if (evictionPolicy.isEmpty()) {
       logger.info("no refs to clear at the moment.");
+      overflowController.onReleaseCompleted(0, 0);
     } else {
-      int releaseCount = Integer.min(this.releaseCount, clearableRefs.size());
-      logger.info("scheduled to clear " + releaseCount + " references (asynchronously)");
-      asynchronouslyClearReferences(releaseCount);
+      final int count = Integer.min(releaseCount, evictionPolicy.size());
+      logger.info("scheduled to clear up to " + count + " references (asynchronously); " + overflowController);
+      asynchronouslyClearReferences(count, true);
     }
   }
 
+  /** state of the controller that decides when and how many references to clear - useful for tuning */
+  public OverflowController getOverflowController() {
+    return overflowController;
+  }
+
   /**
    * run clearing of references asynchronously to not block the gc notification thread
-   * using executor with one thread and capacity=1, drop `clearingInProgress` flag
+   * once all threads are done, the overflowController is notified with the number of cleared references
+   * @param untilReleaseTarget stop early once the cleared nodes are estimated to free the overflowController's target
    */
-  private List<Future> asynchronouslyClearReferences(final int releaseCount) {
-    List<Future> futures = new ArrayList<>(cpuCount);
+  private List<Future> asynchronouslyClearReferences(final int releaseCount, final boolean untilReleaseTarget) {
+    // doing this concurrently is tricky and won't be much faster since the evictionPolicy is synchronized anyway
+    final List<NodeRef> refsToClear = new ArrayList<>(releaseCount);
+    final long estimatedBytes = collectRefsToClear(releaseCount, untilReleaseTarget, refsToClear);
+    if (refsToClear.isEmpty()) return new ArrayList<>();
+
     // use Math.ceil to err on the larger side
-    final int releaseCountPerThread = (int) Math.ceil(releaseCount / cpuCount.floatValue());
-    for (int i = 0; i < cpuCount; i++) {
-      // doing this concurrently is tricky and won't be much faster since PriorityBlockingQueue is `blocking` anyway
-      final List<NodeRef> refsToClear = collectRefsToClear(releaseCountPerThread);
-      if (!refsToClear.isEmpty()) {
-        futures.add(executorService.submit(() -> {
-          safelyClearReferences(refsToClear);
-          logger.info("completed clearing of " + refsToClear.size() + " references");
-          logger.debug("current clearable queue size: " + clearableRefs.size());
+    final int partitionSize = (int) Math.ceil(refsToClear.size() / cpuCount.floatValue());
+    final int partitionCount = (int) Math.ceil(refsToClear.size() / (float) partitionSize);
+    final AtomicInteger remainingPartitions = new AtomicInteger(partitionCount);
+    releaseInProgress = true;
+    List<Future> futures = new ArrayList<>(partitionCount);
+    for (int start = 0; start < refsToClear.size(); start += partitionSize) {
+      final List<NodeRef> partition = refsToClear.subList(start, Integer.min(start + partitionSize, refsToClear.size()));
+      futures.add(executorService.submit(() -> {
+        try {
+          safelyClearReferences(partition);
+          logger.info("completed clearing of " + partition.size() + " references");
+          logger.debug("current clearable queue size: " + evictionPolicy.size());
           logger.debug("references cleared in total: " + totalReleaseCount);
-        }));
-      }
+        } finally {
+          if (remainingPartitions.decrementAndGet() == 0) {
+            overflowController.onReleaseCompleted(refsToClear.size(), estimatedBytes);
+            releaseInProgress = false;
+          }
+        }
+      }));
     }
     return futures;
   }
 
-  private List<NodeRef> collectRefsToClear(int releaseCount) {
-    final List<NodeRef> refsToClear = new ArrayList<>(releaseCount);
-
+  /* @return the summed up `estimatedSize` of the collected refs */
+  private long collectRefsToClear(int releaseCount, boolean untilReleaseTarget, List<NodeRef> refsToClear) {
+    long estimatedBytes = 0;
     while (releaseCount > 0) {
-      if (clearableRefs.isEmpty()) {
+      final NodeRef ref = evictionPolicy.nextToEvict();
+      if (ref == null) {
         break;
       }
-      final NodeRef ref = clearableRefs.remove(0);
-      if (ref != null) {
-        refsToClear.add(ref);
+      if (ref.isPinned()) {
+        /* synchronized with `unpin`, which would otherwise not be able to re-register it */
+        synchronized (pinLock) {
+          if (ref.isPinned()) {
+            ref.unmarkRegistered();
+            continue;
+          }
+        }
       }
+      /* n.b. it can't be read back from storage (and re-registered) before it's actually cleared */
+      ref.unmarkRegistered();
+      refsToClear.add(ref);
       releaseCount--;
+      estimatedBytes += ref.estimatedSize();
+      if (untilReleaseTarget && overflowController.isReleaseTargetReached(estimatedBytes)) {
+        break;
+      }
     }
-
-    return refsToClear;
+    return estimatedBytes;
   }
 
   /**
@@ -130,40 +297,122 @@ public class ReferenceManager implements AutoCloseable, HeapUsageMonitor.HeapNot
     }
   }
 
-  private void clearReferences(final List<NodeRef> refsToClear) throws IOException {
+  /* see `serializeAndClear` - if that fails, the refs that haven't been cleared stay in memory and clearable */
+  private void clearReferences(final List<NodeRef> refsToClear) throws Exception {
+    try {
+      serializeAndClear(refsToClear);
+    } catch (Exception e) {
+      /* they've been unregistered when they were collected: make the ones that are still in memory clearable again */
+      for (NodeRef ref : refsToClear) {
+        if (ref.isSet()) registerRef(ref);
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * serializes the (modified) nodes on the current thread, and hands them over to the writer thread in batches.
+   * only one batch per thread is pending at any time, so we don't pile up serialized nodes faster than they're written.
+   * blocks until all batches are written and the references are cleared.
+   */
+  private void serializeAndClear(final List<NodeRef> refsToClear) throws Exception {
     logger.info("attempting to clear " + refsToClear.size() + " references");
+    Future pendingWrite = null;
+    List<NodeRef> batchRefs = new ArrayList<>(Integer.min(evictionBatchSize, refsToClear.size()));
+    Map<NodeRef, byte[]> batchSerialized = new TreeMap<>(BY_ID);
     final Iterator<NodeRef> refsIterator = refsToClear.iterator();
-    while (refsIterator.hasNext()) {
-      final NodeRef ref = refsIterator.next();
-      if (ref.isSet()) {
+    try {
+      while (refsIterator.hasNext()) {
+        final NodeRef ref = refsIterator.next();
+        if (ref.isSet()) {
+          final byte[] serialized = ref.serializeIfModified();
+          if (serialized != null) {
+            batchSerialized.put(ref, serialized);
+          }
+          batchRefs.add(ref);
+        }
+
+        if (!batchRefs.isEmpty() && (batchRefs.size() >= evictionBatchSize || !refsIterator.hasNext())) {
+          if (pendingWrite != null) pendingWrite.get();
+          pendingWrite = writeAndClear(batchRefs, batchSerialized);
+          batchRefs = new ArrayList<>(Integer.min(evictionBatchSize, refsToClear.size()));
+          batchSerialized = new TreeMap<>(BY_ID);
+        }
+      }
+    } catch (Exception e) {
+      /* the current batch hasn't been handed over to the writer thread, i.e. it'll never be written */
+      markModified(batchSerialized.keySet());
+      throw e;
+    }
+    if (pendingWrite != null) pendingWrite.get();
+  }
+
+  /**
+   * on the writer thread: persist the serialized nodes in one go, and only then clear the references, so that
+   * a concurrent `NodeRef.get` will always find the latest version in storage
+   * n.b. the serialized nodes are sorted by id, so that the writes are local to the underlying storage's pages
+   */
+  private Future writeAndClear(final List<NodeRef> refs, final Map<NodeRef, byte[]> serializedNodes) {
+    return writerExecutorService.submit(() -> {
+      try {
+        storage.persist(serializedNodes);
+      } catch (Exception e) {
+        markModified(serializedNodes.keySet());
+        throw e;
+      }
+      for (NodeRef ref : refs) {
+        /* if the node has been modified since we serialized it, `clear` will persist it (again) */
         ref.clear();
-        totalReleaseCount.incrementAndGet();
       }
+      totalReleaseCount.addAndGet(refs.size());
+      return null;
+    });
+  }
+
+  /* for nodes that have been flagged as unmodified when they were serialized, but never made it to storage */
+  private void markModified(Collection<NodeRef> refs) {
+    for (NodeRef ref : refs) {
+      final OdbNode node = ref.getIfLoaded();
+      if (node != null) node.setModifiedSinceLastSerialization(true);
     }
   }
 
   /**
-   * writes all references to disk overflow, blocks until complete.
+   * writes all references to disk overflow, blocks until complete. this includes pinned references, which are unpinned.
    * useful when saving the graph
    */
   public void clearAllReferences() {
-    while (!clearableRefs.isEmpty()) {
-      int clearableRefsSize = clearableRefs.size();
+    for (NodeRef ref : new ArrayList<>(pinnedRefs)) {
+      unpin(ref);
+    }
+    drainRegistrations();
+    while (!evictionPolicy.isEmpty()) {
+      int clearableRefsSize = evictionPolicy.size();
       logger.info("clearing " + clearableRefsSize + " references - this may take some time");
-      for (Future clearRefFuture : asynchronouslyClearReferences(clearableRefsSize)) {
-        try {
-          // block until everything is cleared
-          clearRefFuture.get();
-        } catch (Exception e) {
-          throw new RuntimeException("error while clearing references to disk", e);
-        }
+      clearReferencesBlocking(clearableRefsSize);
+    }
+  }
+
+  /* clears (up to) the given number of references, not including pinned ones. blocks until complete */
+  void clearReferencesBlocking(int count) {
+    drainRegistrations();
+    for (Future clearRefFuture : asynchronouslyClearReferences(count, false)) {
+      try {
+        // block until everything is cleared
+        clearRefFuture.get();
+      } catch (Exception e) {
+        throw new RuntimeException("error while clearing references to disk", e);
       }
     }
   }
 
   @Override
   public void close() {
+    if (backpressure.getStallCount() > 0) {
+      logger.info(backpressure.toString());
+    }
     executorService.shutdown();
+    writerExecutorService.shutdown();
   }
 
 }
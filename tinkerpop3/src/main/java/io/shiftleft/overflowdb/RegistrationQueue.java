@@ -0,0 +1,68 @@
+package io.shiftleft.overflowdb;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * Bounded, lock-free multi-producer single-consumer ring buffer of refs. Node creation and `NodeRef.get` (when
+ * reading a node back from storage) only have to claim a slot, rather than take the eviction policy's monitor.
+ *
+ * Producers claim a slot by incrementing `tail`, and then publish the ref into it. The consumer (only one at a time,
+ * see `ReferenceManager.drainRegistrations`) takes refs from `head` until it finds a slot that has been claimed, but
+ * not yet published.
+ */
+class RegistrationQueue {
+  private final AtomicReferenceArray<NodeRef> slots;
+  private final int mask;
+  private final AtomicLong tail = new AtomicLong(0);
+  private volatile long head = 0;
+
+  /** @param capacity is rounded up to the next power of two */
+  RegistrationQueue(int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("capacity must be positive, but is " + capacity);
+    }
+    final int size = Integer.highestOneBit(capacity) == capacity ? capacity : Integer.highestOneBit(capacity) << 1;
+    this.slots = new AtomicReferenceArray<>(size);
+    this.mask = size - 1;
+  }
+
+  /** @return false if the queue is full */
+  boolean offer(NodeRef ref) {
+    while (true) {
+      final long t = tail.get();
+      if (t - head >= slots.length()) {
+        return false;
+      }
+      if (tail.compareAndSet(t, t + 1)) {
+        slots.lazySet((int) (t & mask), ref);
+        return true;
+      }
+    }
+  }
+
+  /**
+   * must only be called by one thread at a time
+   * @return number of drained refs
+   */
+  int drain(Consumer<NodeRef> consumer) {
+    long h = head;
+    int drained = 0;
+    while (h < tail.get()) {
+      final int index = (int) (h & mask);
+      final NodeRef ref = slots.get(index);
+      if (ref == null) break; // claimed, but not yet published - pick it up next time
+      slots.lazySet(index, null);
+      head = ++h;
+      consumer.accept(ref);
+      drained++;
+    }
+    return drained;
+  }
+
+  /** approximation, may be off while producers are active */
+  int size() {
+    return (int) (tail.get() - head);
+  }
+}
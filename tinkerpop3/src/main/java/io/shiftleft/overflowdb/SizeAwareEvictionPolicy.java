@@ -0,0 +1,78 @@
+package io.shiftleft.overflowdb;
+
+import java.util.PriorityQueue;
+
+/**
+ * GreedyDual-Size (Cao and Irani): weighs the heap that clearing a node frees against the cost of reading it back in,
+ * and how recently it's been used. That way large nodes (e.g. with lots of edges) go first, and we free the memory
+ * we need by clearing fewer nodes.
+ *
+ * Each ref has a priority of `L + reloadCost / size`, and the one with the lowest priority is evicted first.
+ * `L` starts at 0 and is raised to the priority of each evicted ref, so refs that haven't been accessed for a while
+ * age relative to the ones that have been (re-)registered or accessed since - accessed refs (see the access bit on
+ * NodeRef) get a fresh priority when they come up for eviction.
+ * The reload cost is the same fixed overhead for all nodes (storage read, deserialization setup, ...), expressed in
+ * bytes, plus the (size proportional) deserialization - the latter cancels out.
+ */
+public class SizeAwareEvictionPolicy implements EvictionPolicy {
+  public static final EvictionPolicy.Factory factory = SizeAwareEvictionPolicy::new;
+
+  /* fixed cost of reading a node back in, equivalent to deserializing this many bytes */
+  private static final double RELOAD_OVERHEAD_BYTES = 4096;
+
+  private final PriorityQueue<Entry> queue = new PriorityQueue<>();
+  /* the `L` from the paper */
+  private double inflation = 0;
+
+  @Override
+  public synchronized void register(NodeRef ref) {
+    ref.testAndClearAccessed();
+    queue.add(new Entry(ref, priority(ref)));
+  }
+
+  @Override
+  public synchronized NodeRef nextToEvict() {
+    Entry entry;
+    while ((entry = queue.poll()) != null) {
+      final NodeRef ref = entry.ref;
+      if (ref.isCleared()) {
+        /* e.g. removed from the graph in the meantime. unregister it, so it can be registered again once it's read back in */
+        ref.unmarkRegistered();
+        continue;
+      }
+      if (ref.testAndClearAccessed()) {
+        /* n.b. the size may have changed, too */
+        entry.priority = priority(ref);
+        queue.add(entry);
+      } else {
+        inflation = entry.priority;
+        return ref;
+      }
+    }
+    return null;
+  }
+
+  private double priority(NodeRef ref) {
+    return inflation + RELOAD_OVERHEAD_BYTES / Integer.max(1, ref.estimatedSize());
+  }
+
+  @Override
+  public synchronized int size() {
+    return queue.size();
+  }
+
+  private static class Entry implements Comparable<Entry> {
+    final NodeRef ref;
+    double priority;
+
+    Entry(NodeRef ref, double priority) {
+      this.ref = ref;
+      this.priority = priority;
+    }
+
+    @Override
+    public int compareTo(Entry other) {
+      return Double.compare(priority, other.priority);
+    }
+  }
+}
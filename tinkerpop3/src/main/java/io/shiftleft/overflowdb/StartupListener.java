@@ -0,0 +1,18 @@
+package io.shiftleft.overflowdb;
+
+/**
+ * gets notified about the progress while OdbGraph initializes from an existing storage location.
+ * n.b. `onProgress` is invoked concurrently from the startup threads.
+ */
+public interface StartupListener {
+  StartupListener NOOP = new StartupListener() {};
+
+  default void onStart(int nodeCount, int threadCount) {}
+
+  /** invoked every `PROGRESS_INTERVAL` nodes */
+  default void onProgress(int initializedNodeCount, int nodeCount) {}
+
+  default void onComplete(int nodeCount, long elapsedMillis) {}
+
+  int PROGRESS_INTERVAL = 131072; //2^17
+}
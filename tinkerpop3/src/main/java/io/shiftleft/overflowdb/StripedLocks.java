@@ -0,0 +1,63 @@
+package io.shiftleft.overflowdb;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Locks for nodes, by id, for the concurrent mutation mode (see `OdbConfig.withConcurrentMutation`): one lock per
+ * node would cost too much memory (and nodes can be cleared and read back in, i.e. their instances change), so ids
+ * are mapped onto a fixed number of locks.
+ *
+ * To avoid deadlocks, threads that need two of them (e.g. to add an edge) always take them in the same order, see
+ * `lock(long, long)`.
+ */
+class StripedLocks {
+  private final ReentrantLock[] locks;
+  private final int mask;
+
+  /** @param minStripeCount rounded up to the next power of two */
+  StripedLocks(int minStripeCount) {
+    final int stripeCount = Integer.highestOneBit(Integer.max(1, minStripeCount - 1)) << 1;
+    this.locks = new ReentrantLock[stripeCount];
+    for (int i = 0; i < stripeCount; i++) {
+      locks[i] = new ReentrantLock();
+    }
+    this.mask = stripeCount - 1;
+  }
+
+  private int stripe(long id) {
+    /* spread the bits, so that ids that differ only in their upper bits don't all end up in the same stripe */
+    long hash = id * 0x9E3779B97F4A7C15L;
+    return (int) (hash ^ (hash >>> 32)) & mask;
+  }
+
+  void lock(long id) {
+    locks[stripe(id)].lock();
+  }
+
+  void unlock(long id) {
+    locks[stripe(id)].unlock();
+  }
+
+  /** locks the stripes for both ids, in stripe order. n.b. both ids may map to the same stripe */
+  void lock(long id1, long id2) {
+    final int stripe1 = stripe(id1);
+    final int stripe2 = stripe(id2);
+    if (stripe1 == stripe2) {
+      locks[stripe1].lock();
+    } else {
+      locks[Integer.min(stripe1, stripe2)].lock();
+      locks[Integer.max(stripe1, stripe2)].lock();
+    }
+  }
+
+  void unlock(long id1, long id2) {
+    final int stripe1 = stripe(id1);
+    final int stripe2 = stripe(id2);
+    locks[stripe1].unlock();
+    if (stripe1 != stripe2) locks[stripe2].unlock();
+  }
+
+  int stripeCount() {
+    return locks.length;
+  }
+}
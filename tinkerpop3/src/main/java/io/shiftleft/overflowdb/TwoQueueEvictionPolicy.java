@@ -0,0 +1,103 @@
+package io.shiftleft.overflowdb;
+
+import gnu.trove.set.TLongSet;
+import gnu.trove.set.hash.TLongHashSet;
+
+import java.util.ArrayDeque;
+
+/**
+ * Scan resistant 2Q policy (Johnson and Shasha):
+ * - refs registered for the first time go into a FIFO probation queue (`A1in`), and are evicted from there first
+ * - ids of refs evicted from probation are remembered for a while (`A1out`, ghost entries without the actual refs)
+ * - refs that are registered again while they're remembered (i.e. they had to be read back from storage soon after
+ *   they've been evicted) go into the main queue (`Am`), which is managed by CLOCK
+ * A one-off scan (e.g. `g.V()`) only cycles through the probation queue, i.e. it doesn't flush the working set
+ * in the main queue.
+ */
+public class TwoQueueEvictionPolicy implements EvictionPolicy {
+  public static final EvictionPolicy.Factory factory = TwoQueueEvictionPolicy::new;
+
+  /* target share of the probation queue, as suggested in the paper */
+  private static final float PROBATION_SHARE = 0.25f;
+  /* number of ghost entries, relative to the number of registered refs */
+  private static final float GHOST_SHARE = 0.5f;
+  private static final int MIN_GHOST_CAPACITY = 1024;
+
+  private final ArrayDeque<NodeRef> probation = new ArrayDeque<>();
+  private final ArrayDeque<NodeRef> main = new ArrayDeque<>();
+  private final Ghosts ghosts = new Ghosts();
+
+  @Override
+  public synchronized void register(NodeRef ref) {
+    ref.testAndClearAccessed();
+    if (ghosts.remove(ref.id)) {
+      main.addLast(ref);
+    } else {
+      probation.addLast(ref);
+    }
+  }
+
+  @Override
+  public synchronized NodeRef nextToEvict() {
+    while (!probation.isEmpty() || !main.isEmpty()) {
+      final boolean fromProbation = main.isEmpty() || probation.size() > PROBATION_SHARE * size();
+      final NodeRef ref = fromProbation ? probation.pollFirst() : main.pollFirst();
+      if (ref.isCleared()) {
+        /* e.g. removed from the graph in the meantime. unregister it, so it can be registered again once it's read back in */
+        ref.unmarkRegistered();
+        continue;
+      }
+
+      if (fromProbation) {
+        /* n.b. accesses while on probation don't count - that's what makes this scan resistant */
+        ref.testAndClearAccessed();
+        ghosts.add(ref.id, Integer.max(MIN_GHOST_CAPACITY, (int) (GHOST_SHARE * size())));
+        return ref;
+      } else if (ref.testAndClearAccessed()) {
+        main.addLast(ref); // second chance
+      } else {
+        return ref;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public synchronized int size() {
+    return probation.size() + main.size();
+  }
+
+  /* bounded FIFO set of node ids */
+  private static class Ghosts {
+    private final TLongSet ids = new TLongHashSet();
+    private long[] ring = new long[MIN_GHOST_CAPACITY];
+    private int head = 0;
+    private int count = 0;
+
+    void add(long id, int capacity) {
+      while (count >= capacity) {
+        ids.remove(ring[head]);
+        head = (head + 1) % ring.length;
+        count--;
+      }
+      if (count == ring.length) grow();
+      ring[(head + count) % ring.length] = id;
+      count++;
+      ids.add(id);
+    }
+
+    /* n.b. the id stays in the ring until it's pushed out, removing it there would be O(n) */
+    boolean remove(long id) {
+      return ids.remove(id);
+    }
+
+    private void grow() {
+      final long[] newRing = new long[ring.length * 2];
+      for (int i = 0; i < count; i++) {
+        newRing[i] = ring[(head + i) % ring.length];
+      }
+      ring = newRing;
+      head = 0;
+    }
+  }
+}
@@ -0,0 +1,22 @@
+package io.shiftleft.overflowdb.storage;
+
+/**
+ * Compresses serialized nodes, see `OdbConfig.withCompression`.
+ * Implementations must be thread safe, since nodes are serialized (and compressed) concurrently.
+ */
+public interface CompressionCodec {
+
+  /**
+   * unique id of this codec, persisted alongside each compressed node so that it can be decompressed later.
+   * must be between 0 and 127, ids up to 15 are reserved for codecs that ship with OverflowDb.
+   */
+  byte id();
+
+  /** @return the compressed bytes, or `null` if they wouldn't be smaller than the input */
+  byte[] compress(byte[] bytes);
+
+  /**
+   * @param decompressedLength the length of the original (uncompressed) bytes
+   */
+  byte[] decompress(byte[] compressed, int offset, int length, int decompressedLength);
+}
@@ -0,0 +1,67 @@
+package io.shiftleft.overflowdb.storage;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Compression metrics of an {@link OdbStorage}, updated concurrently.
+ */
+public class CompressionStats {
+  private final LongAdder compressionAttempts = new LongAdder();
+  private final LongAdder compressedCount = new LongAdder();
+  private final LongAdder uncompressedBytes = new LongAdder();
+  private final LongAdder compressedBytes = new LongAdder();
+  private final LongAdder compressionNanos = new LongAdder();
+  private final LongAdder decompressedCount = new LongAdder();
+  private final LongAdder decompressionNanos = new LongAdder();
+
+  void recordCompression(int uncompressedSize, byte[] compressed, long nanos) {
+    compressionAttempts.increment();
+    compressionNanos.add(nanos);
+    if (compressed != null) {
+      compressedCount.increment();
+      uncompressedBytes.add(uncompressedSize);
+      compressedBytes.add(compressed.length);
+    }
+  }
+
+  void recordDecompression(long nanos) {
+    decompressedCount.increment();
+    decompressionNanos.add(nanos);
+  }
+
+  /** number of nodes above the size threshold, for which we attempted compression */
+  public long getCompressionAttempts() {
+    return compressionAttempts.sum();
+  }
+
+  /** number of nodes that have been stored compressed, i.e. the compressed version was smaller */
+  public long getCompressedCount() {
+    return compressedCount.sum();
+  }
+
+  /** compressed size / uncompressed size for all nodes that were stored compressed, 1.0 if there were none */
+  public double getCompressionRatio() {
+    final long uncompressed = uncompressedBytes.sum();
+    return uncompressed == 0 ? 1.0d : compressedBytes.sum() / (double) uncompressed;
+  }
+
+  public long getCompressionMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(compressionNanos.sum());
+  }
+
+  public long getDecompressedCount() {
+    return decompressedCount.sum();
+  }
+
+  public long getDecompressionMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(decompressionNanos.sum());
+  }
+
+  @Override
+  public String toString() {
+    return String.format("compressed %d/%d nodes (ratio: %.2f) in %dms, decompressed %d nodes in %dms",
+        getCompressedCount(), getCompressionAttempts(), getCompressionRatio(), getCompressionMillis(),
+        getDecompressedCount(), getDecompressionMillis());
+  }
+}
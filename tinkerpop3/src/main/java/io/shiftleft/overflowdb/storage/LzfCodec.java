@@ -0,0 +1,159 @@
+package io.shiftleft.overflowdb.storage;
+
+import java.util.Arrays;
+
+/**
+ * Fast LZ77 style codec, using the LZF format: a sequence of
+ * - literal runs: `[000LLLLL][L+1 bytes]`
+ * - back references: `[LLLOOOOO]([length-7])[OOOOOOOO]` copies `L+2` bytes from `offset+1` bytes back.
+ *   if `L` is 7, the length continues in the next byte.
+ * Matches are found via a hash table of 3-byte sequences, i.e. it trades compression ratio for speed - which
+ * suits the many repetitive strings in typical graphs (file names, type names, code...).
+ */
+public class LzfCodec implements CompressionCodec {
+  public static final LzfCodec instance = new LzfCodec();
+  public static final byte ID = 1;
+
+  private static final int HASH_BITS = 14;
+  private static final int MAX_LITERAL = 32;
+  private static final int MAX_OFFSET = 1 << 13;
+  private static final int MAX_REFERENCE_LENGTH = 7 + 255 + 2;
+
+  /* the hash table is the only sizeable allocation, reuse it per thread */
+  private final ThreadLocal<HashTable> hashTable = ThreadLocal.withInitial(HashTable::new);
+
+  @Override
+  public byte id() {
+    return ID;
+  }
+
+  @Override
+  public byte[] compress(byte[] input) {
+    final int inputLength = input.length;
+    if (inputLength == 0) return null;
+    /* we only care about compressed results that are smaller than the input */
+    final byte[] output = new byte[inputLength];
+    final int outputLimit = inputLength - 1;
+    final HashTable hashTable = this.hashTable.get();
+    final int[] table = hashTable.table;
+    final int base = hashTable.nextBase(inputLength);
+
+    int inputPosition = 0;
+    int outputPosition = 1; // reserve the first literal control byte
+    int literalCount = 0;
+    while (inputPosition < inputLength - 2) {
+      final int hash = hash(input, inputPosition);
+      final int reference = table[hash] - base;
+      table[hash] = inputPosition + base;
+      final int offset = inputPosition - reference - 1;
+      if (reference >= 0 && offset < MAX_OFFSET
+          && input[reference] == input[inputPosition]
+          && input[reference + 1] == input[inputPosition + 1]
+          && input[reference + 2] == input[inputPosition + 2]) {
+        final int maxLength = Integer.min(inputLength - inputPosition, MAX_REFERENCE_LENGTH);
+        int length = 3;
+        while (length < maxLength && input[reference + length] == input[inputPosition + length]) length++;
+
+        // finish the current literal run (or drop its reserved control byte if it's empty)
+        if (literalCount > 0) {
+          output[outputPosition - literalCount - 1] = (byte) (literalCount - 1);
+        } else {
+          outputPosition--;
+        }
+        if (outputPosition + 3 + 1 > outputLimit) return null;
+        final int encodedLength = length - 2;
+        if (encodedLength < 7) {
+          output[outputPosition++] = (byte) ((encodedLength << 5) | (offset >>> 8));
+        } else {
+          output[outputPosition++] = (byte) ((7 << 5) | (offset >>> 8));
+          output[outputPosition++] = (byte) (encodedLength - 7);
+        }
+        output[outputPosition++] = (byte) offset;
+        outputPosition++; // reserve the next literal control byte
+        literalCount = 0;
+        inputPosition += length;
+      } else {
+        if (outputPosition >= outputLimit) return null;
+        output[outputPosition++] = input[inputPosition++];
+        literalCount++;
+        if (literalCount == MAX_LITERAL) {
+          output[outputPosition - literalCount - 1] = (byte) (literalCount - 1);
+          literalCount = 0;
+          outputPosition++;
+        }
+      }
+    }
+
+    while (inputPosition < inputLength) {
+      if (outputPosition >= outputLimit) return null;
+      output[outputPosition++] = input[inputPosition++];
+      literalCount++;
+      if (literalCount == MAX_LITERAL) {
+        output[outputPosition - literalCount - 1] = (byte) (literalCount - 1);
+        literalCount = 0;
+        outputPosition++;
+      }
+    }
+    if (literalCount > 0) {
+      output[outputPosition - literalCount - 1] = (byte) (literalCount - 1);
+    } else {
+      outputPosition--;
+    }
+    return Arrays.copyOf(output, outputPosition);
+  }
+
+  @Override
+  public byte[] decompress(byte[] compressed, int offset, int length, int decompressedLength) {
+    final byte[] output = new byte[decompressedLength];
+    final int end = offset + length;
+    int inputPosition = offset;
+    int outputPosition = 0;
+    while (inputPosition < end) {
+      final int control = compressed[inputPosition++] & 0xff;
+      if (control < MAX_LITERAL) {
+        final int literalCount = control + 1;
+        System.arraycopy(compressed, inputPosition, output, outputPosition, literalCount);
+        inputPosition += literalCount;
+        outputPosition += literalCount;
+      } else {
+        int referenceLength = control >>> 5;
+        if (referenceLength == 7) referenceLength += compressed[inputPosition++] & 0xff;
+        referenceLength += 2;
+        int reference = outputPosition - ((control & 0x1f) << 8) - (compressed[inputPosition++] & 0xff) - 1;
+        // may overlap with the bytes we're writing, i.e. copy byte by byte
+        for (int i = 0; i < referenceLength; i++) {
+          output[outputPosition++] = output[reference++];
+        }
+      }
+    }
+    if (outputPosition != decompressedLength) {
+      throw new IllegalStateException("corrupt compressed data: expected " + decompressedLength + " bytes, but got " + outputPosition);
+    }
+    return output;
+  }
+
+  /**
+   * positions are stored relative to a base that grows with every input, so that entries from previous inputs are
+   * recognizable (they're smaller than the current base) - that way we don't need to clear the table every time
+   */
+  private static class HashTable {
+    final int[] table = new int[1 << HASH_BITS];
+    private int nextBase = 0;
+
+    int nextBase(int inputLength) {
+      if (nextBase > Integer.MAX_VALUE - inputLength - 1) {
+        Arrays.fill(table, 0);
+        nextBase = 0;
+      }
+      // all entries in the table are smaller than this, i.e. their relative position is negative
+      final int base = nextBase + 1;
+      nextBase = base + inputLength;
+      return base;
+    }
+  }
+
+  private static int hash(byte[] bytes, int position) {
+    final int value = ((bytes[position] & 0xff) << 16) | ((bytes[position + 1] & 0xff) << 8) | (bytes[position + 2] & 0xff);
+    return (value * 0x9E3779B1) >>> (32 - HASH_BITS);
+  }
+}
@@ -0,0 +1,189 @@
+package io.shiftleft.overflowdb.storage;
+
+import org.h2.mvstore.Cursor;
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+
+/**
+ * default {@link StorageBackend}, based on H2's MVStore.
+ * the serialized nodes, their label ids and the symbols are kept in separate maps within the same file.
+ */
+public class MVStoreBackend implements StorageBackend {
+  public static final StorageBackend.Factory factory = MVStoreBackend::new;
+
+  private final File mvstoreFile;
+  private MVStore mvstore; // initialized in `getNodesMVMap`
+  private MVMap<Long, byte[]> nodesMVMap;
+  private MVMap<Long, Integer> labelIdsMVMap;
+  private MVMap<String, Integer> symbolsMVMap;
+
+  public MVStoreBackend(Optional<File> mvstoreFileMaybe) {
+    if (mvstoreFileMaybe.isPresent()) {
+      mvstoreFile = mvstoreFileMaybe.get();
+    } else {
+      try {
+        mvstoreFile = File.createTempFile("mvstore", ".bin");
+        mvstoreFile.deleteOnExit();
+      } catch (IOException e) {
+        throw new RuntimeException("cannot create tmp file for mvstore", e);
+      }
+    }
+  }
+
+  @Override
+  public void put(long id, int labelId, byte[] serializedNode) {
+    getNodesMVMap().put(id, serializedNode);
+    /* the label of a node never changes - avoid rewriting the page if it's already there */
+    labelIdsMVMap.putIfAbsent(id, labelId);
+  }
+
+  @Override
+  public void putAll(long[] ids, int[] labelIds, byte[][] serializedNodes) {
+    final MVMap<Long, byte[]> nodesMVMap = getNodesMVMap();
+    for (int i = 0; i < ids.length; i++) {
+      nodesMVMap.put(ids[i], serializedNodes[i]);
+      labelIdsMVMap.putIfAbsent(ids[i], labelIds[i]);
+    }
+  }
+
+  @Override
+  public byte[] get(long id) {
+    return getNodesMVMap().get(id);
+  }
+
+  @Override
+  public void remove(long id) {
+    getNodesMVMap().remove(id);
+    labelIdsMVMap.remove(id);
+  }
+
+  @Override
+  public Iterator<Map.Entry<Long, byte[]>> scan() {
+    return getNodesMVMap().entrySet().iterator();
+  }
+
+  /**
+   * partitions by key range, using the key index of the underlying b-tree to find balanced boundaries
+   */
+  @Override
+  public List<Iterator<Map.Entry<Long, byte[]>>> scanPartitioned(int partitionCount) {
+    return partitionByKeyRange(getNodesMVMap(), partitionCount);
+  }
+
+  @Override
+  public int size() {
+    return getNodesMVMap().size();
+  }
+
+  @Override
+  public List<Iterator<Map.Entry<Long, Integer>>> scanLabelIdsPartitioned(int partitionCount) {
+    ensureOpen();
+    return partitionByKeyRange(labelIdsMVMap, partitionCount);
+  }
+
+  @Override
+  public int labelIdCount() {
+    ensureOpen();
+    return labelIdsMVMap.size();
+  }
+
+  @Override
+  public void putSymbol(String symbol, int id) {
+    ensureOpen();
+    symbolsMVMap.put(symbol, id);
+  }
+
+  @Override
+  public Map<String, Integer> allSymbols() {
+    ensureOpen();
+    return new HashMap<>(symbolsMVMap);
+  }
+
+  private static <V> List<Iterator<Map.Entry<Long, V>>> partitionByKeyRange(MVMap<Long, V> map, int partitionCount) {
+    final long size = map.sizeAsLong();
+    final int actualPartitionCount = (int) Long.min(partitionCount, size);
+    final List<Iterator<Map.Entry<Long, V>>> partitions = new ArrayList<>(actualPartitionCount);
+    for (int i = 0; i < actualPartitionCount; i++) {
+      final Long fromInclusive = map.getKey(i * size / actualPartitionCount);
+      final Long toExclusive = (i + 1 < actualPartitionCount) ? map.getKey((i + 1) * size / actualPartitionCount) : null;
+      partitions.add(new KeyRangeIterator<>(map.cursor(fromInclusive), toExclusive));
+    }
+    return partitions;
+  }
+
+  @Override
+  public void flush() {
+    if (mvstore != null) mvstore.commit();
+  }
+
+  @Override
+  public File getLocation() {
+    return mvstoreFile;
+  }
+
+  @Override
+  public void close() {
+    if (mvstore != null) mvstore.close();
+  }
+
+  public MVMap<Long, byte[]> getNodesMVMap() {
+    ensureOpen();
+    return nodesMVMap;
+  }
+
+  private void ensureOpen() {
+    if (mvstore == null) {
+      mvstore = new MVStore.Builder().fileName(mvstoreFile.getAbsolutePath()).open();
+      nodesMVMap = mvstore.openMap("nodes");
+      labelIdsMVMap = mvstore.openMap("labelIds");
+      symbolsMVMap = mvstore.openMap("symbols");
+    }
+  }
+
+  /** iterates over the entries from the cursor's start key until (excluding) `toExclusive`, or until the end if that's `null` */
+  private static class KeyRangeIterator<V> implements Iterator<Map.Entry<Long, V>> {
+    private final Cursor<Long, V> cursor;
+    private final Long toExclusive;
+    private Map.Entry<Long, V> nextEntry;
+
+    KeyRangeIterator(Cursor<Long, V> cursor, Long toExclusive) {
+      this.cursor = cursor;
+      this.toExclusive = toExclusive;
+      advance();
+    }
+
+    @Override
+    public boolean hasNext() {
+      return nextEntry != null;
+    }
+
+    @Override
+    public Map.Entry<Long, V> next() {
+      if (nextEntry == null) throw new NoSuchElementException();
+      final Map.Entry<Long, V> entry = nextEntry;
+      advance();
+      return entry;
+    }
+
+    private void advance() {
+      nextEntry = null;
+      if (cursor.hasNext()) {
+        final Long key = cursor.next();
+        if (toExclusive == null || key < toExclusive) {
+          nextEntry = new AbstractMap.SimpleImmutableEntry<>(key, cursor.getValue());
+        }
+      }
+    }
+  }
+}
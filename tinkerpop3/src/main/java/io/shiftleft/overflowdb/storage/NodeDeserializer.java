@@ -1,36 +1,60 @@
 package io.shiftleft.overflowdb.storage;
 
-import gnu.trove.map.hash.THashMap;
 import io.shiftleft.overflowdb.NodeFactory;
 import io.shiftleft.overflowdb.NodeRef;
 import io.shiftleft.overflowdb.OdbGraph;
 import io.shiftleft.overflowdb.OdbNode;
 import org.apache.commons.lang3.NotImplementedException;
-import org.apache.tinkerpop.gremlin.structure.VertexProperty;
-import org.apache.tinkerpop.gremlin.structure.util.ElementHelper;
 import org.msgpack.core.MessagePack;
 import org.msgpack.core.MessageUnpacker;
-import org.msgpack.value.ArrayValue;
-import org.msgpack.value.Value;
+import org.msgpack.core.buffer.ArrayBufferInput;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
 
 public class NodeDeserializer {
   private final Logger logger = LoggerFactory.getLogger(getClass());
   protected final OdbGraph graph;
   protected final Map<String, NodeFactory> nodeFactoryByLabel;
-  private int deserializedCount = 0;
-  private long deserializationTimeSpentMillis = 0;
+  protected final SymbolTable symbolTable;
+  private final boolean partialMaterialization;
+  /* lazily populated cache, indexed by the label's symbol id */
+  private volatile NodeFactory[] nodeFactoryByLabelId = new NodeFactory[0];
+  /* n.b. updated concurrently, by all threads that read nodes, e.g. `OdbGraph.loadNodes` */
+  private final LongAdder deserializedCount = new LongAdder();
+  private final LongAdder deserializationTimeSpentMillis = new LongAdder();
+  /* written before there was a format header, see NodeSerializer */
+  private static final int LEGACY_FORMAT_VERSION = 0;
+  /* labels and property keys are symbol ids from this version on */
+  private static final int SYMBOL_IDS_FORMAT_VERSION = 2;
+  /* properties and edge blocks are separate sections from this version on */
+  private static final int SECTIONS_FORMAT_VERSION = 3;
+  /* size of `[FORMAT_MARKER][FORMAT_VERSION]` */
+  private static final int FORMAT_HEADER_SIZE = 2;
+  private final ThreadLocal<DecodingContext> decodingContext = ThreadLocal.withInitial(DecodingContext::new);
 
-  public NodeDeserializer(OdbGraph graph, Map<String, NodeFactory> nodeFactoryByLabel) {
+  /**
+   * @param symbolTable must be the one of the storage that the nodes are read from
+   */
+  public NodeDeserializer(OdbGraph graph, Map<String, NodeFactory> nodeFactoryByLabel, SymbolTable symbolTable) {
+    this(graph, nodeFactoryByLabel, symbolTable, true);
+  }
+
+  /**
+   * @param symbolTable must be the one of the storage that the nodes are read from
+   * @param partialMaterialization only deserialize the edge blocks on first access, see `OdbConfig.withPartialMaterialization`
+   */
+  public NodeDeserializer(OdbGraph graph, Map<String, NodeFactory> nodeFactoryByLabel, SymbolTable symbolTable, boolean partialMaterialization) {
     this.graph = graph;
     this.nodeFactoryByLabel = nodeFactoryByLabel;
+    this.symbolTable = symbolTable;
+    this.partialMaterialization = partialMaterialization;
   }
 
   public OdbNode deserialize(byte[] bytes) throws IOException {
@@ -38,22 +62,46 @@ public class NodeDeserializer {
     if (null == bytes)
       return null;
 
-    try (MessageUnpacker unpacker = MessagePack.newDefaultUnpacker(bytes)) {
+    final DecodingContext context = decodingContext.get();
+    try {
+      final int formatVersion = formatVersion(bytes);
+      final MessageUnpacker unpacker = context.reset(bytes, formatVersion);
       final long id = unpacker.unpackLong();
-      final String label = unpacker.unpackString();
-      final Map<String, Object> properties = unpackProperties(unpacker);
+      final NodeFactory nodeFactory = unpackNodeFactory(unpacker, formatVersion);
+      final int propertyCount = unpackProperties(unpacker, context, formatVersion);
       final int[] edgeOffsets = unpackEdgeOffsets(unpacker);
-      final Object[] adjacentNodesWithProperties = unpackAdjacentNodesWithProperties(unpacker);
+      final Object[] adjacentNodesWithProperties;
+      SerializedEdgeBlocks serializedEdgeBlocks = null;
+      if (formatVersion == LEGACY_FORMAT_VERSION) {
+        adjacentNodesWithProperties = unpackLegacyAdjacentNodesWithProperties(unpacker);
+      } else if (formatVersion < SECTIONS_FORMAT_VERSION) {
+        adjacentNodesWithProperties = unpackAdjacentNodesWithProperties(unpacker, context, edgeOffsets, formatVersion);
+      } else {
+        adjacentNodesWithProperties = new Object[unpacker.unpackArrayHeader()];
+        if (partialMaterialization && edgeOffsets.length > 0) {
+          serializedEdgeBlocks = skipEdgeBlocks(unpacker, bytes, edgeOffsets);
+        } else {
+          for (int offsetPos = 0; 2 * offsetPos < edgeOffsets.length; offsetPos++) {
+            unpackEdgeBlock(unpacker, context, adjacentNodesWithProperties, edgeOffsets[2 * offsetPos], edgeOffsets[2 * offsetPos + 1]);
+          }
+        }
+      }
 
-      OdbNode node = createNode(id, label, properties, edgeOffsets, adjacentNodesWithProperties);
+      OdbNode node = createNode(id, nodeFactory, context.propertyKeys, context.propertyValues, propertyCount, edgeOffsets, adjacentNodesWithProperties);
+      if (serializedEdgeBlocks != null) {
+        node.setSerializedEdgeBlocks(serializedEdgeBlocks);
+      }
 
-      deserializedCount++;
-      deserializationTimeSpentMillis += System.currentTimeMillis() - start;
-      if (deserializedCount % 131072 == 0) { //2^17
-        float avgDeserializationTime = deserializationTimeSpentMillis / (float) deserializedCount;
-        logger.debug("stats: deserialized " + deserializedCount + " nodes in total (avg time: " + avgDeserializationTime + "ms)");
+      deserializedCount.increment();
+      deserializationTimeSpentMillis.add(System.currentTimeMillis() - start);
+      final long count = deserializedCount.sum();
+      if (count % 131072 == 0) { //2^17
+        float avgDeserializationTime = deserializationTimeSpentMillis.sum() / (float) count;
+        logger.debug("stats: deserialized " + count + " nodes in total (avg time: " + avgDeserializationTime + "ms)");
       }
       return node;
+    } finally {
+      context.clearPropertyValues();
     }
   }
 
@@ -61,23 +109,91 @@ public class NodeDeserializer {
    * only deserialize the part we're keeping in memory, used during startup when initializing from disk
    */
   public NodeRef deserializeRef(byte[] bytes) throws IOException {
-    try (MessageUnpacker unpacker = MessagePack.newDefaultUnpacker(bytes)) {
-      long id = unpacker.unpackLong();
-      String label = unpacker.unpackString();
+    final int formatVersion = formatVersion(bytes);
+    final MessageUnpacker unpacker = decodingContext.get().reset(bytes, formatVersion);
+    long id = unpacker.unpackLong();
+    return unpackNodeFactory(unpacker, formatVersion).createNodeRef(graph, id);
+  }
+
+  /**
+   * create a ref for a node that's in storage, e.g. based on the label ids in `StorageBackend.scanLabelIdsPartitioned`
+   */
+  public NodeRef createNodeRef(long id, int labelId) {
+    return nodeFactoryForLabelId(labelId).createNodeRef(graph, id);
+  }
+
+  public SymbolTable getSymbolTable() {
+    return symbolTable;
+  }
+
+  private NodeFactory unpackNodeFactory(MessageUnpacker unpacker, int formatVersion) throws IOException {
+    if (formatVersion >= SYMBOL_IDS_FORMAT_VERSION) {
+      return nodeFactoryForLabelId(unpacker.unpackInt());
+    } else {
+      return nodeFactoryForLabel(unpacker.unpackString());
+    }
+  }
+
+  public NodeFactory nodeFactoryForLabelId(int labelId) {
+    final NodeFactory[] factories = nodeFactoryByLabelId;
+    if (labelId >= 0 && labelId < factories.length && factories[labelId] != null) {
+      return factories[labelId];
+    } else {
+      return cacheNodeFactory(labelId);
+    }
+  }
+
+  private synchronized NodeFactory cacheNodeFactory(int labelId) {
+    final NodeFactory nodeFactory = nodeFactoryForLabel(symbol(labelId));
+    final NodeFactory[] factories = Arrays.copyOf(nodeFactoryByLabelId, Integer.max(nodeFactoryByLabelId.length, labelId + 1));
+    factories[labelId] = nodeFactory;
+    nodeFactoryByLabelId = factories;
+    return nodeFactory;
+  }
+
+  private NodeFactory nodeFactoryForLabel(String label) {
+    NodeFactory nodeFactory = nodeFactoryByLabel.get(label);
+    if (nodeFactory == null) {
+      throw new AssertionError("nodeFactory not found for label=" + label);
+    }
+    return nodeFactory;
+  }
+
+  private String symbol(int symbolId) {
+    final String symbol = symbolTable.symbolFor(symbolId);
+    if (symbol == null) {
+      throw new IllegalStateException("unknown symbol id " + symbolId + " - storage is corrupt");
+    }
+    return symbol;
+  }
 
-      return createNodeRef(id, label);
+  /** see NodeSerializer for the different formats */
+  private int formatVersion(byte[] bytes) {
+    if (bytes.length == 0 || bytes[0] != NodeSerializer.FORMAT_MARKER) {
+      return LEGACY_FORMAT_VERSION;
+    } else if (bytes[1] > LEGACY_FORMAT_VERSION && bytes[1] <= NodeSerializer.FORMAT_VERSION) {
+      return bytes[1];
+    } else {
+      throw new NotImplementedException("unknown storage format version " + bytes[1] + " - was it written by a newer version?");
     }
   }
 
-  private Map<String, Object> unpackProperties(MessageUnpacker unpacker) throws IOException {
+  /**
+   * reads the properties into the context's reusable key/value arrays
+   * @return the number of properties
+   */
+  private int unpackProperties(MessageUnpacker unpacker, DecodingContext context, int formatVersion) throws IOException {
+    if (formatVersion >= SECTIONS_FORMAT_VERSION) {
+      unpacker.unpackBinaryHeader(); // section length - we're reading the section anyway
+    }
     int propertyCount = unpacker.unpackMapHeader();
-    Map<String, Object> res = new THashMap<>(propertyCount);
+    context.ensurePropertyCapacity(propertyCount);
     for (int i = 0; i < propertyCount; i++) {
-      final String key = unpacker.unpackString();
-      final Object unpackedProperty = unpackValue(unpacker.unpackValue().asArrayValue());
-      res.put(key, unpackedProperty);
+      /* n.b. for symbol ids, all nodes share the same string instances from the symbol table */
+      context.propertyKeys[i] = formatVersion >= SYMBOL_IDS_FORMAT_VERSION ? symbol(unpacker.unpackInt()) : unpacker.unpackString();
+      context.propertyValues[i] = unpackTypedValue(unpacker, formatVersion);
     }
-    return res;
+    return propertyCount;
   }
 
   private int[] unpackEdgeOffsets(MessageUnpacker unpacker) throws IOException {
@@ -89,96 +205,195 @@ public class NodeDeserializer {
     return edgeOffsets;
   }
 
-  protected Object[] unpackAdjacentNodesWithProperties(MessageUnpacker unpacker) throws IOException {
+  /**
+   * only remembers where each edge block's section starts, so that it can be deserialized on first access
+   */
+  private SerializedEdgeBlocks skipEdgeBlocks(MessageUnpacker unpacker, byte[] bytes, int[] edgeOffsets) throws IOException {
+    final int[] blockPositions = new int[edgeOffsets.length / 2];
+    for (int offsetPos = 0; offsetPos < blockPositions.length; offsetPos++) {
+      blockPositions[offsetPos] = FORMAT_HEADER_SIZE + (int) unpacker.getTotalReadBytes();
+      unpacker.skipValue();
+    }
+    return new SerializedEdgeBlocks(this, bytes, blockPositions);
+  }
+
+  /**
+   * deserialize a single edge block section, starting at the given position
+   */
+  void unpackEdgeBlock(byte[] bytes, int position, Object[] adjacentNodesWithProperties, int start, int length) throws IOException {
+    final DecodingContext context = decodingContext.get();
+    unpackEdgeBlock(context.resetAt(bytes, position), context, adjacentNodesWithProperties, start, length);
+  }
+
+  /**
+   * an edge block section holds the type tags, followed by the untyped values. adjacent node ids are delta-encoded
+   */
+  private void unpackEdgeBlock(MessageUnpacker unpacker, DecodingContext context, Object[] adjacentNodesWithProperties, int start, int length) throws IOException {
+    unpacker.unpackBinaryHeader(); // section length
+    final byte[] typeTags = context.typeTagBuffer(unpacker.unpackBinaryHeader());
+    unpacker.readPayload(typeTags, 0, length);
+
+    long previousNodeId = 0;
+    for (int i = 0; i < length; i++) {
+      final ValueTypes valueType = ValueTypes.lookup(typeTags[i]);
+      if (valueType == ValueTypes.NODE_REF) {
+        previousNodeId += unpacker.unpackLong();
+        adjacentNodesWithProperties[start + i] = graph.vertex(previousNodeId);
+      } else {
+        adjacentNodesWithProperties[start + i] = unpackValue(unpacker, valueType, SECTIONS_FORMAT_VERSION);
+      }
+    }
+  }
+
+  /**
+   * format version 2: the type tags come first, followed by the untyped values. adjacent node ids are delta-encoded
+   * per edge block
+   */
+  protected Object[] unpackAdjacentNodesWithProperties(MessageUnpacker unpacker, DecodingContext context, int[] edgeOffsets, int formatVersion) throws IOException {
+    final int size = unpacker.unpackArrayHeader();
+    final byte[] typeTags = context.typeTagBuffer(unpacker.unpackBinaryHeader());
+    unpacker.readPayload(typeTags, 0, size);
+
+    Object[] adjacentNodesWithProperties = new Object[size];
+    int nextBlock = 0;
+    long previousNodeId = 0;
+    for (int i = 0; i < size; i++) {
+      while (2 * nextBlock < edgeOffsets.length && edgeOffsets[2 * nextBlock] <= i) {
+        if (edgeOffsets[2 * nextBlock] == i) previousNodeId = 0;
+        nextBlock++;
+      }
+      final ValueTypes valueType = ValueTypes.lookup(typeTags[i]);
+      if (valueType == ValueTypes.NODE_REF) {
+        previousNodeId += unpacker.unpackLong();
+        adjacentNodesWithProperties[i] = graph.vertex(previousNodeId);
+      } else {
+        adjacentNodesWithProperties[i] = unpackValue(unpacker, valueType, formatVersion);
+      }
+    }
+    return adjacentNodesWithProperties;
+  }
+
+  protected Object[] unpackLegacyAdjacentNodesWithProperties(MessageUnpacker unpacker) throws IOException {
     int size = unpacker.unpackArrayHeader();
     Object[] adjacentNodesWithProperties = new Object[size];
     for (int i = 0; i < size; i++) {
-      adjacentNodesWithProperties[i] = unpackValue(unpacker.unpackValue().asArrayValue());
+      adjacentNodesWithProperties[i] = unpackTypedValue(unpacker, LEGACY_FORMAT_VERSION);
     }
     return adjacentNodesWithProperties;
   }
 
-  private Object unpackValue(final ArrayValue packedValueAndType) {
-    final Iterator<Value> iter = packedValueAndType.iterator();
-    final byte valueTypeId = iter.next().asIntegerValue().asByte();
-    final Value value = iter.next();
+  /**
+   * reads a typed value (see NodeSerializer) straight off the unpacker, without materializing an intermediate
+   * msgpack `Value`. in the legacy format, each typed value was wrapped in a `[ValueType.id, value]` array.
+   */
+  private Object unpackTypedValue(final MessageUnpacker unpacker, final int formatVersion) throws IOException {
+    if (formatVersion == LEGACY_FORMAT_VERSION) {
+      unpacker.unpackArrayHeader();
+    }
+    final byte valueTypeId = unpacker.unpackByte();
+    return unpackValue(unpacker, ValueTypes.lookup(valueTypeId), formatVersion);
+  }
 
-    switch (ValueTypes.lookup(valueTypeId)) {
+  private Object unpackValue(final MessageUnpacker unpacker, final ValueTypes valueType, final int formatVersion) throws IOException {
+    switch (valueType) {
       case UNKNOWN:
+        if (formatVersion == LEGACY_FORMAT_VERSION) unpacker.unpackNil();
         return null;
       case NODE_REF:
-        long id = value.asIntegerValue().asLong();
+        long id = unpacker.unpackLong();
         return graph.vertex(id);
       case BOOLEAN:
-        return value.asBooleanValue().getBoolean();
+        return unpacker.unpackBoolean();
       case STRING:
-        return value.asStringValue().asString();
+        return unpacker.unpackString();
       case BYTE:
-        return value.asIntegerValue().asByte();
+        return unpacker.unpackByte();
       case SHORT:
-        return value.asIntegerValue().asShort();
+        return unpacker.unpackShort();
       case INTEGER:
-        return value.asIntegerValue().asInt();
+        return unpacker.unpackInt();
       case LONG:
-        return value.asIntegerValue().asLong();
+        return unpacker.unpackLong();
       case FLOAT:
-        return value.asFloatValue().toFloat();
+        return unpacker.unpackFloat();
       case DOUBLE:
-        return Double.valueOf(value.asFloatValue().toFloat());
+        // n.b. the legacy format stored doubles as floats, `unpackDouble` reads both
+        return unpacker.unpackDouble();
       case LIST:
-        final ArrayValue arrayValue = value.asArrayValue();
-        List deserializedArray = new ArrayList(arrayValue.size());
-        final Iterator<Value> valueIterator = arrayValue.iterator();
-        while (valueIterator.hasNext()) {
-          deserializedArray.add(unpackValue(valueIterator.next().asArrayValue()));
+        final int size = unpacker.unpackArrayHeader();
+        List deserializedArray = new ArrayList(size);
+        for (int i = 0; i < size; i++) {
+          deserializedArray.add(unpackTypedValue(unpacker, formatVersion));
         }
         return deserializedArray;
       case CHARACTER:
-        return (char) value.asIntegerValue().asInt();
+        return (char) unpacker.unpackInt();
       default:
-        throw new NotImplementedException("unknown valueTypeId=`" + valueTypeId);
+        throw new NotImplementedException("unknown valueType=`" + valueType);
     }
   }
 
-  protected Object[] toTinkerpopKeyValues(Map<String, Object> properties) {
-    List keyValues = new ArrayList(properties.size() * 2); // may grow bigger if there's list entries
-    for (Map.Entry<String, Object> entry : properties.entrySet()) {
-      final String key = entry.getKey();
-      final Object property = entry.getValue();
-      // special handling for lists: create separate key/value entry for each list entry
-      if (property instanceof List) {
-        for (Object value : (List) property) {
-          keyValues.add(key);
-          keyValues.add(value);
-        }
-      } else {
-        keyValues.add(key);
-        keyValues.add(property);
-      }
+  protected OdbNode createNode(long id, NodeFactory nodeFactory, String[] propertyKeys, Object[] propertyValues, int propertyCount,
+                               int[] edgeOffsets, Object[] adjacentNodesWithProperties) {
+    /* attach to the ref that's already known to the graph (if any), so that there's only one ref per node */
+    NodeRef ref = (NodeRef) graph.vertex(id);
+    final boolean newRef = ref == null;
+    if (newRef) {
+      ref = nodeFactory.createNodeRef(graph, id);
     }
-    return keyValues.toArray();
+    OdbNode node = nodeFactory.createNode(ref);
+    node.setPropertiesFromStorage(propertyKeys, propertyValues, propertyCount);
+    node.setEdgeOffsets(edgeOffsets);
+    node.setAdjacentNodesWithProperties(adjacentNodesWithProperties);
+    /* freshly deserialized, i.e. identical to what's in storage */
+    node.setModifiedSinceLastSerialization(false);
+    /* n.b. a ref that's known to the graph may be read by others while we're deserializing, i.e. only `NodeRef.load`
+     * sets the node on it. a new ref isn't visible to anyone else yet, so we can set the (complete) node right away */
+    if (newRef) ref.setNode(node);
+
+    return node;
   }
 
-  protected NodeRef createNodeRef(long id, String label) {
-    NodeFactory nodeFactory = nodeFactoryByLabel.get(label);
-    if (nodeFactory == null) {
-      throw new AssertionError("nodeFactory not found for label=" + label);
+  /**
+   * per-thread reusable decoding state: the unpacker (including its internal buffers) and scratch arrays for the
+   * properties, so that we don't allocate them for every single node
+   */
+  protected static class DecodingContext {
+    private final ArrayBufferInput input = new ArrayBufferInput(new byte[0]);
+    private final MessageUnpacker unpacker = MessagePack.newDefaultUnpacker(input);
+    private String[] propertyKeys = new String[16];
+    private Object[] propertyValues = new Object[16];
+    private byte[] typeTags = new byte[64];
+
+    MessageUnpacker reset(byte[] bytes, int formatVersion) throws IOException {
+      return resetAt(bytes, formatVersion == LEGACY_FORMAT_VERSION ? 0 : FORMAT_HEADER_SIZE);
     }
 
-    return nodeFactory.createNodeRef(graph, id);
-  }
+    /* start reading at the given position */
+    MessageUnpacker resetAt(byte[] bytes, int position) throws IOException {
+      input.reset(bytes, position, bytes.length - position);
+      unpacker.reset(input);
+      return unpacker;
+    }
 
-  protected OdbNode createNode(long id, String label, Map<String, Object> properties, int[] edgeOffsets, Object[] adjacentNodesWithProperties) {
-    NodeFactory nodeFactory = nodeFactoryByLabel.get(label);
-    if (nodeFactory == null) {
-      throw new AssertionError("nodeFactory not found for label=" + label);
+    byte[] typeTagBuffer(int size) {
+      if (typeTags.length < size) {
+        typeTags = new byte[Integer.max(size, typeTags.length * 2)];
+      }
+      return typeTags;
     }
-    OdbNode node = nodeFactory.createNode(graph, id);
-    ElementHelper.attachProperties(node, VertexProperty.Cardinality.list, toTinkerpopKeyValues(properties));
-    node.setEdgeOffsets(edgeOffsets);
-    node.setAdjacentNodesWithProperties(adjacentNodesWithProperties);
 
-    return node;
+    void ensurePropertyCapacity(int propertyCount) {
+      if (propertyKeys.length < propertyCount) {
+        propertyKeys = new String[propertyCount];
+        propertyValues = new Object[propertyCount];
+      }
+    }
+
+    /* don't keep the last node's property values reachable */
+    void clearPropertyValues() {
+      Arrays.fill(propertyValues, null);
+    }
   }
 
 }
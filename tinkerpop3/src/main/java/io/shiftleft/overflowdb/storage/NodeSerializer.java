@@ -12,41 +12,82 @@ import java.io.IOException;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * Serializes nodes into the current format (see FORMAT_VERSION) - {@link NodeDeserializer} can still read all older
+ * formats.
+ *
+ * Format: `[FORMAT_MARKER][FORMAT_VERSION]` followed by msgpack-encoded
+ * - id
+ * - label: symbol id, see {@link SymbolTable}
+ * - properties section: `Map[PropertyName symbol id, typed value]`
+ * - edgeOffsets: `Array[Int]`
+ * - adjacentNodesWithProperties: array length, then one section per edge block (in the order of `edgeOffsets`).
+ *   A block section holds one type tag per element (as a single binary blob), followed by the untyped values.
+ *   Adjacent node ids are delta-encoded within each block, so that they're mostly small numbers.
+ *   Everything outside of the blocks is unused capacity, i.e. `null`.
+ *
+ * Sections are msgpack binaries (i.e. length-prefixed), so that they can be skipped and deserialized separately -
+ * see {@link SerializedEdgeBlocks}.
+ *
+ * A typed value is `[ValueType.id][value]`, without any further framing. All integral values (incl. the deltas) use
+ * msgpack's variable-length int encoding. Doubles are written as 8-byte doubles.
+ *
+ * Version 2 had no sections: the type tags of the entire adjacentNodesWithProperties array came first, followed by
+ * all values.
+ * Version 1 wrote the label and property names as strings.
+ * The legacy format (version 0) had no header, started with the id, and wrapped every typed value in an extra
+ * 2-element msgpack array. It wrote doubles as floats.
+ */
 public class NodeSerializer {
+  /* msgpack never uses this byte, i.e. it can't be confused with the first byte of the legacy format */
+  public static final byte FORMAT_MARKER = (byte) 0xc1;
+  public static final byte FORMAT_VERSION = 3;
 
   private final Logger logger = LoggerFactory.getLogger(getClass());
-  private int serializedCount = 0;
-  private long serializationTimeSpentMillis = 0;
+  private final SymbolTable symbolTable;
+  /* n.b. updated concurrently, by the ReferenceManager's clearing threads */
+  private final LongAdder serializedCount = new LongAdder();
+  private final LongAdder serializationTimeSpentMillis = new LongAdder();
+
+  public NodeSerializer(SymbolTable symbolTable) {
+    this.symbolTable = symbolTable;
+  }
 
   public byte[] serialize(OdbNode node) throws IOException {
     long start = System.currentTimeMillis();
-    try (MessageBufferPacker packer = MessagePack.newDefaultBufferPacker()) {
+    try (MessageBufferPacker packer = MessagePack.newDefaultBufferPacker();
+         MessageBufferPacker sectionPacker = MessagePack.newDefaultBufferPacker()) {
+      packer.writePayload(new byte[]{FORMAT_MARKER, FORMAT_VERSION});
       packer.packLong(node.ref.id);
-      packer.packString(node.label());
+      packer.packInt(symbolTable.idFor(node.label()));
 
-      packProperties(packer, node.valueMap());
-      packEdgeOffsets(packer, node.getEdgeOffsets());
-      packAdjacentNodesWithProperties(packer, node.getAdjacentNodesWithProperties());
+      final int[] edgeOffsets = node.getEdgeOffsets();
+      packProperties(sectionPacker, node.valueMap());
+      packSection(packer, sectionPacker);
+      packEdgeOffsets(packer, edgeOffsets);
+      packAdjacentNodesWithProperties(packer, sectionPacker, edgeOffsets, node.getAdjacentNodesWithProperties());
 
-      serializedCount++;
-      serializationTimeSpentMillis += System.currentTimeMillis() - start;
-      if (serializedCount % 131072 == 0) { //2^17
-        float avgSerializationTime = serializationTimeSpentMillis / (float) serializedCount;
-        logger.debug("stats: serialized " + serializedCount + " instances in total (avg time: " + avgSerializationTime + "ms)");
+      serializedCount.increment();
+      serializationTimeSpentMillis.add(System.currentTimeMillis() - start);
+      final long count = serializedCount.sum();
+      if (count % 131072 == 0) { //2^17
+        float avgSerializationTime = serializationTimeSpentMillis.sum() / (float) count;
+        logger.debug("stats: serialized " + count + " instances in total (avg time: " + avgSerializationTime + "ms)");
       }
       return packer.toByteArray();
     }
   }
 
   /**
-   * when deserializing, msgpack can't differentiate between e.g. int and long, so we need to encode the type as well - doing that with an array
-   * i.e. format is: Map[PropertyName, Array(TypeId, PropertyValue)]
+   * when deserializing, msgpack can't differentiate between e.g. int and long, so we need to encode the type as well
+   * i.e. format is: Map[PropertyName symbol id, [TypeId][PropertyValue]]
    */
   private void packProperties(MessageBufferPacker packer, Map<String, Object> properties) throws IOException {
     packer.packMapHeader(properties.size());
     for (Map.Entry<String, Object> property : properties.entrySet()) {
-      packer.packString(property.getKey());
+      packer.packInt(symbolTable.idFor(property.getKey()));
       packTypedValue(packer, property.getValue());
     }
   }
@@ -58,62 +99,131 @@ public class NodeSerializer {
     }
   }
 
-  private void packAdjacentNodesWithProperties(MessageBufferPacker packer, Object[] adjacentNodesWithProperties) throws IOException {
+  /**
+   * one section per edge block (pairs of `[start, length]` in `edgeOffsets`), each block starts a new delta sequence
+   * for the adjacent node ids
+   */
+  private void packAdjacentNodesWithProperties(MessageBufferPacker packer, MessageBufferPacker sectionPacker, int[] edgeOffsets, Object[] adjacentNodesWithProperties) throws IOException {
     packer.packArrayHeader(adjacentNodesWithProperties.length);
-    for (int i = 0; i < adjacentNodesWithProperties.length; i++) {
-      packTypedValue(packer, adjacentNodesWithProperties[i]);
+    for (int offsetPos = 0; 2 * offsetPos < edgeOffsets.length; offsetPos++) {
+      final int start = edgeOffsets[2 * offsetPos];
+      final int length = edgeOffsets[2 * offsetPos + 1];
+      packEdgeBlock(sectionPacker, adjacentNodesWithProperties, start, length);
+      packSection(packer, sectionPacker);
     }
   }
 
-  /**
-   * format: `[ValueType.id, value]`
-   */
+  private void packEdgeBlock(MessageBufferPacker packer, Object[] adjacentNodesWithProperties, int start, int length) throws IOException {
+    final byte[] typeTags = new byte[length];
+    for (int i = 0; i < length; i++) {
+      typeTags[i] = typeOf(adjacentNodesWithProperties[start + i]).id;
+    }
+    packer.packBinaryHeader(length);
+    packer.writePayload(typeTags);
+
+    long previousNodeId = 0;
+    for (int i = 0; i < length; i++) {
+      final Object value = adjacentNodesWithProperties[start + i];
+      if (value instanceof NodeRef) {
+        final long nodeId = ((NodeRef) value).id;
+        packer.packLong(nodeId - previousNodeId);
+        previousNodeId = nodeId;
+      } else {
+        packValue(packer, ValueTypes.lookup(typeTags[i]), value);
+      }
+    }
+  }
+
+  /* writes the section as a (length-prefixed) binary and resets the section packer for the next one */
+  private void packSection(MessageBufferPacker packer, MessageBufferPacker sectionPacker) throws IOException {
+    final byte[] section = sectionPacker.toByteArray();
+    packer.packBinaryHeader(section.length);
+    packer.writePayload(section);
+    sectionPacker.clear();
+  }
+
   private void packTypedValue(final MessageBufferPacker packer, final Object value) throws IOException {
-    packer.packArrayHeader(2);
+    final ValueTypes valueType = typeOf(value);
+    packer.packByte(valueType.id);
+    packValue(packer, valueType, value);
+  }
+
+  private ValueTypes typeOf(final Object value) {
     if (value == null) {
-      packer.packByte(ValueTypes.UNKNOWN.id);
-      packer.packNil();
+      return ValueTypes.UNKNOWN;
     } else if (value instanceof NodeRef) {
-      packer.packByte(ValueTypes.NODE_REF.id);
-      packer.packLong(((NodeRef) value).id);
+      return ValueTypes.NODE_REF;
     } else if (value instanceof Boolean) {
-      packer.packByte(ValueTypes.BOOLEAN.id);
-      packer.packBoolean((Boolean) value);
+      return ValueTypes.BOOLEAN;
     } else if (value instanceof String) {
-      packer.packByte(ValueTypes.STRING.id);
-      packer.packString((String) value);
+      return ValueTypes.STRING;
     } else if (value instanceof Byte) {
-      packer.packByte(ValueTypes.BYTE.id);
-      packer.packByte((byte) value);
+      return ValueTypes.BYTE;
     } else if (value instanceof Short) {
-      packer.packByte(ValueTypes.SHORT.id);
-      packer.packShort((short) value);
+      return ValueTypes.SHORT;
     } else if (value instanceof Integer) {
-      packer.packByte(ValueTypes.INTEGER.id);
-      packer.packInt((int) value);
+      return ValueTypes.INTEGER;
     } else if (value instanceof Long) {
-      packer.packByte(ValueTypes.LONG.id);
-      packer.packLong((long) value);
+      return ValueTypes.LONG;
     } else if (value instanceof Float) {
-      packer.packByte(ValueTypes.FLOAT.id);
-      packer.packFloat((float) value);
+      return ValueTypes.FLOAT;
     } else if (value instanceof Double) {
-      packer.packByte(ValueTypes.DOUBLE.id);
-      packer.packFloat((float) value); //msgpack doesn't support double, but we still want to deserialize it as a double later
+      return ValueTypes.DOUBLE;
     } else if (value instanceof List) {
-      packer.packByte(ValueTypes.LIST.id);
-      List listValue = (List) value;
-      packer.packArrayHeader(listValue.size());
-      final Iterator listIter = listValue.iterator();
-      while (listIter.hasNext()) {
-        packTypedValue(packer, listIter.next());
-      }
+      return ValueTypes.LIST;
     } else if (value instanceof Character) {
-      packer.packByte(ValueTypes.CHARACTER.id);
-      packer.packInt((Character) value);
+      return ValueTypes.CHARACTER;
     } else {
       throw new NotImplementedException("id type `" + value.getClass() + "` not yet supported");
     }
   }
 
+  /** the value only, without its type */
+  private void packValue(final MessageBufferPacker packer, final ValueTypes valueType, final Object value) throws IOException {
+    switch (valueType) {
+      case UNKNOWN:
+        break;
+      case NODE_REF:
+        packer.packLong(((NodeRef) value).id);
+        break;
+      case BOOLEAN:
+        packer.packBoolean((Boolean) value);
+        break;
+      case STRING:
+        packer.packString((String) value);
+        break;
+      case BYTE:
+        packer.packByte((Byte) value);
+        break;
+      case SHORT:
+        packer.packShort((Short) value);
+        break;
+      case INTEGER:
+        packer.packInt((Integer) value);
+        break;
+      case LONG:
+        packer.packLong((Long) value);
+        break;
+      case FLOAT:
+        packer.packFloat((Float) value);
+        break;
+      case DOUBLE:
+        packer.packDouble((Double) value);
+        break;
+      case LIST:
+        List listValue = (List) value;
+        packer.packArrayHeader(listValue.size());
+        final Iterator listIter = listValue.iterator();
+        while (listIter.hasNext()) {
+          packTypedValue(packer, listIter.next());
+        }
+        break;
+      case CHARACTER:
+        packer.packInt((Character) value);
+        break;
+      default:
+        throw new NotImplementedException("value type `" + valueType + "` not yet supported");
+    }
+  }
+
 }
@@ -1,107 +1,320 @@
 package io.shiftleft.overflowdb.storage;
 
+import io.shiftleft.overflowdb.NodeRef;
 import io.shiftleft.overflowdb.OdbNode;
 import org.apache.tinkerpop.gremlin.structure.Vertex;
-import org.h2.mvstore.MVMap;
-import org.h2.mvstore.MVStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.Set;
 
 public class OdbStorage implements AutoCloseable {
+  /* see `compress` */
+  private static final int COMPRESSED_FLAG = 0x80;
+  private static final int COMPRESSION_HEADER_SIZE = 2 + Integer.BYTES;
+
   private final Logger logger = LoggerFactory.getLogger(getClass());
-  protected final NodeSerializer nodeSerializer = new NodeSerializer();
+  protected final NodeSerializer nodeSerializer;
   protected final Optional<NodeDeserializer> nodeDeserializer;
 
-  private final File mvstoreFile;
-  private MVStore mvstore; // initialized in `getNodesMVMap`
-  private MVMap<Long, byte[]> nodesMVMap;
+  private final StorageBackend backend;
+  private final SymbolTable symbolTable;
+  private final Optional<CompressionCodec> compressionCodec;
+  private final int compressionThreshold;
+  private final CompressionCodec[] codecsById = new CompressionCodec[128];
+  private final CompressionStats compressionStats = new CompressionStats();
+  private final Optional<OffHeapNodeCache> offHeapCache;
   private boolean closed;
 
-  public static OdbStorage createWithTempFile(final NodeDeserializer nodeDeserializer) {
-    return new OdbStorage(Optional.empty(), Optional.ofNullable(nodeDeserializer));
+  /**
+   * create with specific mvstore file - which may or may not yet exist, and won't be deleted at the end.
+   * without a NodeDeserializer, this can only be used to inspect the storage, not to read nodes.
+   */
+  public static OdbStorage createWithSpecificLocation(final File mvstoreFile) {
+    return new OdbStorage(MVStoreBackend.factory.create(Optional.ofNullable(mvstoreFile)), Optional.empty(), Optional.empty(), 0, Optional.empty());
+  }
+
+  public static OdbStorage createWithBackend(final NodeDeserializer nodeDeserializer, final StorageBackend backend) {
+    return createWithBackend(nodeDeserializer, backend, Optional.empty(), 0);
   }
 
   /**
-   * create with specific mvstore file - which may or may not yet exist.
-   * mvstoreFile won't be deleted at the end (unlike temp file constructors above)
+   * @param nodeDeserializer must use a symbol table for the given backend, it's shared with the serializer
+   * @param compressionCodec if present, serialized nodes of at least `compressionThreshold` bytes are compressed
    */
-  public static OdbStorage createWithSpecificLocation(
-      final NodeDeserializer nodeDeserializer, final File mvstoreFile) {
-    return new OdbStorage(Optional.ofNullable(mvstoreFile), Optional.ofNullable(nodeDeserializer));
+  public static OdbStorage createWithBackend(final NodeDeserializer nodeDeserializer,
+                                             final StorageBackend backend,
+                                             final Optional<CompressionCodec> compressionCodec,
+                                             final int compressionThreshold) {
+    return createWithBackend(nodeDeserializer, backend, compressionCodec, compressionThreshold, Optional.empty());
   }
 
   /**
-   * create with specific mvstore file - which may or may not yet exist.
-   * mvstoreFile won't be deleted at the end (unlike temp file constructors above)
+   * @param offHeapCache if present, serialized nodes are cached there when they're written or read, and reads check
+   *                     the cache before going to the backend
    */
-  public static OdbStorage createWithSpecificLocation(final File mvstoreFile) {
-    return new OdbStorage(Optional.ofNullable(mvstoreFile), Optional.empty());
+  public static OdbStorage createWithBackend(final NodeDeserializer nodeDeserializer,
+                                             final StorageBackend backend,
+                                             final Optional<CompressionCodec> compressionCodec,
+                                             final int compressionThreshold,
+                                             final Optional<OffHeapNodeCache> offHeapCache) {
+    return new OdbStorage(backend, Optional.ofNullable(nodeDeserializer), compressionCodec, compressionThreshold, offHeapCache);
   }
 
   private OdbStorage(
-      final Optional<File> mvstoreFileMaybe,
-      final Optional<NodeDeserializer> nodeDeserializer) {
+      final StorageBackend backend,
+      final Optional<NodeDeserializer> nodeDeserializer,
+      final Optional<CompressionCodec> compressionCodec,
+      final int compressionThreshold,
+      final Optional<OffHeapNodeCache> offHeapCache) {
     this.nodeDeserializer = nodeDeserializer;
+    this.offHeapCache = offHeapCache;
+    this.backend = backend;
+    this.symbolTable = nodeDeserializer.map(NodeDeserializer::getSymbolTable).orElseGet(() -> new SymbolTable(backend));
+    this.nodeSerializer = new NodeSerializer(symbolTable);
+    this.compressionCodec = compressionCodec;
+    this.compressionThreshold = compressionThreshold;
+    /* compressed nodes can always be read with the built-in codecs, even if compression is disabled by now */
+    registerCodec(LzfCodec.instance);
+    compressionCodec.ifPresent(this::registerCodec);
+    logger.trace("storage location: " + backend.getLocation());
+  }
 
-    if (mvstoreFileMaybe.isPresent()) {
-      mvstoreFile = mvstoreFileMaybe.get();
-    } else {
-      try {
-        mvstoreFile = File.createTempFile("mvstore", ".bin");
-        mvstoreFile.deleteOnExit();
-      } catch (IOException e) {
-        throw new RuntimeException("cannot create tmp file for mvstore", e);
-      }
+  private void registerCodec(CompressionCodec codec) {
+    if (codec.id() < 0) {
+      throw new IllegalArgumentException("compression codec id must be between 0 and 127, but is " + codec.id());
     }
-    logger.trace("storge file: " + mvstoreFile);
+    codecsById[codec.id()] = codec;
   }
 
   public void persist(final OdbNode node) throws IOException {
     if (!closed) {
       final long id = node.ref.id;
-      getNodesMVMap().put(id, nodeSerializer.serialize(node));
+      final byte[] serialized = serialize(node);
+      try {
+        backend.put(id, symbolTable.idFor(node.label()), serialized);
+      } catch (RuntimeException e) {
+        /* not written after all, i.e. it mustn't be dropped without another attempt */
+        node.setModifiedSinceLastSerialization(true);
+        throw e;
+      }
+      offHeapCache.ifPresent(cache -> cache.put(id, serialized));
+    }
+  }
+
+  /**
+   * persist a batch of already serialized nodes (see `serialize`), in the map's iteration order
+   */
+  public void persist(final Map<NodeRef, byte[]> serializedNodes) {
+    if (!closed) {
+      final long[] ids = new long[serializedNodes.size()];
+      final int[] labelIds = new int[serializedNodes.size()];
+      final byte[][] serialized = new byte[serializedNodes.size()][];
+      int i = 0;
+      for (Map.Entry<NodeRef, byte[]> entry : serializedNodes.entrySet()) {
+        ids[i] = entry.getKey().id;
+        labelIds[i] = symbolTable.idFor(entry.getKey().label());
+        serialized[i++] = entry.getValue();
+      }
+      backend.putAll(ids, labelIds, serialized);
+      if (offHeapCache.isPresent()) {
+        for (int j = 0; j < ids.length; j++) {
+          offHeapCache.get().put(ids[j], serialized[j]);
+        }
+      }
+    }
+  }
+
+  /**
+   * serializes the node and marks it as unmodified - it's the caller's responsibility to persist the returned bytes,
+   * and to mark the node as modified again if that fails
+   */
+  public byte[] serialize(final OdbNode node) throws IOException {
+    /* reset before serializing: a concurrent modification will flag it again, rather than getting lost.
+     * if serializing fails, it's flagged again right away, i.e. it's only unmodified if we return the bytes */
+    node.setModifiedSinceLastSerialization(false);
+    try {
+      final byte[] serialized = nodeSerializer.serialize(node);
+      return compressionCodec.isPresent() && serialized.length >= compressionThreshold ?
+          compress(compressionCodec.get(), serialized) :
+          serialized;
+    } catch (IOException | RuntimeException e) {
+      node.setModifiedSinceLastSerialization(true);
+      throw e;
+    }
+  }
+
+  /**
+   * compressed format: `[FORMAT_MARKER][COMPRESSED_FLAG | codecId][int uncompressedLength][compressed bytes]`
+   * returns the uncompressed bytes if compression doesn't make them smaller.
+   */
+  private byte[] compress(final CompressionCodec codec, final byte[] serialized) {
+    final long start = System.nanoTime();
+    final byte[] compressed = codec.compress(serialized);
+    final boolean worthIt = compressed != null && compressed.length + COMPRESSION_HEADER_SIZE < serialized.length;
+    compressionStats.recordCompression(serialized.length, worthIt ? compressed : null, System.nanoTime() - start);
+    if (!worthIt) return serialized;
+
+    final ByteBuffer buffer = ByteBuffer.allocate(COMPRESSION_HEADER_SIZE + compressed.length);
+    buffer.put(NodeSerializer.FORMAT_MARKER);
+    buffer.put((byte) (COMPRESSED_FLAG | codec.id()));
+    buffer.putInt(serialized.length);
+    buffer.put(compressed);
+    return buffer.array();
+  }
+
+  /**
+   * @return the uncompressed bytes, i.e. the given bytes if they're not compressed
+   */
+  public byte[] decompress(final byte[] bytes) {
+    if (bytes == null || bytes.length < COMPRESSION_HEADER_SIZE || bytes[0] != NodeSerializer.FORMAT_MARKER || (bytes[1] & COMPRESSED_FLAG) == 0) {
+      return bytes;
+    }
+    final long start = System.nanoTime();
+    final int codecId = bytes[1] & 0x7f;
+    final CompressionCodec codec = codecsById[codecId];
+    if (codec == null) {
+      throw new IllegalStateException("unknown compression codec id " + codecId + " - please configure it via `OdbConfig.withCompression`");
     }
+    final int uncompressedLength = ByteBuffer.wrap(bytes, 2, Integer.BYTES).getInt();
+    final byte[] decompressed = codec.decompress(bytes, COMPRESSION_HEADER_SIZE, bytes.length - COMPRESSION_HEADER_SIZE, uncompressedLength);
+    compressionStats.recordDecompression(System.nanoTime() - start);
+    return decompressed;
   }
 
   public <A extends Vertex> A readNode(final long id) throws IOException {
-    return (A) nodeDeserializer.get().deserialize(getNodesMVMap().get(id));
+    return deserializeNode(readBytes(id));
+  }
+
+  /** @param serialized as returned by `readSerializedNodes`, `null` if there's no entry for that node */
+  public <A extends Vertex> A deserializeNode(final byte[] serialized) throws IOException {
+    return (A) nodeDeserializer.get().deserialize(decompress(serialized));
+  }
+
+  /**
+   * reads the given nodes in one batch, in the backend's physical order (see `StorageBackend.getAll`), so that they
+   * can be deserialized in parallel afterwards, see `deserializeNode`.
+   * n.b. the MVStoreBackend reads them in the given order, and its pages hold ranges of ids: sort them by id.
+   * @return the serialized nodes, at the same index as their ids; `null` for ids that don't have an entry
+   */
+  public byte[][] readSerializedNodes(final long[] ids) {
+    if (!offHeapCache.isPresent()) return backend.getAll(ids);
+
+    final OffHeapNodeCache cache = offHeapCache.get();
+    final byte[][] serializedNodes = new byte[ids.length][];
+    final int[] missingIndices = new int[ids.length];
+    int missingCount = 0;
+    for (int i = 0; i < ids.length; i++) {
+      serializedNodes[i] = cache.get(ids[i]);
+      if (serializedNodes[i] == null) missingIndices[missingCount++] = i;
+    }
+    if (missingCount > 0) {
+      final long[] missingIds = new long[missingCount];
+      for (int i = 0; i < missingCount; i++) missingIds[i] = ids[missingIndices[i]];
+      final byte[][] fromBackend = backend.getAll(missingIds);
+      for (int i = 0; i < missingCount; i++) {
+        if (fromBackend[i] != null) {
+          serializedNodes[missingIndices[i]] = fromBackend[i];
+          cache.put(missingIds[i], fromBackend[i]);
+        }
+      }
+    }
+    return serializedNodes;
+  }
+
+  /* from the offHeapCache if it's in there, otherwise from the backend - and we cache it for next time.
+   * n.b. the node is not in memory while we're reading it, so it can't be persisted (and cached) concurrently */
+  private byte[] readBytes(final long id) {
+    if (offHeapCache.isPresent()) {
+      final OffHeapNodeCache cache = offHeapCache.get();
+      byte[] bytes = cache.get(id);
+      if (bytes == null) {
+        bytes = backend.get(id);
+        if (bytes != null) cache.put(id, bytes);
+      }
+      return bytes;
+    } else {
+      return backend.get(id);
+    }
+  }
+
+  public void flush() {
+    if (!closed) {
+      backend.flush();
+    }
   }
 
   @Override
   public void close() {
     closed = true;
     logger.info("closing " + getClass().getSimpleName());
-    if (mvstore != null) mvstore.close();
+    if (compressionStats.getCompressionAttempts() > 0 || compressionStats.getDecompressedCount() > 0) {
+      logger.info("compression stats: " + compressionStats);
+    }
+    offHeapCache.ifPresent(cache -> logger.info(cache.toString()));
+    backend.close();
   }
 
   public File getStorageFile() {
-    return new File(mvstore.getFileStore().getFileName());
+    return backend.getLocation();
   }
 
   public void removeNode(final Long id) {
-    getNodesMVMap().remove(id);
+    offHeapCache.ifPresent(cache -> cache.invalidate(id));
+    backend.remove(id);
+  }
+
+  /** n.b. the bytes are returned as stored, i.e. they may need to be `decompress`ed */
+  public Iterator<Map.Entry<Long, byte[]>> allNodes() {
+    return backend.scan();
+  }
+
+  /** @see StorageBackend#scanPartitioned */
+  public List<Iterator<Map.Entry<Long, byte[]>>> allNodesPartitioned(int partitionCount) {
+    return backend.scanPartitioned(partitionCount);
+  }
+
+  /** @see StorageBackend#scanLabelIdsPartitioned */
+  public List<Iterator<Map.Entry<Long, Integer>>> allLabelIdsPartitioned(int partitionCount) {
+    return backend.scanLabelIdsPartitioned(partitionCount);
+  }
+
+  /**
+   * storage written by an older version doesn't have label ids for all nodes, in which case we need to fall back
+   * to read the labels from the serialized nodes
+   */
+  public boolean hasLabelIdsForAllNodes() {
+    return backend.labelIdCount() == backend.size();
   }
 
-  public Set<Map.Entry<Long, byte[]>> allNodes() {
-    return getNodesMVMap().entrySet();
+  public int nodeCount() {
+    return backend.size();
+  }
+
+  public Optional<OffHeapNodeCache> getOffHeapCache() {
+    return offHeapCache;
+  }
+
+  public CompressionStats getCompressionStats() {
+    return compressionStats;
+  }
+
+  public SymbolTable getSymbolTable() {
+    return symbolTable;
   }
 
   public NodeSerializer getNodeSerializer() {
     return nodeSerializer;
   }
 
-  public MVMap<Long, byte[]> getNodesMVMap() {
-    if (mvstore == null) {
-      mvstore = new MVStore.Builder().fileName(mvstoreFile.getAbsolutePath()).open();
-      nodesMVMap = mvstore.openMap("nodes");
-    }
-    return nodesMVMap;
+  public StorageBackend getBackend() {
+    return backend;
   }
 
   public Optional<NodeDeserializer> getNodeDeserializer() {
@@ -0,0 +1,156 @@
+package io.shiftleft.overflowdb.storage;
+
+import gnu.trove.map.TLongLongMap;
+import gnu.trove.map.hash.TLongLongHashMap;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Bounded cache for serialized nodes (as stored, i.e. possibly compressed) outside of the java heap, in between the
+ * heap and the StorageBackend: reading a node that's in here is a memcpy rather than a storage read, and the cached
+ * bytes don't cost any GC time.
+ *
+ * The memory is split into slabs of direct ByteBuffers, which are filled one after the other with entries of
+ * `[long id][int length][bytes]`. When all slabs are full, the oldest one is recycled, i.e. this is a FIFO of the most
+ * recently written / read nodes. Entries that are larger than a slab aren't cached.
+ *
+ * n.b. direct memory is limited by `-XX:MaxDirectMemorySize`, which defaults to the max heap size.
+ */
+public class OffHeapNodeCache {
+  public static final int MAX_SLAB_SIZE = 64 * 1024 * 1024;
+  private static final int ENTRY_HEADER_SIZE = Long.BYTES + Integer.BYTES;
+  private static final long NO_ENTRY = -1;
+
+  private final int slabSize;
+  private final ByteBuffer[] slabs;
+  /* slab index in the upper, offset in the lower 32 bits */
+  private final TLongLongMap locationById = new TLongLongHashMap(10_000, 0.5f, NO_ENTRY, NO_ENTRY);
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private int currentSlab = 0;
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  /** @param capacity in bytes, split into slabs of up to MAX_SLAB_SIZE, which are allocated on first use */
+  public OffHeapNodeCache(long capacity) {
+    this(capacity, MAX_SLAB_SIZE);
+  }
+
+  OffHeapNodeCache(long capacity, int maxSlabSize) {
+    if (capacity < ENTRY_HEADER_SIZE) {
+      throw new IllegalArgumentException("capacity must be at least " + ENTRY_HEADER_SIZE + " bytes, but is " + capacity);
+    }
+    this.slabSize = (int) Long.min(capacity, maxSlabSize);
+    final long slabCount = (capacity + slabSize - 1) / slabSize;
+    if (slabCount > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("capacity too large: " + capacity);
+    }
+    this.slabs = new ByteBuffer[(int) slabCount];
+  }
+
+  /** @return a copy of the cached bytes, or `null` if they're not in the cache */
+  public byte[] get(long id) {
+    lock.readLock().lock();
+    try {
+      final long location = locationById.get(id);
+      if (location == NO_ENTRY) {
+        misses.increment();
+        return null;
+      }
+      /* duplicate: independent position, so that concurrent readers don't interfere */
+      final ByteBuffer slab = slabs[(int) (location >>> 32)].duplicate();
+      slab.position((int) location + Long.BYTES);
+      final byte[] bytes = new byte[slab.getInt()];
+      slab.get(bytes);
+      hits.increment();
+      return bytes;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** replaces the cached bytes for that node, if any */
+  public void put(long id, byte[] bytes) {
+    final int entrySize = ENTRY_HEADER_SIZE + bytes.length;
+    lock.writeLock().lock();
+    try {
+      if (entrySize > slabSize) {
+        locationById.remove(id);
+        return;
+      }
+      ByteBuffer slab = slab(currentSlab);
+      if (slab.remaining() < entrySize) {
+        currentSlab = (currentSlab + 1) % slabs.length;
+        slab = slab(currentSlab);
+        recycle(currentSlab, slab);
+      }
+      final long location = ((long) currentSlab << 32) | slab.position();
+      slab.putLong(id);
+      slab.putInt(bytes.length);
+      slab.put(bytes);
+      locationById.put(id, location);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  public void invalidate(long id) {
+    lock.writeLock().lock();
+    try {
+      locationById.remove(id);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private ByteBuffer slab(int index) {
+    if (slabs[index] == null) {
+      slabs[index] = ByteBuffer.allocateDirect(slabSize);
+    }
+    return slabs[index];
+  }
+
+  /* drops all entries that (still) point into the given slab, and resets it */
+  private void recycle(int slabIndex, ByteBuffer slab) {
+    final int end = slab.position();
+    int position = 0;
+    while (position < end) {
+      final long id = slab.getLong(position);
+      final int length = slab.getInt(position + Long.BYTES);
+      final long location = ((long) slabIndex << 32) | position;
+      if (locationById.get(id) == location) {
+        locationById.remove(id);
+      }
+      position += ENTRY_HEADER_SIZE + length;
+    }
+    slab.clear();
+  }
+
+  public int size() {
+    lock.readLock().lock();
+    try {
+      return locationById.size();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  public long getHitCount() {
+    return hits.sum();
+  }
+
+  public long getMissCount() {
+    return misses.sum();
+  }
+
+  @Override
+  public String toString() {
+    final long hits = getHitCount();
+    final long total = hits + getMissCount();
+    return String.format("OffHeapNodeCache(slabs=%d x %dMB, entries=%d, hits=%d, misses=%d, hitRatio=%.2f)",
+        slabs.length, slabSize / (1024 * 1024), size(), hits, getMissCount(), total == 0 ? 0d : hits / (double) total);
+  }
+}
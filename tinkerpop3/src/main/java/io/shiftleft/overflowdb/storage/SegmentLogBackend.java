@@ -0,0 +1,510 @@
+package io.shiftleft.overflowdb.storage;
+
+import gnu.trove.map.TLongLongMap;
+import gnu.trove.map.hash.TLongLongHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Log structured {@link StorageBackend}: all writes are appended to memory-mapped segment files, and an in-memory
+ * table maps each node id to the position of its latest entry. Overwritten and removed entries are not reclaimed,
+ * i.e. the segments only ever grow.
+ *
+ * The storage location is a directory containing the segment files and a symbols file. On startup, the id->position
+ * table is rebuilt by scanning all segments in order. The table also holds each node's label id, so that
+ * `scanLabelIdsPartitioned` doesn't need to touch the segments at all.
+ *
+ * Entry format: `[int length+1][long id][int labelId][byte[] serializedNode]`, a removal is `[int -1][long id]`.
+ * Unwritten space in a segment is all zeros, so a length field of `0` marks the end of a segment.
+ * The symbols file is a sequence of `[int id][utf symbol]`.
+ */
+public class SegmentLogBackend implements StorageBackend {
+  public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+  public static final StorageBackend.Factory factory = location -> new SegmentLogBackend(location, DEFAULT_SEGMENT_SIZE);
+
+  private static final int REMOVAL_SIZE = Integer.BYTES + Long.BYTES;
+  private static final int HEADER_SIZE = REMOVAL_SIZE + Integer.BYTES;
+  private static final int REMOVED_MARKER = -1;
+  private static final long NO_ENTRY = -1;
+  /* the id->position table packs `labelId << 48 | segmentIndex << 32 | positionInSegment` into one long */
+  private static final int MAX_LABEL_ID = 0xFFFF;
+  private static final int MAX_SEGMENT_INDEX = 0xFFFF;
+  private static final long POSITION_MASK = 0xFFFF_FFFF_FFFFL;
+  private static final String SYMBOLS_FILE_NAME = "symbols.log";
+
+  private final Logger logger = LoggerFactory.getLogger(getClass());
+  private final File directory;
+  private final boolean temporary;
+  private final int segmentSize;
+  private final List<Segment> segments = new ArrayList<>();
+  /* maps node id to its packed label id and position, see POSITION_MASK */
+  private final TLongLongMap positions = new TLongLongHashMap(1024, 0.5f, NO_ENTRY, NO_ENTRY);
+  private final Map<String, Integer> symbols = new HashMap<>();
+  private DataOutputStream symbolsOutput;
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private boolean closed = false;
+
+  public static StorageBackend.Factory factory(int segmentSize) {
+    return location -> new SegmentLogBackend(location, segmentSize);
+  }
+
+  public SegmentLogBackend(Optional<File> directoryMaybe, int segmentSize) {
+    if (segmentSize <= HEADER_SIZE) {
+      throw new IllegalArgumentException("segmentSize must be larger than " + HEADER_SIZE + ", but is " + segmentSize);
+    }
+    this.segmentSize = segmentSize;
+    try {
+      if (directoryMaybe.isPresent()) {
+        directory = directoryMaybe.get();
+        temporary = false;
+        if (directory.isFile()) {
+          throw new IllegalArgumentException("storage location for " + getClass().getSimpleName() + " must be a directory, but is a file: " + directory);
+        }
+        directory.mkdirs();
+        openExistingSegments();
+        readSymbols();
+      } else {
+        directory = Files.createTempDirectory("odb-segments").toFile();
+        directory.deleteOnExit();
+        temporary = true;
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("unable to initialize segment log in " + directoryMaybe, e);
+    }
+  }
+
+  @Override
+  public void put(long id, int labelId, byte[] serializedNode) {
+    lock.writeLock().lock();
+    try {
+      append(id, labelId, serializedNode);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public void putAll(long[] ids, int[] labelIds, byte[][] serializedNodes) {
+    lock.writeLock().lock();
+    try {
+      for (int i = 0; i < ids.length; i++) {
+        append(ids[i], labelIds[i], serializedNodes[i]);
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public byte[] get(long id) {
+    lock.readLock().lock();
+    try {
+      final long position = positions.get(id);
+      return position == NO_ENTRY ? null : read(position);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /* reads the entries in the order of their position in the segments, i.e. sequentially rather than all over the place */
+  @Override
+  public byte[][] getAll(long[] ids) {
+    final byte[][] serializedNodes = new byte[ids.length][];
+    final long[] packedPositions = new long[ids.length];
+    final Integer[] order = new Integer[ids.length];
+    lock.readLock().lock();
+    try {
+      for (int i = 0; i < ids.length; i++) {
+        packedPositions[i] = positions.get(ids[i]);
+        order[i] = i;
+      }
+      Arrays.sort(order, Comparator.comparingLong(i -> packedPositions[i] & POSITION_MASK));
+      for (int i : order) {
+        if (packedPositions[i] != NO_ENTRY) serializedNodes[i] = read(packedPositions[i]);
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+    return serializedNodes;
+  }
+
+  @Override
+  public void remove(long id) {
+    lock.writeLock().lock();
+    try {
+      if (positions.containsKey(id)) {
+        final ByteBuffer buffer = writableSegment(REMOVAL_SIZE).buffer;
+        buffer.putInt(REMOVED_MARKER);
+        buffer.putLong(id);
+        positions.remove(id);
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * iterates over a snapshot of all entries, in the order they're laid out on disk. The entries are read lazily.
+   */
+  @Override
+  public Iterator<Map.Entry<Long, byte[]>> scan() {
+    final long[] snapshot = sortedPositionsSnapshot();
+    return entriesAt(snapshot, 0, snapshot.length);
+  }
+
+  /**
+   * partitions a snapshot of all entries, ordered by their position on disk
+   */
+  @Override
+  public List<Iterator<Map.Entry<Long, byte[]>>> scanPartitioned(int partitionCount) {
+    final long[] snapshot = sortedPositionsSnapshot();
+    final int actualPartitionCount = Integer.min(partitionCount, snapshot.length);
+    final List<Iterator<Map.Entry<Long, byte[]>>> partitions = new ArrayList<>(actualPartitionCount);
+    for (int i = 0; i < actualPartitionCount; i++) {
+      final int from = (int) ((long) i * snapshot.length / actualPartitionCount);
+      final int until = (int) ((long) (i + 1) * snapshot.length / actualPartitionCount);
+      partitions.add(entriesAt(snapshot, from, until));
+    }
+    return partitions;
+  }
+
+  private long[] sortedPositionsSnapshot() {
+    final long[] snapshot;
+    lock.readLock().lock();
+    try {
+      snapshot = positions.values();
+    } finally {
+      lock.readLock().unlock();
+    }
+    for (int i = 0; i < snapshot.length; i++) {
+      snapshot[i] &= POSITION_MASK;
+    }
+    Arrays.sort(snapshot);
+    return snapshot;
+  }
+
+  private Iterator<Map.Entry<Long, byte[]>> entriesAt(final long[] positions, final int from, final int until) {
+    return new Iterator<Map.Entry<Long, byte[]>>() {
+      private int current = from;
+
+      @Override
+      public boolean hasNext() {
+        return current < until;
+      }
+
+      @Override
+      public Map.Entry<Long, byte[]> next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        final long position = positions[current++];
+        lock.readLock().lock();
+        try {
+          return new AbstractMap.SimpleImmutableEntry<>(readId(position), read(position));
+        } finally {
+          lock.readLock().unlock();
+        }
+      }
+    };
+  }
+
+  @Override
+  public int size() {
+    lock.readLock().lock();
+    try {
+      return positions.size();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * served from a snapshot of the in-memory id->position table
+   */
+  @Override
+  public List<Iterator<Map.Entry<Long, Integer>>> scanLabelIdsPartitioned(int partitionCount) {
+    final long[] ids;
+    final long[] packedPositions;
+    lock.readLock().lock();
+    try {
+      ids = new long[positions.size()];
+      packedPositions = new long[positions.size()];
+      final int[] index = new int[1];
+      positions.forEachEntry((id, packedPosition) -> {
+        ids[index[0]] = id;
+        packedPositions[index[0]++] = packedPosition;
+        return true;
+      });
+    } finally {
+      lock.readLock().unlock();
+    }
+
+    final int actualPartitionCount = Integer.min(partitionCount, ids.length);
+    final List<Iterator<Map.Entry<Long, Integer>>> partitions = new ArrayList<>(actualPartitionCount);
+    for (int i = 0; i < actualPartitionCount; i++) {
+      final int from = (int) ((long) i * ids.length / actualPartitionCount);
+      final int until = (int) ((long) (i + 1) * ids.length / actualPartitionCount);
+      partitions.add(new Iterator<Map.Entry<Long, Integer>>() {
+        private int current = from;
+
+        @Override
+        public boolean hasNext() {
+          return current < until;
+        }
+
+        @Override
+        public Map.Entry<Long, Integer> next() {
+          if (!hasNext()) throw new NoSuchElementException();
+          final int index = current++;
+          return new AbstractMap.SimpleImmutableEntry<>(ids[index], labelId(packedPositions[index]));
+        }
+      });
+    }
+    return partitions;
+  }
+
+  @Override
+  public int labelIdCount() {
+    return size();
+  }
+
+  @Override
+  public void putSymbol(String symbol, int id) {
+    lock.writeLock().lock();
+    try {
+      if (closed) throw new IllegalStateException("segment log is already closed");
+      if (symbolsOutput == null) {
+        final File symbolsFile = new File(directory, SYMBOLS_FILE_NAME);
+        if (temporary) symbolsFile.deleteOnExit();
+        symbolsOutput = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(symbolsFile, true)));
+      }
+      symbolsOutput.writeInt(id);
+      symbolsOutput.writeUTF(symbol);
+      /* symbols are rare, but entries refer to them - make sure they're written first */
+      symbolsOutput.flush();
+      symbols.put(symbol, id);
+    } catch (IOException e) {
+      throw new RuntimeException("unable to write symbol to " + directory, e);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public Map<String, Integer> allSymbols() {
+    lock.readLock().lock();
+    try {
+      return new HashMap<>(symbols);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public void flush() {
+    lock.writeLock().lock();
+    try {
+      for (Segment segment : segments) {
+        segment.buffer.force();
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public File getLocation() {
+    return directory;
+  }
+
+  @Override
+  public void close() {
+    lock.writeLock().lock();
+    try {
+      if (closed) return;
+      closed = true;
+      if (symbolsOutput != null) symbolsOutput.close();
+      for (Segment segment : segments) {
+        segment.buffer.force();
+        segment.channel.close();
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("error while closing segment log in " + directory, e);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private void append(long id, int labelId, byte[] serializedNode) {
+    if (labelId < 0 || labelId > MAX_LABEL_ID) {
+      throw new IllegalArgumentException("labelId must be between 0 and " + MAX_LABEL_ID + ", but is " + labelId);
+    }
+    final Segment segment = writableSegment(HEADER_SIZE + serializedNode.length);
+    final int position = segment.buffer.position();
+    segment.buffer.putInt(serializedNode.length + 1);
+    segment.buffer.putLong(id);
+    segment.buffer.putInt(labelId);
+    segment.buffer.put(serializedNode);
+    positions.put(id, pack(labelId, segment.index, position));
+  }
+
+  private static long pack(int labelId, int segmentIndex, int position) {
+    return ((long) labelId << 48) | ((long) segmentIndex << 32) | position;
+  }
+
+  private static int labelId(long packedPosition) {
+    return (int) (packedPosition >>> 48);
+  }
+
+  private static int segmentIndex(long packedPosition) {
+    return (int) ((packedPosition & POSITION_MASK) >>> 32);
+  }
+
+  private long readId(long position) {
+    return segments.get(segmentIndex(position)).buffer.getLong((int) position + Integer.BYTES);
+  }
+
+  private byte[] read(long position) {
+    final Segment segment = segments.get(segmentIndex(position));
+    final ByteBuffer buffer = segment.buffer.duplicate();
+    buffer.position((int) position);
+    final byte[] bytes = new byte[buffer.getInt() - 1];
+    buffer.position(buffer.position() + Long.BYTES + Integer.BYTES);
+    buffer.get(bytes);
+    return bytes;
+  }
+
+  /** @return the current segment if it has enough space left, or a new one */
+  private Segment writableSegment(int requiredBytes) {
+    if (closed) throw new IllegalStateException("segment log is already closed");
+    if (!segments.isEmpty()) {
+      final Segment current = segments.get(segments.size() - 1);
+      if (current.buffer.remaining() >= requiredBytes) return current;
+    }
+    try {
+      if (segments.size() > MAX_SEGMENT_INDEX) {
+        throw new IllegalStateException("segment log in " + directory + " exceeds the maximum of " + (MAX_SEGMENT_INDEX + 1) + " segments");
+      }
+      // entries larger than the segment size get a dedicated segment
+      final Segment segment = openSegment(segments.size(), Integer.max(segmentSize, requiredBytes));
+      segments.add(segment);
+      return segment;
+    } catch (IOException e) {
+      throw new RuntimeException("unable to create new segment in " + directory, e);
+    }
+  }
+
+  private Segment openSegment(int index, int size) throws IOException {
+    final File file = new File(directory, String.format("segment-%06d.log", index));
+    if (temporary) file.deleteOnExit();
+    final FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+    final long existingSize = channel.size();
+    final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Long.max(existingSize, size));
+    return new Segment(index, channel, buffer);
+  }
+
+  private void openExistingSegments() throws IOException {
+    final File[] files = directory.listFiles((dir, name) -> name.startsWith("segment-") && name.endsWith(".log"));
+    if (files == null || files.length == 0) return;
+    Arrays.sort(files);
+    long start = System.currentTimeMillis();
+    for (int i = 0; i < files.length; i++) {
+      final Segment segment = openSegment(i, 0);
+      segments.add(segment);
+      replay(segment);
+    }
+    logger.info("replayed " + segments.size() + " segments with " + positions.size() + " entries in " + (System.currentTimeMillis() - start) + "ms");
+  }
+
+  /**
+   * rebuild the id->position table from the segment and move the segment's position to the end of the last entry.
+   * an incomplete last entry is truncated, see `truncate`
+   */
+  private void replay(Segment segment) {
+    final MappedByteBuffer buffer = segment.buffer;
+    while (buffer.remaining() >= REMOVAL_SIZE) {
+      final int position = buffer.position();
+      final int lengthField = buffer.getInt();
+      if (lengthField == 0) {
+        buffer.position(position);
+        break;
+      }
+      final long entrySize = lengthField == REMOVED_MARKER ? REMOVAL_SIZE : HEADER_SIZE + (long) lengthField - 1;
+      if (lengthField < REMOVED_MARKER || entrySize > buffer.limit() - position) {
+        truncate(segment, position);
+        break;
+      }
+      final long id = buffer.getLong();
+      if (lengthField == REMOVED_MARKER) {
+        positions.remove(id);
+      } else {
+        final int labelId = buffer.getInt();
+        positions.put(id, pack(labelId, segment.index, position));
+        buffer.position(buffer.position() + lengthField - 1);
+      }
+    }
+  }
+
+  /* the last entry is incomplete, e.g. because we crashed while appending it: discard it, and everything after it */
+  private void truncate(Segment segment, int position) {
+    logger.warn("discarding incomplete entry at position " + position + " of segment " + segment.index + " in " + directory);
+    final MappedByteBuffer buffer = segment.buffer;
+    for (int i = position; i < buffer.limit(); i++) {
+      buffer.put(i, (byte) 0);
+    }
+    buffer.position(position);
+  }
+
+  private void readSymbols() throws IOException {
+    final File symbolsFile = new File(directory, SYMBOLS_FILE_NAME);
+    if (!symbolsFile.exists()) return;
+    try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(symbolsFile)))) {
+      while (true) {
+        final int id;
+        try {
+          id = input.readInt();
+        } catch (EOFException e) {
+          break;
+        }
+        symbols.put(input.readUTF(), id);
+      }
+    }
+  }
+
+  private static class Segment {
+    final int index;
+    final FileChannel channel;
+    final MappedByteBuffer buffer;
+
+    Segment(int index, FileChannel channel, MappedByteBuffer buffer) {
+      this.index = index;
+      this.channel = channel;
+      this.buffer = buffer;
+    }
+  }
+}
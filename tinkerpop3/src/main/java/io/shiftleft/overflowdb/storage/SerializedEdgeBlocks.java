@@ -0,0 +1,56 @@
+package io.shiftleft.overflowdb.storage;
+
+import java.io.IOException;
+
+/**
+ * The edge blocks of a partially materialized node (see `OdbConfig.withPartialMaterialization`) that haven't been
+ * deserialized yet. Each block is deserialized into the node's `adjacentNodesWithProperties` on first access.
+ */
+public class SerializedEdgeBlocks {
+  private final NodeDeserializer deserializer;
+  private final byte[] bytes;
+  /* position of each edge block's section in `bytes`, indexed by offsetPos */
+  private final int[] blockPositions;
+  private final boolean[] loaded;
+  private int loadedCount = 0;
+
+  SerializedEdgeBlocks(NodeDeserializer deserializer, byte[] bytes, int[] blockPositions) {
+    this.deserializer = deserializer;
+    this.bytes = bytes;
+    this.blockPositions = blockPositions;
+    this.loaded = new boolean[blockPositions.length];
+  }
+
+  /**
+   * deserialize the given edge block into `adjacentNodesWithProperties`, unless that already happened
+   * @param start the block's start index in `adjacentNodesWithProperties`
+   * @param length the block's length
+   */
+  public synchronized void load(int offsetPos, Object[] adjacentNodesWithProperties, int start, int length) {
+    if (loaded[offsetPos]) return;
+    try {
+      deserializer.unpackEdgeBlock(bytes, blockPositions[offsetPos], adjacentNodesWithProperties, start, length);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    loaded[offsetPos] = true;
+    loadedCount++;
+  }
+
+  public synchronized boolean isLoaded(int offsetPos) {
+    return loaded[offsetPos];
+  }
+
+  public synchronized boolean isComplete() {
+    return loadedCount == loaded.length;
+  }
+
+  public int blockCount() {
+    return loaded.length;
+  }
+
+  /** approximate heap size in bytes, see `OdbNode.estimatedSize` */
+  public int estimatedSize() {
+    return 3 * 16 + bytes.length + Integer.BYTES * blockPositions.length + loaded.length;
+  }
+}
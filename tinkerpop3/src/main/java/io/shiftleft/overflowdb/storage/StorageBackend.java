@@ -0,0 +1,89 @@
+package io.shiftleft.overflowdb.storage;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Key/value store for serialized nodes, used by {@link OdbStorage}.
+ * Keys are node ids, values are the serialized nodes as created by {@link NodeSerializer}.
+ * Alongside each node, the id of its label (see {@link SymbolTable}) is stored in a way that allows to scan all
+ * (node id, label id) pairs without reading the serialized nodes - that's all we need to initialize the graph on startup.
+ *
+ * Implementations must be safe to use from multiple threads, i.e. concurrent reads while writing.
+ * The default implementation is {@link MVStoreBackend}.
+ */
+public interface StorageBackend extends AutoCloseable {
+
+  void put(long id, int labelId, byte[] serializedNode);
+
+  /**
+   * write multiple entries in one go - implementations may use this to reduce locking and I/O overhead.
+   * the arrays must have the same length, elements at the same index belong to the same node.
+   */
+  void putAll(long[] ids, int[] labelIds, byte[][] serializedNodes);
+
+  /** @return the serialized node, or `null` if there is no entry for the given id */
+  byte[] get(long id);
+
+  /**
+   * read multiple entries in one go - implementations may read them in the order of their physical location, e.g.
+   * their position in a file, rather than in the given order. the default implementation reads them in the given order.
+   * @return the serialized nodes, at the same index as their ids; `null` for ids that don't have an entry
+   */
+  default byte[][] getAll(long[] ids) {
+    final byte[][] serializedNodes = new byte[ids.length][];
+    for (int i = 0; i < ids.length; i++) {
+      serializedNodes[i] = get(ids[i]);
+    }
+    return serializedNodes;
+  }
+
+  void remove(long id);
+
+  /** iterate over all entries - the order is implementation specific */
+  Iterator<Map.Entry<Long, byte[]>> scan();
+
+  /**
+   * split all entries into disjoint partitions of roughly equal size, which can be iterated concurrently.
+   * the default implementation returns a single partition.
+   */
+  default List<Iterator<Map.Entry<Long, byte[]>>> scanPartitioned(int partitionCount) {
+    return Collections.singletonList(scan());
+  }
+
+  int size();
+
+  /**
+   * node id -> label id for all entries, split into disjoint partitions which can be iterated concurrently.
+   * doesn't read the serialized nodes.
+   */
+  List<Iterator<Map.Entry<Long, Integer>>> scanLabelIdsPartitioned(int partitionCount);
+
+  /** number of entries with a label id - may be smaller than `size` for storage written by an older version */
+  int labelIdCount();
+
+  void putSymbol(String symbol, int id);
+
+  /** @return all symbols persisted via `putSymbol` */
+  Map<String, Integer> allSymbols();
+
+  /** ensure all writes so far are handed over to the underlying file */
+  void flush();
+
+  File getLocation();
+
+  @Override
+  void close();
+
+  interface Factory {
+    /**
+     * @param location where to store the data. May or may not exist yet, and won't be deleted at the end.
+     *                 If empty, a temporary location is used and deleted on exit.
+     */
+    StorageBackend create(Optional<File> location);
+  }
+}
@@ -0,0 +1,64 @@
+package io.shiftleft.overflowdb.storage;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps node labels and property keys to small ints, so that they can be stored compactly.
+ * New symbols are persisted in the {@link StorageBackend} right away, and the existing ones are loaded lazily
+ * on first access - ids are stable for the lifetime of the storage.
+ */
+public class SymbolTable {
+  private final StorageBackend backend;
+  private final Map<String, Integer> idBySymbol = new ConcurrentHashMap<>();
+  private volatile String[] symbolById;
+
+  public SymbolTable(StorageBackend backend) {
+    this.backend = backend;
+  }
+
+  public int idFor(String symbol) {
+    Integer id = loaded().get(symbol);
+    return id != null ? id : create(symbol);
+  }
+
+  /** @return the symbol for the given id, or `null` if there is none */
+  public String symbolFor(int id) {
+    loaded();
+    final String[] symbols = symbolById;
+    return id >= 0 && id < symbols.length ? symbols[id] : null;
+  }
+
+  public int size() {
+    return loaded().size();
+  }
+
+  private synchronized int create(String symbol) {
+    Integer existing = idBySymbol.get(symbol);
+    if (existing != null) return existing;
+
+    final int id = idBySymbol.size();
+    backend.putSymbol(symbol, id);
+    final String[] symbols = Arrays.copyOf(symbolById, id + 1);
+    symbols[id] = symbol;
+    symbolById = symbols;
+    idBySymbol.put(symbol, id);
+    return id;
+  }
+
+  private Map<String, Integer> loaded() {
+    if (symbolById == null) {
+      synchronized (this) {
+        if (symbolById == null) {
+          final Map<String, Integer> persisted = backend.allSymbols();
+          final String[] symbols = new String[persisted.size()];
+          persisted.forEach((symbol, id) -> symbols[id] = symbol);
+          idBySymbol.putAll(persisted);
+          symbolById = symbols;
+        }
+      }
+    }
+    return idBySymbol;
+  }
+}
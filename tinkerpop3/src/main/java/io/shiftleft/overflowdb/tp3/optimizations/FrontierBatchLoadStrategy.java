@@ -0,0 +1,78 @@
+package io.shiftleft.overflowdb.tp3.optimizations;
+
+import org.apache.tinkerpop.gremlin.process.traversal.Traversal;
+import org.apache.tinkerpop.gremlin.process.traversal.TraversalStrategy;
+import org.apache.tinkerpop.gremlin.process.traversal.step.map.NoOpBarrierStep;
+import org.apache.tinkerpop.gremlin.process.traversal.strategy.AbstractTraversalStrategy;
+import org.apache.tinkerpop.gremlin.process.traversal.util.TraversalHelper;
+
+import java.lang.reflect.Field;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Replaces {@link NoOpBarrierStep}s (e.g. inserted by `LazyBarrierStrategy`) with {@link OdbBatchLoadBarrierStep}s,
+ * which read all nodes in the barrier that have been cleared from memory in one sorted, parallel batch - rather than
+ * faulting them in one at a time when the next step processes them.
+ *
+ * example: <pre>
+ * g.V().out().out().out()   // LazyBarrierStrategy adds barriers between the `out` steps, which are replaced
+ * </pre>
+ */
+public final class FrontierBatchLoadStrategy extends AbstractTraversalStrategy<TraversalStrategy.ProviderOptimizationStrategy> implements TraversalStrategy.ProviderOptimizationStrategy {
+
+  private static final FrontierBatchLoadStrategy INSTANCE = new FrontierBatchLoadStrategy();
+  /* NoOpBarrierStep doesn't expose its size */
+  private static final Field MAX_BARRIER_SIZE_FIELD = maxBarrierSizeField();
+
+  private FrontierBatchLoadStrategy() {
+  }
+
+  @Override
+  public void apply(final Traversal.Admin<?, ?> traversal) {
+    if (TraversalHelper.onGraphComputer(traversal) || MAX_BARRIER_SIZE_FIELD == null)
+      return;
+
+    for (final NoOpBarrierStep<?> barrierStep : TraversalHelper.getStepsOfClass(NoOpBarrierStep.class, traversal)) {
+      replaceStep(barrierStep, traversal);
+    }
+  }
+
+  private static <S> void replaceStep(final NoOpBarrierStep<S> barrierStep, final Traversal.Admin<?, ?> traversal) {
+    final OdbBatchLoadBarrierStep<S> batchLoadStep = new OdbBatchLoadBarrierStep<>(traversal, maxBarrierSize(barrierStep));
+    TraversalHelper.replaceStep(barrierStep, batchLoadStep, traversal);
+    TraversalHelper.copyLabels(barrierStep, batchLoadStep, false);
+  }
+
+  /* CountStrategy and OdbGraphStepStrategy look for NoOpBarrierSteps */
+  @Override
+  public Set<Class<? extends ProviderOptimizationStrategy>> applyPrior() {
+    final Set<Class<? extends ProviderOptimizationStrategy>> prior = new HashSet<>();
+    prior.add(CountStrategy.class);
+    prior.add(OdbGraphStepStrategy.class);
+    return prior;
+  }
+
+  private static int maxBarrierSize(NoOpBarrierStep<?> barrierStep) {
+    try {
+      return MAX_BARRIER_SIZE_FIELD.getInt(barrierStep);
+    } catch (IllegalAccessException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /** @return `null` if unavailable, e.g. in a different TinkerPop version - then this strategy doesn't do anything */
+  private static Field maxBarrierSizeField() {
+    try {
+      final Field field = NoOpBarrierStep.class.getDeclaredField("maxBarrierSize");
+      field.setAccessible(true);
+      return field;
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      return null;
+    }
+  }
+
+  public static FrontierBatchLoadStrategy instance() {
+    return INSTANCE;
+  }
+}
@@ -0,0 +1,122 @@
+package io.shiftleft.overflowdb.tp3.optimizations;
+
+import io.shiftleft.overflowdb.NodeRef;
+import io.shiftleft.overflowdb.OdbGraph;
+import org.apache.tinkerpop.gremlin.process.traversal.Traversal;
+import org.apache.tinkerpop.gremlin.process.traversal.Traverser;
+import org.apache.tinkerpop.gremlin.process.traversal.step.LocalBarrier;
+import org.apache.tinkerpop.gremlin.process.traversal.step.util.AbstractStep;
+import org.apache.tinkerpop.gremlin.process.traversal.traverser.TraverserRequirement;
+import org.apache.tinkerpop.gremlin.process.traversal.traverser.util.TraverserSet;
+import org.apache.tinkerpop.gremlin.process.traversal.util.FastNoSuchElementException;
+import org.apache.tinkerpop.gremlin.structure.Graph;
+import org.apache.tinkerpop.gremlin.structure.util.StringFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Same as {@link org.apache.tinkerpop.gremlin.process.traversal.step.map.NoOpBarrierStep} (which is final), but
+ * once the barrier is filled, all nodes in it that have been cleared from memory are read back in one batch,
+ * see `OdbGraph.loadNodes`.
+ */
+public final class OdbBatchLoadBarrierStep<S> extends AbstractStep<S, S> implements LocalBarrier<S> {
+  private final int maxBarrierSize;
+  private TraverserSet<S> barrier = new TraverserSet<>();
+
+  public OdbBatchLoadBarrierStep(final Traversal.Admin traversal, final int maxBarrierSize) {
+    super(traversal);
+    this.maxBarrierSize = maxBarrierSize;
+  }
+
+  @Override
+  protected Traverser.Admin<S> processNextStart() throws NoSuchElementException {
+    if (this.barrier.isEmpty())
+      this.processAllStarts();
+    return this.barrier.remove();
+  }
+
+  @Override
+  public Set<TraverserRequirement> getRequirements() {
+    return Collections.singleton(TraverserRequirement.BULK);
+  }
+
+  @Override
+  public void processAllStarts() {
+    boolean added = false;
+    while (this.starts.hasNext() && (this.maxBarrierSize == Integer.MAX_VALUE || this.barrier.size() < this.maxBarrierSize)) {
+      final Traverser.Admin<S> traverser = this.starts.next();
+      traverser.setStepId(this.getNextStep().getId()); // when barrier is reloaded, the traversers should be at the next step
+      this.barrier.add(traverser);
+      added = true;
+    }
+    if (added) loadClearedNodes();
+  }
+
+  private void loadClearedNodes() {
+    final Optional<Graph> graph = this.getTraversal().getGraph();
+    if (!graph.isPresent() || !(graph.get() instanceof OdbGraph)) return;
+
+    final List<NodeRef> clearedRefs = new ArrayList<>();
+    for (Traverser.Admin<S> traverser : this.barrier) {
+      final Object element = traverser.get();
+      if (element instanceof NodeRef && ((NodeRef) element).isCleared()) {
+        clearedRefs.add((NodeRef) element);
+      }
+    }
+    /* a single node gets faulted in just as fast by the next step */
+    if (clearedRefs.size() > 1) {
+      ((OdbGraph) graph.get()).loadNodes(clearedRefs);
+    }
+  }
+
+  @Override
+  public boolean hasNextBarrier() {
+    this.processAllStarts();
+    return !this.barrier.isEmpty();
+  }
+
+  @Override
+  public TraverserSet<S> nextBarrier() throws NoSuchElementException {
+    this.processAllStarts();
+    if (this.barrier.isEmpty())
+      throw FastNoSuchElementException.instance();
+    else {
+      final TraverserSet<S> temp = this.barrier;
+      this.barrier = new TraverserSet<>();
+      return temp;
+    }
+  }
+
+  @Override
+  public void addBarrier(final TraverserSet<S> barrier) {
+    this.barrier.addAll(barrier);
+  }
+
+  @Override
+  public OdbBatchLoadBarrierStep<S> clone() {
+    final OdbBatchLoadBarrierStep<S> clone = (OdbBatchLoadBarrierStep<S>) super.clone();
+    clone.barrier = new TraverserSet<>();
+    return clone;
+  }
+
+  @Override
+  public String toString() {
+    return StringFactory.stepString(this, this.maxBarrierSize == Integer.MAX_VALUE ? null : this.maxBarrierSize);
+  }
+
+  @Override
+  public int hashCode() {
+    return super.hashCode() ^ this.maxBarrierSize;
+  }
+
+  @Override
+  public void reset() {
+    super.reset();
+    this.barrier.clear();
+  }
+}
@@ -0,0 +1,41 @@
+package io.shiftleft.overflowdb;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BackpressureTest {
+
+  @Test
+  public void pressureIsProportionalToHeadroomInUse() {
+    Backpressure backpressure = new Backpressure(80);
+    backpressure.onHeapUsage(0.7f);
+    assertEquals(0.0, backpressure.getPressure(), 0.001);
+    backpressure.onHeapUsage(0.9f);
+    assertEquals(0.5, backpressure.getPressure(), 0.001);
+    assertFalse(backpressure.isCritical());
+    backpressure.onHeapUsage(0.99f);
+    assertTrue(backpressure.isCritical());
+  }
+
+  @Test
+  public void throttlesToReducedRate() throws InterruptedException {
+    Backpressure backpressure = new Backpressure(80);
+    backpressure.onHeapUsage(0.5f);
+    for (int i = 0; i < 1000; i++) backpressure.acquire();
+    assertEquals(0, backpressure.getStallCount());
+
+    Thread.sleep(100);
+    // 1000 elements in ~100ms, i.e. ~10000/s - halved under pressure=0.5
+    backpressure.onHeapUsage(0.9f);
+    assertTrue(backpressure.getMeasuredRate() > 0);
+    final long start = System.nanoTime();
+    for (int i = 0; i < 2000; i++) backpressure.acquire();
+    final double seconds = (System.nanoTime() - start) / 1e9;
+    assertTrue(backpressure.getStallCount() > 0);
+    // the first 100ms worth of tokens are a burst allowance
+    assertTrue("took " + seconds + "s", seconds >= 2000 / (backpressure.getMeasuredRate() * 0.5) - 0.15);
+  }
+}
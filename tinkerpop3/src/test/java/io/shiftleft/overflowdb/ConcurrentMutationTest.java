@@ -0,0 +1,83 @@
+package io.shiftleft.overflowdb;
+
+import io.shiftleft.overflowdb.testdomains.simple.SimpleDomain;
+import io.shiftleft.overflowdb.testdomains.simple.TestEdge;
+import io.shiftleft.overflowdb.testdomains.simple.TestNode;
+import org.apache.tinkerpop.gremlin.structure.Direction;
+import org.apache.tinkerpop.gremlin.structure.T;
+import org.apache.tinkerpop.gremlin.structure.Vertex;
+import org.apache.tinkerpop.gremlin.util.iterator.IteratorUtils;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ConcurrentMutationTest {
+  private static final int THREAD_COUNT = 8;
+  private static final int NODES_PER_THREAD = 2000;
+  private static final int EDGES_PER_NODE = 5;
+  private static final int HUB_COUNT = 10;
+
+  @Test
+  public void ingestFromMultipleThreads() throws Exception {
+    try (OdbGraph graph = SimpleDomain.newGraph(OdbConfig.withoutOverflow().withConcurrentMutation(true))) {
+      assertTrue(graph.features().graph().supportsConcurrentAccess());
+      /* a few hubs that all threads add edges to, i.e. they'll be contended */
+      final List<Vertex> hubs = new ArrayList<>();
+      for (int i = 0; i < HUB_COUNT; i++) {
+        hubs.add(graph.addVertex(T.label, TestNode.LABEL, TestNode.STRING_PROPERTY, "hub"));
+      }
+
+      ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT);
+      try {
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < THREAD_COUNT; t++) {
+          final int threadIndex = t;
+          futures.add(executor.submit(() -> {
+            Random random = new Random(threadIndex);
+            Vertex previous = null;
+            for (int i = 0; i < NODES_PER_THREAD; i++) {
+              Vertex node = graph.addVertex(T.label, TestNode.LABEL, TestNode.INT_PROPERTY, i);
+              for (int e = 0; e < EDGES_PER_NODE - 1; e++) {
+                node.addEdge(TestEdge.LABEL, hubs.get(random.nextInt(HUB_COUNT)), TestEdge.LONG_PROPERTY, (long) i);
+              }
+              if (previous != null) hubs.get(random.nextInt(HUB_COUNT)).addEdge(TestEdge.LABEL, previous);
+              else node.addEdge(TestEdge.LABEL, node);
+              previous = node;
+            }
+            return null;
+          }));
+        }
+        for (Future<?> future : futures) future.get();
+      } finally {
+        executor.shutdown();
+      }
+
+      final int nodeCount = HUB_COUNT + THREAD_COUNT * NODES_PER_THREAD;
+      assertEquals(nodeCount, graph.nodeCount());
+      assertEquals(nodeCount, graph.nodeCount(TestNode.LABEL));
+      Set<Long> ids = new HashSet<>();
+      graph.vertices().forEachRemaining(v -> ids.add((Long) v.id()));
+      assertEquals(nodeCount, ids.size());
+
+      final long edgeCount = (long) THREAD_COUNT * NODES_PER_THREAD * EDGES_PER_NODE;
+      long outCount = 0;
+      long inCount = 0;
+      for (Vertex vertex : IteratorUtils.list(graph.vertices())) {
+        outCount += IteratorUtils.count(vertex.edges(Direction.OUT));
+        inCount += IteratorUtils.count(vertex.edges(Direction.IN));
+      }
+      assertEquals(edgeCount, outCount);
+      assertEquals(edgeCount, inCount);
+    }
+  }
+}
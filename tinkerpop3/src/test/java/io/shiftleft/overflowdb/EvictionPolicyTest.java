@@ -0,0 +1,129 @@
+package io.shiftleft.overflowdb;
+
+import io.shiftleft.overflowdb.testdomains.simple.SimpleDomain;
+import io.shiftleft.overflowdb.testdomains.simple.TestEdge;
+import io.shiftleft.overflowdb.testdomains.simple.TestNode;
+import org.apache.tinkerpop.gremlin.structure.T;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class EvictionPolicyTest {
+
+  @Test
+  public void clockGivesAccessedRefsASecondChance() {
+    try (OdbGraph graph = SimpleDomain.newGraph()) {
+      List<NodeRef> refs = createRefs(graph, 3);
+      EvictionPolicy policy = ClockEvictionPolicy.factory.create();
+      refs.forEach(policy::register);
+
+      refs.get(0).get(); // access
+      assertEquals(refs.get(1), policy.nextToEvict());
+      assertEquals(refs.get(2), policy.nextToEvict());
+      assertEquals(refs.get(0), policy.nextToEvict());
+      assertNull(policy.nextToEvict());
+      assertTrue(policy.isEmpty());
+    }
+  }
+
+  @Test
+  public void twoQueueIsScanResistant() {
+    try (OdbGraph graph = SimpleDomain.newGraph()) {
+      EvictionPolicy policy = TwoQueueEvictionPolicy.factory.create();
+      List<NodeRef> workingSet = createRefs(graph, 10);
+      workingSet.forEach(policy::register);
+      // evicted, and then read back in from storage soon after: they're promoted to the main queue
+      for (int i = 0; i < workingSet.size(); i++) policy.nextToEvict();
+      workingSet.forEach(policy::register);
+
+      // a scan over lots of other nodes, all of which are accessed once
+      List<NodeRef> scanned = createRefs(graph, 100);
+      for (NodeRef ref : scanned) {
+        policy.register(ref);
+        ref.get();
+      }
+
+      // the probation queue is drained first, down to its share
+      Set<NodeRef> evicted = new HashSet<>();
+      for (int i = 0; i < 90; i++) {
+        evicted.add(policy.nextToEvict());
+      }
+      assertEquals(90, evicted.size());
+      assertTrue(scanned.containsAll(evicted));
+    }
+  }
+
+  @Test
+  public void twoQueueEvictsFromMainQueueWithClock() {
+    try (OdbGraph graph = SimpleDomain.newGraph()) {
+      EvictionPolicy policy = TwoQueueEvictionPolicy.factory.create();
+      List<NodeRef> refs = createRefs(graph, 2);
+      refs.forEach(policy::register);
+      policy.nextToEvict();
+      policy.nextToEvict();
+      refs.forEach(policy::register);
+
+      refs.get(0).get(); // access
+      assertEquals(refs.get(1), policy.nextToEvict());
+      assertEquals(refs.get(0), policy.nextToEvict());
+      assertFalse(refs.get(0).testAndClearAccessed());
+    }
+  }
+
+  @Test
+  public void sizeAwareEvictsLargeNodesFirst() {
+    try (OdbGraph graph = SimpleDomain.newGraph()) {
+      List<NodeRef> refs = createRefs(graph, 3);
+      NodeRef large = refs.get(1);
+      for (NodeRef other : createRefs(graph, 100)) {
+        large.addEdge(TestEdge.LABEL, other);
+      }
+      assertTrue(large.estimatedSize() > refs.get(0).estimatedSize());
+
+      EvictionPolicy policy = SizeAwareEvictionPolicy.factory.create();
+      refs.forEach(policy::register);
+      assertEquals(large, policy.nextToEvict());
+
+      // accessed since they've been registered: both get a fresh priority, i.e. the remaining order is unchanged
+      refs.get(0).get();
+      refs.get(2).get();
+      NodeRef next = policy.nextToEvict();
+      assertTrue(next == refs.get(0) || next == refs.get(2));
+      assertEquals(1, policy.size());
+    }
+  }
+
+  @Test
+  public void refsClearedOtherwiseCanBeEvictedAgain() throws Exception {
+    for (EvictionPolicy.Factory factory : new EvictionPolicy.Factory[]{
+        ClockEvictionPolicy.factory, TwoQueueEvictionPolicy.factory, SizeAwareEvictionPolicy.factory}) {
+      try (OdbGraph graph = SimpleDomain.newGraph(OdbConfig.withDefaults().withEvictionPolicy(factory))) {
+        NodeRef ref = (NodeRef) graph.addVertex(T.label, TestNode.LABEL, TestNode.INT_PROPERTY, 1);
+        // cleared while it's still registered, i.e. the policy comes across a cleared ref and drops it
+        ref.clear();
+        graph.referenceManager.clearReferencesBlocking(10);
+
+        // read back in: registered again, and can be evicted
+        assertEquals(1, (int) ref.value(TestNode.INT_PROPERTY));
+        graph.referenceManager.clearReferencesBlocking(10);
+        assertTrue(factory.toString(), ref.isCleared());
+      }
+    }
+  }
+
+  private List<NodeRef> createRefs(OdbGraph graph, int count) {
+    List<NodeRef> refs = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      refs.add((NodeRef) graph.addVertex(T.label, TestNode.LABEL));
+    }
+    return refs;
+  }
+}
@@ -0,0 +1,119 @@
+package io.shiftleft.overflowdb;
+
+import io.shiftleft.overflowdb.testdomains.simple.SimpleDomain;
+import io.shiftleft.overflowdb.testdomains.simple.TestEdge;
+import io.shiftleft.overflowdb.testdomains.simple.TestNode;
+import org.apache.tinkerpop.gremlin.structure.Direction;
+import org.apache.tinkerpop.gremlin.structure.Edge;
+import org.apache.tinkerpop.gremlin.structure.T;
+import org.apache.tinkerpop.gremlin.structure.Vertex;
+import org.apache.tinkerpop.gremlin.util.iterator.IteratorUtils;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FreezeTest {
+
+  @Test
+  public void compactsAdjacencyAndKeepsEdges() {
+    try (OdbGraph graph = SimpleDomain.newGraph(OdbConfig.withoutOverflow())) {
+      NodeRef hub = (NodeRef) graph.addVertex(T.label, TestNode.LABEL, TestNode.STRING_PROPERTY, "hub");
+      for (int i = 0; i < 10; i++) {
+        Vertex other = graph.addVertex(T.label, TestNode.LABEL, TestNode.INT_PROPERTY, i);
+        Edge edge = hub.addEdge(TestEdge.LABEL, other, TestEdge.LONG_PROPERTY, (long) i);
+        if (i % 2 == 0) edge.remove();
+      }
+      /* 5 edges left, with holes and growth slack in between */
+      final int strideSize = 1 + TestEdge.PROPERTY_KEYS.size();
+      assertTrue(hub.get().getAdjacentNodesWithProperties().length > 5 * strideSize);
+
+      graph.freeze();
+      assertTrue(graph.isFrozen());
+      assertEquals(5 * strideSize, hub.get().getAdjacentNodesWithProperties().length);
+
+      List<Long> values = IteratorUtils.stream(((Vertex) hub).edges(Direction.OUT, TestEdge.LABEL))
+          .map(edge -> (Long) edge.value(TestEdge.LONG_PROPERTY))
+          .collect(Collectors.toList());
+      assertEquals(5, values.size());
+      assertTrue(values.containsAll(Arrays.asList(1L, 3L, 5L, 7L, 9L)));
+      // the other side of each edge still finds its properties
+      for (Vertex node : IteratorUtils.list(graph.nodesByLabel(TestNode.LABEL))) {
+        for (Edge edge : IteratorUtils.list(node.edges(Direction.IN))) {
+          assertEquals(1, (long) edge.value(TestEdge.LONG_PROPERTY) % 2);
+        }
+      }
+      assertEquals(11, graph.nodeCount(TestNode.LABEL));
+    }
+  }
+
+  @Test
+  public void compactsNodesThatAreClearedAndReadBackIn() {
+    try (OdbGraph graph = SimpleDomain.newGraph()) {
+      NodeRef inMemoryHub = newHubWithHoles(graph);
+      NodeRef clearedHub = newHubWithHoles(graph);
+      graph.referenceManager.clearAllReferences();
+      inMemoryHub.get();
+
+      graph.freeze();
+      final int strideSize = 1 + TestEdge.PROPERTY_KEYS.size();
+      assertTrue(clearedHub.isCleared());
+      assertEquals(5 * strideSize, clearedHub.get().getAdjacentNodesWithProperties().length);
+
+      for (NodeRef hub : Arrays.asList(inMemoryHub, clearedHub)) {
+        List<Edge> edges = IteratorUtils.list(((Vertex) hub).edges(Direction.OUT, TestEdge.LABEL));
+        assertEquals(5, edges.size());
+        // the compacted layout (and with it the block offsets of these edges) survives clearing and reading back in
+        graph.referenceManager.clearAllReferences();
+        assertTrue(hub.isCleared());
+        for (Edge edge : edges) {
+          assertEquals((long) (int) edge.inVertex().value(TestNode.INT_PROPERTY), (long) edge.value(TestEdge.LONG_PROPERTY));
+        }
+        assertEquals(5 * strideSize, hub.get().getAdjacentNodesWithProperties().length);
+      }
+    }
+  }
+
+  /* 5 edges, with holes and growth slack in between */
+  private static NodeRef newHubWithHoles(OdbGraph graph) {
+    NodeRef hub = (NodeRef) graph.addVertex(T.label, TestNode.LABEL, TestNode.STRING_PROPERTY, "hub");
+    for (int i = 0; i < 10; i++) {
+      Vertex other = graph.addVertex(T.label, TestNode.LABEL, TestNode.INT_PROPERTY, i);
+      Edge edge = hub.addEdge(TestEdge.LABEL, other, TestEdge.LONG_PROPERTY, (long) i);
+      if (i % 2 == 0) edge.remove();
+    }
+    return hub;
+  }
+
+  @Test
+  public void mutationsThrow() {
+    try (OdbGraph graph = SimpleDomain.newGraph(OdbConfig.withoutOverflow())) {
+      Vertex v0 = graph.addVertex(T.label, TestNode.LABEL);
+      Vertex v1 = graph.addVertex(T.label, TestNode.LABEL);
+      Edge edge = v0.addEdge(TestEdge.LABEL, v1);
+      graph.freeze();
+
+      assertThrows(() -> graph.addVertex(T.label, TestNode.LABEL));
+      assertThrows(() -> v0.addEdge(TestEdge.LABEL, v1));
+      assertThrows(() -> v0.property(TestNode.STRING_PROPERTY, "value"));
+      assertThrows(() -> edge.property(TestEdge.LONG_PROPERTY, 1L));
+      assertThrows(edge::remove);
+      assertThrows(v0::remove);
+      assertEquals(2, graph.nodeCount());
+    }
+  }
+
+  private static void assertThrows(Runnable mutation) {
+    try {
+      mutation.run();
+      fail("expected an IllegalStateException");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+  }
+}
@@ -0,0 +1,93 @@
+package io.shiftleft.overflowdb;
+
+import io.shiftleft.overflowdb.testdomains.simple.SimpleDomain;
+import io.shiftleft.overflowdb.testdomains.simple.TestNode;
+import org.apache.tinkerpop.gremlin.structure.T;
+import org.apache.tinkerpop.gremlin.structure.Vertex;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LabelNodesTest {
+
+  @Test
+  public void iteratesInIdOrderAndSkipsRemovedNodes() {
+    try (OdbGraph graph = SimpleDomain.newGraph(OdbConfig.withoutOverflow())) {
+      List<Long> ids = new ArrayList<>();
+      for (long id : new long[]{50, 10, 30, 20, 40}) {
+        graph.addVertex(T.id, id, T.label, TestNode.LABEL);
+      }
+      graph.nodesByLabel(TestNode.LABEL).forEachRemaining(ref -> ids.add(ref.id));
+      assertEquals(5, graph.nodeCount(TestNode.LABEL));
+      assertEquals(list(10, 20, 30, 40, 50), ids);
+
+      graph.vertex(30L).remove();
+      graph.vertex(10L).remove();
+      assertEquals(3, graph.nodeCount(TestNode.LABEL));
+      assertEquals(list(20, 40, 50), graph.nodesByLabelStream(TestNode.LABEL, false).map(ref -> ref.id).collect(Collectors.toList()));
+      assertEquals(0, graph.nodeCount("unknown"));
+      assertFalse(graph.nodesByLabel("unknown").hasNext());
+    }
+  }
+
+  @Test
+  public void parallelStreamSeesAllNodes() {
+    try (OdbGraph graph = SimpleDomain.newGraph(OdbConfig.withoutOverflow())) {
+      final int count = 10_000;
+      for (int i = 0; i < count; i++) {
+        Vertex v = graph.addVertex(T.label, TestNode.LABEL, TestNode.INT_PROPERTY, i);
+        if (i % 3 == 0) v.remove();
+      }
+      List<Long> ids = graph.nodesByLabelStream(TestNode.LABEL, true).map(ref -> ref.id).collect(Collectors.toList());
+      assertEquals(graph.nodeCount(TestNode.LABEL), ids.size());
+      for (int i = 1; i < ids.size(); i++) {
+        assertTrue(ids.get(i - 1) < ids.get(i));
+      }
+    }
+  }
+
+  @Test
+  public void iteratorsWorkOnASnapshot() {
+    try (OdbGraph graph = SimpleDomain.newGraph(OdbConfig.withoutOverflow())) {
+      for (int i = 0; i < 100; i++) {
+        graph.addVertex(T.id, (long) i, T.label, TestNode.LABEL);
+      }
+      // remove the current node and the next one, which the iterator still returns - and which is gone by then
+      List<Long> ids = new ArrayList<>();
+      graph.nodesByLabel(TestNode.LABEL).forEachRemaining(ref -> {
+        ids.add(ref.id);
+        if (ref.id % 2 == 0) {
+          ref.remove();
+          graph.vertex(ref.id + 1).remove();
+        }
+      });
+      assertEquals(100, ids.size());
+      assertEquals(0, graph.nodeCount(TestNode.LABEL));
+      assertFalse(graph.nodesByLabel(TestNode.LABEL).hasNext());
+
+      // removing all nodes while iterating doesn't affect the iteration, not even once the array is compacted
+      for (int i = 0; i < 100; i++) {
+        graph.addVertex(T.id, (long) (100 + i), T.label, TestNode.LABEL);
+      }
+      ids.clear();
+      graph.nodesByLabel(TestNode.LABEL).forEachRemaining(ref -> {
+        if (ids.isEmpty()) graph.nodesByLabelStream(TestNode.LABEL, false).collect(Collectors.toList()).forEach(Vertex::remove);
+        ids.add(ref.id);
+      });
+      assertEquals(100, ids.size());
+      assertEquals(0, graph.nodeCount(TestNode.LABEL));
+    }
+  }
+
+  private static List<Long> list(long... ids) {
+    List<Long> result = new ArrayList<>();
+    for (long id : ids) result.add(id);
+    return result;
+  }
+}
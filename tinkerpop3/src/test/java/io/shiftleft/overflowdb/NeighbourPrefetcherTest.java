@@ -0,0 +1,55 @@
+package io.shiftleft.overflowdb;
+
+import io.shiftleft.overflowdb.testdomains.simple.SimpleDomain;
+import io.shiftleft.overflowdb.testdomains.simple.TestEdge;
+import io.shiftleft.overflowdb.testdomains.simple.TestNode;
+import org.apache.tinkerpop.gremlin.structure.Direction;
+import org.apache.tinkerpop.gremlin.structure.T;
+import org.apache.tinkerpop.gremlin.structure.Vertex;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class NeighbourPrefetcherTest {
+
+  @Test
+  public void prefetchAlongMostRecentlyTraversedEdge() throws IOException, InterruptedException {
+    final File overflowDb = Files.createTempFile("overflowdb", "bin").toFile();
+    overflowDb.deleteOnExit();
+
+    // a chain of nodes: 0 -> 1 -> ... -> 9
+    try (OdbGraph graph = SimpleDomain.newGraph(OdbConfig.withoutOverflow().withStorageLocation(overflowDb.getAbsolutePath()))) {
+      Vertex previous = graph.addVertex(T.id, 0L, T.label, TestNode.LABEL);
+      for (long id = 1; id < 10; id++) {
+        Vertex next = graph.addVertex(T.id, id, T.label, TestNode.LABEL);
+        previous.addEdge(TestEdge.LABEL, next);
+        previous = next;
+      }
+    }
+
+    OdbConfig config = OdbConfig.withoutOverflow().withStorageLocation(overflowDb.getAbsolutePath()).withNeighbourPrefetch(3, 100);
+    try (OdbGraph graph = SimpleDomain.newGraph(config)) {
+      // traverse an outgoing edge, so that the prefetcher knows which way to go
+      assertEquals(1L, graph.vertex(0L).vertices(Direction.OUT, TestEdge.LABEL).next().id());
+
+      // faulting in node 5 should prefetch the next three nodes
+      NodeRef node5 = (NodeRef) graph.vertex(5L);
+      assertTrue(node5.isCleared());
+      node5.get();
+      NodeRef node8 = (NodeRef) graph.vertex(8L);
+      for (int i = 0; i < 100 && node8.isCleared(); i++) {
+        Thread.sleep(50);
+      }
+      assertTrue(((NodeRef) graph.vertex(6L)).isSet());
+      assertTrue(((NodeRef) graph.vertex(7L)).isSet());
+      assertTrue(node8.isSet());
+      assertTrue(((NodeRef) graph.vertex(9L)).isCleared());
+      assertTrue(graph.prefetcher.get().getPrefetchedCount() >= 3);
+    }
+  }
+}
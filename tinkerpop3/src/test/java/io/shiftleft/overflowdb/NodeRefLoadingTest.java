@@ -0,0 +1,161 @@
+package io.shiftleft.overflowdb;
+
+import io.shiftleft.overflowdb.storage.SegmentLogBackend;
+import io.shiftleft.overflowdb.testdomains.simple.SimpleDomain;
+import io.shiftleft.overflowdb.testdomains.simple.TestNode;
+import io.shiftleft.overflowdb.testdomains.simple.TestNodeDb;
+import org.apache.tinkerpop.gremlin.structure.T;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class NodeRefLoadingTest {
+  private static final int THREAD_COUNT = 8;
+
+  @Test
+  public void concurrentReadersShareOneLoad() throws Exception {
+    try (OdbGraph graph = SimpleDomain.newGraph()) {
+      final NodeRef<?> ref = (NodeRef) graph.addVertex(T.label, TestNode.LABEL, TestNode.STRING_PROPERTY, "v0");
+      final ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT);
+      try {
+        for (int round = 0; round < 50; round++) {
+          graph.referenceManager.clearAllReferences();
+          assertEquals(NodeRef.CLEARED, ref.getState());
+
+          final CountDownLatch start = new CountDownLatch(1);
+          final List<Future<OdbNode>> futures = new ArrayList<>();
+          for (int i = 0; i < THREAD_COUNT; i++) {
+            futures.add(executor.submit(() -> {
+              start.await();
+              return ref.get();
+            }));
+          }
+          start.countDown();
+          final Set<OdbNode> instances = Collections.newSetFromMap(new IdentityHashMap<>());
+          for (Future<OdbNode> future : futures) instances.add(future.get());
+          assertEquals(1, instances.size());
+          assertEquals(NodeRef.LOADED, ref.getState());
+        }
+      } finally {
+        executor.shutdown();
+      }
+    }
+  }
+
+  @Test
+  public void deserializingDoesNotPublishTheNode() throws Exception {
+    try (OdbGraph graph = SimpleDomain.newGraph()) {
+      final NodeRef<?> ref = (NodeRef) graph.addVertex(T.label, TestNode.LABEL, TestNode.STRING_PROPERTY, "v0");
+      graph.referenceManager.clearAllReferences();
+
+      // only `NodeRef.load` may set it, once it's completely deserialized
+      final OdbNode deserialized = graph.storage.readNode(ref.id);
+      assertEquals(NodeRef.CLEARED, ref.getState());
+      assertNull(ref.getIfLoaded());
+
+      assertEquals("v0", ref.value(TestNode.STRING_PROPERTY));
+      assertEquals(NodeRef.LOADED, ref.getState());
+      assertNotSame(deserialized, ref.getIfLoaded());
+    }
+  }
+
+  @Test
+  public void batchLoadReadsClearedNodes() {
+    for (OdbConfig config : new OdbConfig[]{
+        OdbConfig.withDefaults(),
+        OdbConfig.withDefaults().withStorageBackend(SegmentLogBackend.factory).withOffHeapCache(1024 * 1024)}) {
+      try (OdbGraph graph = SimpleDomain.newGraph(config.withBatchLoadThreadCount(4))) {
+        final List<NodeRef> refs = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+          refs.add((NodeRef) graph.addVertex(T.label, TestNode.LABEL, TestNode.INT_PROPERTY, i));
+        }
+        graph.referenceManager.clearAllReferences();
+        refs.get(7).get();
+
+        final List<NodeRef> toLoad = new ArrayList<>(refs);
+        toLoad.add(refs.get(42));
+        assertEquals(refs.size() - 1, graph.loadNodes(toLoad));
+        for (int i = 0; i < refs.size(); i++) {
+          assertEquals(NodeRef.LOADED, refs.get(i).getState());
+          assertEquals(i, (int) refs.get(i).value(TestNode.INT_PROPERTY));
+        }
+        assertEquals(0, graph.loadNodes(toLoad));
+      }
+    }
+  }
+
+  @Test
+  public void setNodeOnlyPublishesNewNodes() {
+    try (OdbGraph graph = SimpleDomain.newGraph()) {
+      final NodeRef<TestNodeDb> ref = (TestNode) graph.addVertex(T.label, TestNode.LABEL, TestNode.STRING_PROPERTY, "v0");
+      final TestNodeDb node = ref.get();
+      assertEquals(NodeRef.LOADED, ref.getState());
+      try {
+        ref.setNode(TestNode.factory.createNode(ref));
+        fail("expected an IllegalStateException");
+      } catch (IllegalStateException e) {
+        // expected
+      }
+      assertSame(node, ref.get());
+      assertEquals(NodeRef.LOADED, ref.getState());
+
+      final NodeRef<TestNodeDb> newRef = new TestNode(graph, 1000);
+      final TestNodeDb newNode = TestNode.factory.createNode(newRef);
+      assertTrue(newRef.isCleared());
+      newRef.setNode(newNode);
+      assertSame(newNode, newRef.get());
+      assertEquals(NodeRef.LOADED, newRef.getState());
+    }
+  }
+
+  @Test
+  public void readWhileClearing() throws Exception {
+    try (OdbGraph graph = SimpleDomain.newGraph()) {
+      final List<NodeRef> refs = new ArrayList<>();
+      for (int i = 0; i < 100; i++) {
+        refs.add((NodeRef) graph.addVertex(T.label, TestNode.LABEL, TestNode.INT_PROPERTY, i));
+      }
+      final AtomicBoolean done = new AtomicBoolean(false);
+      final ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT);
+      try {
+        final List<Future<?>> readers = new ArrayList<>();
+        for (int t = 0; t < THREAD_COUNT; t++) {
+          readers.add(executor.submit(() -> {
+            while (!done.get()) {
+              for (int i = 0; i < refs.size(); i++) {
+                assertEquals(i, (int) refs.get(i).value(TestNode.INT_PROPERTY));
+              }
+            }
+            return null;
+          }));
+        }
+        for (int round = 0; round < 20; round++) {
+          graph.referenceManager.clearReferencesBlocking(refs.size());
+        }
+        done.set(true);
+        for (Future<?> reader : readers) reader.get();
+      } finally {
+        executor.shutdown();
+      }
+      for (NodeRef ref : refs) {
+        assertTrue(ref.getState() == NodeRef.LOADED || ref.getState() == NodeRef.CLEARED);
+      }
+    }
+  }
+}
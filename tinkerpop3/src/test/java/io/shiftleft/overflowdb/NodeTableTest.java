@@ -0,0 +1,92 @@
+package io.shiftleft.overflowdb;
+
+import io.shiftleft.overflowdb.testdomains.simple.SimpleDomain;
+import io.shiftleft.overflowdb.testdomains.simple.TestNode;
+import org.apache.tinkerpop.gremlin.structure.T;
+import org.apache.tinkerpop.gremlin.structure.Vertex;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class NodeTableTest {
+
+  @Test
+  public void pagedTableStoresDenseAndSparseIds() {
+    try (OdbGraph graph = SimpleDomain.newGraph(OdbConfig.withoutOverflow().withNodeTable(PagedNodeTable.factory))) {
+      final long farAway = 1000L * PagedNodeTable.PAGE_SIZE;
+      Vertex v0 = graph.addVertex(T.label, TestNode.LABEL);
+      Vertex v1 = graph.addVertex(T.id, 3L * PagedNodeTable.PAGE_SIZE + 5, T.label, TestNode.LABEL);
+      Vertex v2 = graph.addVertex(T.id, farAway, T.label, TestNode.LABEL);
+      Vertex v3 = graph.addVertex(T.id, -7L, T.label, TestNode.LABEL);
+
+      PagedNodeTable table = (PagedNodeTable) graph.nodes;
+      assertEquals(4, graph.nodeCount());
+      assertEquals(2, table.sparseSize());
+      assertSame(v0, graph.vertex(0L));
+      assertSame(v1, graph.vertex(3L * PagedNodeTable.PAGE_SIZE + 5));
+      assertSame(v2, graph.vertex(farAway));
+      assertSame(v3, graph.vertex(-7L));
+      assertNull(graph.vertex(1L));
+
+      Set<Vertex> all = new HashSet<>();
+      graph.vertices().forEachRemaining(all::add);
+      assertEquals(4, all.size());
+      assertEquals(4, table.stream(true).count());
+
+      v1.remove();
+      v2.remove();
+      assertEquals(2, graph.nodeCount());
+      assertFalse(table.contains(farAway));
+      assertNull(graph.vertex(3L * PagedNodeTable.PAGE_SIZE + 5));
+    }
+  }
+
+  @Test
+  public void pagedTableGrowsWithGeneratedIds() {
+    NodeTable table = PagedNodeTable.factory.create(0);
+    try (OdbGraph graph = SimpleDomain.newGraph(OdbConfig.withoutOverflow().withNodeTable(PagedNodeTable.factory))) {
+      final int count = 3 * PagedNodeTable.PAGE_SIZE;
+      for (int i = 0; i < count; i++) {
+        graph.addVertex(T.label, TestNode.LABEL);
+      }
+      assertEquals(count, graph.nodeCount());
+      assertEquals(0, ((PagedNodeTable) graph.nodes).sparseSize());
+      graph.nodes.forEach(table::put);
+    }
+    assertEquals(3 * PagedNodeTable.PAGE_SIZE, table.size());
+    assertTrue(table.contains(3 * PagedNodeTable.PAGE_SIZE - 1));
+  }
+
+  @Test
+  public void pagedTableReplacesSparseEntryOnceItsPageIsCovered() {
+    try (OdbGraph graph = SimpleDomain.newGraph(OdbConfig.withoutOverflow())) {
+      PagedNodeTable table = (PagedNodeTable) PagedNodeTable.factory.create(0);
+      final long id = 18L * PagedNodeTable.PAGE_SIZE;
+      table.put(new TestNode(graph, id));
+      assertEquals(1, table.sparseSize());
+
+      // grows the directory, so that `id` is dense from now on
+      table.put(new TestNode(graph, 16L * PagedNodeTable.PAGE_SIZE));
+      final NodeRef replacement = new TestNode(graph, id);
+      table.put(replacement);
+      assertEquals(0, table.sparseSize());
+      assertEquals(2, table.size());
+      assertSame(replacement, table.get(id));
+      final Set<NodeRef> refs = new HashSet<>();
+      table.iterator().forEachRemaining(refs::add);
+      table.forEach(ref -> assertTrue(refs.contains(ref)));
+      assertEquals(2, refs.size());
+
+      assertSame(replacement, table.remove(id));
+      assertNull(table.get(id));
+      assertEquals(1, table.size());
+    }
+  }
+}
@@ -298,6 +298,56 @@ public class OdbNodeTest {
     }
   }
 
+  @Test
+  public void readClearedNodesFromOffHeapCache() {
+    try (OdbGraph graph = SimpleDomain.newGraph(OdbConfig.withoutOverflow().withOffHeapCache(1024 * 1024))) {
+      NodeRef v0 = (NodeRef) graph.addVertex(T.label, TestNode.LABEL, TestNode.STRING_PROPERTY, "v0");
+      graph.referenceManager.clearAllReferences();
+      assertTrue(v0.isCleared());
+
+      assertEquals("v0", v0.value(TestNode.STRING_PROPERTY));
+      assertEquals(1, graph.storage.getOffHeapCache().get().getHitCount());
+      assertEquals(0, graph.storage.getOffHeapCache().get().getMissCount());
+    }
+  }
+
+  @Test
+  public void shouldTrackModificationsSinceLastSerialization() {
+    try (OdbGraph graph = SimpleDomain.newGraph()) {
+      TestNode v0 = (TestNode) graph.addVertex(T.label, TestNode.LABEL, TestNode.STRING_PROPERTY, "v0");
+      TestNode v1 = (TestNode) graph.addVertex(T.label, TestNode.LABEL, TestNode.STRING_PROPERTY, "v1");
+      assertTrue(v0.get().isModifiedSinceLastSerialization());
+
+      // round trip serialization: freshly deserialized nodes are unchanged
+      graph.referenceManager.clearAllReferences();
+      assertFalse(v0.get().isModifiedSinceLastSerialization());
+      assertFalse(v1.get().isModifiedSinceLastSerialization());
+
+      v0.property(TestNode.INT_PROPERTY, 42);
+      assertTrue(v0.get().isModifiedSinceLastSerialization());
+      assertFalse(v1.get().isModifiedSinceLastSerialization());
+
+      Edge edge = v0.addEdge(TestEdge.LABEL, v1);
+      assertTrue(v1.get().isModifiedSinceLastSerialization());
+
+      graph.referenceManager.clearAllReferences();
+      edge.property(TestEdge.LONG_PROPERTY, 99l);
+      assertTrue(v0.get().isModifiedSinceLastSerialization());
+      assertTrue(v1.get().isModifiedSinceLastSerialization());
+
+      graph.referenceManager.clearAllReferences();
+      __(v0).outE().drop().iterate();
+      assertTrue(v0.get().isModifiedSinceLastSerialization());
+      assertTrue(v1.get().isModifiedSinceLastSerialization());
+
+      // all modifications must have survived the round trips
+      graph.referenceManager.clearAllReferences();
+      assertEquals(Integer.valueOf(42), v0.intProperty());
+      assertFalse(v0.edges(Direction.OUT).hasNext());
+      assertFalse(v1.edges(Direction.IN).hasNext());
+    }
+  }
+
   @Test
   public void removeNodeSimple() {
     try (OdbGraph graph = SimpleDomain.newGraph()) {
@@ -0,0 +1,99 @@
+package io.shiftleft.overflowdb;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class OverflowControllerTest {
+  private static final long MB = 1024 * 1024;
+  private static final long MAX = 1000 * MB;
+
+  @Test
+  public void releasesBetweenHighAndLowWatermark() {
+    OverflowController controller = new OverflowController(80, 60);
+    assertEquals(0, controller.onHeapUsage(700 * MB, MAX, false));
+    assertFalse(controller.isReleasing());
+
+    assertTrue(controller.onHeapUsage(850 * MB, MAX, false) > 0);
+    assertTrue(controller.isReleasing());
+    // still running: no new round
+    assertEquals(0, controller.onHeapUsage(820 * MB, MAX, true));
+    controller.onReleaseCompleted(100000, 0);
+
+    // below the high watermark, but still above the low one: continue
+    assertTrue(controller.onHeapUsage(700 * MB, MAX, false) > 0);
+    controller.onReleaseCompleted(100000, 0);
+    assertEquals(0, controller.onHeapUsage(550 * MB, MAX, false));
+    assertFalse(controller.isReleasing());
+  }
+
+  @Test
+  public void sizesReleaseFromObservedBytesPerNode() {
+    OverflowController controller = new OverflowController(80, 60);
+    int initialCount = controller.onHeapUsage(900 * MB, MAX, false);
+    assertEquals((int) Math.ceil(300d * MB / OverflowController.INITIAL_BYTES_PER_NODE), initialCount);
+
+    // clearing 10000 nodes freed 200MB, i.e. they're a lot bigger than estimated
+    controller.onReleaseCompleted(10000, 0);
+    int nextCount = controller.onHeapUsage(700 * MB, MAX, false);
+    assertEquals(1, controller.getMeasurementCount());
+    assertEquals(200d * MB / 10000, controller.getEstimatedBytesPerNode(), 0.001);
+    assertEquals(5000, nextCount); // the remaining 100MB
+  }
+
+  @Test
+  public void calibratesSizeEstimates() {
+    OverflowController controller = new OverflowController(80, 60);
+    controller.onHeapUsage(900 * MB, MAX, false);
+    assertTrue(controller.isReleaseTargetReached(300 * MB));
+    assertFalse(controller.isReleaseTargetReached(299 * MB));
+
+    // the estimated sizes of the cleared nodes only add up to half of what's actually been freed
+    controller.onReleaseCompleted(10000, 100 * MB);
+    controller.onHeapUsage(700 * MB, MAX, false);
+    assertEquals(2.0, controller.getSizeEstimateRatio(), 0.001);
+    assertEquals(100d * MB, controller.getLastReleaseTargetBytes(), 1024);
+    assertTrue(controller.isReleaseTargetReached(50 * MB));
+    assertFalse(controller.isReleaseTargetReached(49 * MB));
+  }
+
+  @Test
+  public void expectedUsageTriggersReleaseToHighWatermark() {
+    OverflowController controller = new OverflowController(80, 60);
+    assertEquals(0, controller.onExpectedHeapUsage(750 * MB, MAX, false));
+    assertEquals(0, controller.onExpectedHeapUsage(900 * MB, MAX, true));
+
+    int count = controller.onExpectedHeapUsage(900 * MB, MAX, false);
+    assertEquals((int) Math.ceil(100d * MB / OverflowController.INITIAL_BYTES_PER_NODE), count, 1);
+    assertTrue(controller.isReleasing());
+
+    // can't tell how much of the expected usage was garbage, so this round doesn't count as a measurement
+    controller.onReleaseCompleted(count, 0);
+    assertTrue(controller.onHeapUsage(700 * MB, MAX, false) > 0);
+    assertEquals(0, controller.getMeasurementCount());
+  }
+
+  @Test
+  public void expectedUsageDoesNotRetriggerUntilGcOrGrowth() {
+    OverflowController controller = new OverflowController(80, 60);
+    int count = controller.onExpectedHeapUsage(900 * MB, MAX, false);
+    assertTrue(count > 0);
+    controller.onReleaseCompleted(count, 0);
+
+    // same usage again, e.g. because it's mostly garbage that no GC has collected yet
+    assertEquals(0, controller.onExpectedHeapUsage(900 * MB, MAX, false));
+    assertTrue(controller.onExpectedHeapUsage(910 * MB, MAX, false) > 0);
+    assertEquals(0, controller.onExpectedHeapUsage(910 * MB, MAX, false));
+
+    // the GC reports the actual usage, which is below the low watermark
+    controller.onHeapUsage(500 * MB, MAX, false);
+    assertTrue(controller.onExpectedHeapUsage(900 * MB, MAX, false) > 0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsLowWatermarkAboveHighWatermark() {
+    new OverflowController(60, 80);
+  }
+}
@@ -0,0 +1,68 @@
+package io.shiftleft.overflowdb;
+
+import io.shiftleft.overflowdb.testdomains.simple.SimpleDomain;
+import io.shiftleft.overflowdb.testdomains.simple.TestNode;
+import org.apache.tinkerpop.gremlin.structure.T;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PinningTest {
+
+  @Test
+  public void pinnedNodesAreNotCleared() {
+    try (OdbGraph graph = SimpleDomain.newGraph()) {
+      NodeRef v0 = (NodeRef) graph.addVertex(T.label, TestNode.LABEL, TestNode.STRING_PROPERTY, "v0");
+      NodeRef v1 = (NodeRef) graph.addVertex(T.label, TestNode.LABEL, TestNode.STRING_PROPERTY, "v1");
+
+      assertEquals(1, graph.pin(v0.id));
+      assertEquals(0, graph.pin(v0.id));
+      assertEquals(1, graph.overflowController().getPinnedNodeCount());
+      graph.referenceManager.clearReferencesBlocking(10);
+      assertTrue(v0.isSet());
+      assertTrue(v1.isCleared());
+
+      assertEquals(1, graph.unpin(v0.id));
+      assertEquals(0, graph.overflowController().getPinnedNodeCount());
+      graph.referenceManager.clearReferencesBlocking(10);
+      assertTrue(v0.isCleared());
+      assertEquals("v0", v0.value(TestNode.STRING_PROPERTY));
+    }
+  }
+
+  @Test
+  public void pinByLabelReadsNodesFromStorage() {
+    try (OdbGraph graph = SimpleDomain.newGraph()) {
+      NodeRef v0 = (NodeRef) graph.addVertex(T.label, TestNode.LABEL);
+      graph.referenceManager.clearAllReferences();
+      assertTrue(v0.isCleared());
+
+      assertEquals(1, graph.pin(TestNode.LABEL));
+      assertTrue(v0.isSet());
+      // new nodes with a pinned label are pinned as well
+      NodeRef v1 = (NodeRef) graph.addVertex(T.label, TestNode.LABEL);
+      assertTrue(v1.isPinned());
+
+      assertEquals(2, graph.unpin(TestNode.LABEL));
+      NodeRef v2 = (NodeRef) graph.addVertex(T.label, TestNode.LABEL);
+      assertFalse(v2.isPinned());
+    }
+  }
+
+  @Test
+  public void pinByPredicateAndConfiguredLabels() {
+    try (OdbGraph graph = SimpleDomain.newGraph(OdbConfig.withoutOverflow().withPinnedLabels(TestNode.LABEL))) {
+      NodeRef v0 = (NodeRef) graph.addVertex(T.label, TestNode.LABEL, TestNode.INT_PROPERTY, 1);
+      NodeRef v1 = (NodeRef) graph.addVertex(T.label, TestNode.LABEL, TestNode.INT_PROPERTY, 2);
+      assertTrue(v0.isPinned());
+
+      assertEquals(1, graph.unpin(node -> node.<Integer>value(TestNode.INT_PROPERTY) == 2));
+      assertTrue(v0.isPinned());
+      assertFalse(v1.isPinned());
+      assertEquals(1, graph.pin(node -> node.<Integer>value(TestNode.INT_PROPERTY) == 2));
+      assertTrue(v1.isPinned());
+    }
+  }
+}
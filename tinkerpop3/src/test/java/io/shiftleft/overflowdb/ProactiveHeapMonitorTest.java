@@ -0,0 +1,107 @@
+package io.shiftleft.overflowdb;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ProactiveHeapMonitorTest {
+
+  @Test
+  public void reportsExpectedTenuredUsage() {
+    final List<long[]> expected = new ArrayList<>();
+    HeapUsageMonitor.HeapNotificationListener listener = new HeapUsageMonitor.HeapNotificationListener() {
+      @Override
+      public void notifyHeapUsage(long usedBytes, long maxBytes) {}
+
+      @Override
+      public synchronized void notifyHeapUsageExpected(long usedBytes, long maxBytes) {
+        expected.add(new long[]{usedBytes, maxBytes});
+      }
+    };
+
+    try (ProactiveHeapMonitor monitor = new ProactiveHeapMonitor(80, 60_000, listener)) {
+      monitor.sample();
+      monitor.sample();
+      synchronized (listener) {
+        assertFalse(expected.isEmpty());
+        for (long[] usage : expected) {
+          assertTrue(usage[0] >= 0);
+          assertTrue(usage[0] <= usage[1]);
+        }
+      }
+      assertTrue(monitor.getGrowthRate() >= 0);
+    }
+  }
+
+  @Test
+  public void constantUsageAboveWatermarkSchedulesOneRound() {
+    final long max = 1000L * 1024 * 1024;
+    final long used = max * 9 / 10;
+    final OverflowController controller = new OverflowController(80, 60);
+    final AtomicInteger rounds = new AtomicInteger(0);
+    HeapUsageMonitor.HeapNotificationListener listener = new HeapUsageMonitor.HeapNotificationListener() {
+      @Override
+      public void notifyHeapUsage(long usedBytes, long maxBytes) {}
+
+      /* like the ReferenceManager, minus the actual clearing */
+      @Override
+      public void notifyHeapUsageExpected(long usedBytes, long maxBytes) {
+        final int releaseCount = controller.onExpectedHeapUsage(usedBytes, maxBytes, false);
+        if (releaseCount > 0) {
+          rounds.incrementAndGet();
+          controller.onReleaseCompleted(releaseCount, 0);
+        }
+      }
+    };
+
+    try (ProactiveHeapMonitor monitor = new ProactiveHeapMonitor(80, 60_000, listener)) {
+      for (int i = 0; i < 10; i++) {
+        monitor.sample(new MemoryUsage(0, used, used, max), TimeUnit.SECONDS.toNanos(i));
+      }
+    }
+    assertEquals(1, rounds.get());
+  }
+
+  @Test
+  public void restoresPreviousThresholdsOnClose() {
+    final List<MemoryPoolMXBean> pools = new ArrayList<>();
+    final List<Long> previous = new ArrayList<>();
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP && pool.isUsageThresholdSupported() && pool.getUsage().getMax() > 0) {
+        pools.add(pool);
+        previous.add(pool.getUsageThreshold());
+        pool.setUsageThreshold(pool.getUsage().getMax() / 2);
+      }
+    }
+
+    try {
+      new ProactiveHeapMonitor(90, 60_000, noopListener()).close();
+      for (MemoryPoolMXBean pool : pools) {
+        assertEquals(pool.getUsage().getMax() / 2, pool.getUsageThreshold());
+      }
+    } finally {
+      for (int i = 0; i < pools.size(); i++) pools.get(i).setUsageThreshold(previous.get(i));
+    }
+  }
+
+  private static HeapUsageMonitor.HeapNotificationListener noopListener() {
+    return new HeapUsageMonitor.HeapNotificationListener() {
+      @Override
+      public void notifyHeapUsage(long usedBytes, long maxBytes) {}
+
+      @Override
+      public void notifyHeapUsageExpected(long usedBytes, long maxBytes) {}
+    };
+  }
+}
@@ -1,12 +1,25 @@
 package io.shiftleft.overflowdb;
 
+import io.shiftleft.overflowdb.storage.MVStoreBackend;
+import io.shiftleft.overflowdb.storage.StorageBackend;
+import io.shiftleft.overflowdb.testdomains.simple.SimpleDomain;
+import io.shiftleft.overflowdb.testdomains.simple.TestNode;
 import org.apache.commons.lang3.NotImplementedException;
 import org.apache.tinkerpop.gremlin.structure.Element;
 import org.apache.tinkerpop.gremlin.structure.Property;
+import org.apache.tinkerpop.gremlin.structure.T;
 import org.junit.Test;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 //TODO MP
 public class ReferenceManagerTest {
@@ -23,6 +36,154 @@ public class ReferenceManagerTest {
 
   }
 
+  @Test
+  public void keepsNodesModifiedIfPersistFails() {
+    final FailingBackend[] backend = new FailingBackend[1];
+    OdbConfig config = OdbConfig.withDefaults()
+        .withStorageBackend(location -> backend[0] = new FailingBackend(MVStoreBackend.factory.create(location)));
+    try (OdbGraph graph = SimpleDomain.newGraph(config)) {
+      NodeRef v0 = (NodeRef) graph.addVertex(T.label, TestNode.LABEL, TestNode.INT_PROPERTY, 1);
+
+      backend[0].failPutAll = true;
+      graph.referenceManager.clearReferencesBlocking(10);
+      assertTrue(v0.isSet());
+      assertTrue(v0.get().isModifiedSinceLastSerialization());
+
+      // it's still registered for clearing, and its changes are written this time
+      backend[0].failPutAll = false;
+      graph.referenceManager.clearReferencesBlocking(10);
+      assertTrue(v0.isCleared());
+      assertEquals(1, (int) v0.value(TestNode.INT_PROPERTY));
+    }
+  }
+
+  @Test
+  public void keepsUnwrittenBatchesModified() {
+    final FailingBackend[] backend = new FailingBackend[1];
+    OdbConfig config = OdbConfig.withDefaults()
+        .withEvictionBatchSize(1)
+        .withStorageBackend(location -> backend[0] = new FailingBackend(MVStoreBackend.factory.create(location)));
+    try (OdbGraph graph = SimpleDomain.newGraph(config)) {
+      final List<NodeRef> refs = new ArrayList<>();
+      for (int i = 0; i < 200; i++) {
+        refs.add((NodeRef) graph.addVertex(T.label, TestNode.LABEL, TestNode.INT_PROPERTY, i));
+      }
+
+      // the first batch of each clearing thread fails, the next one has already been serialized by then
+      backend[0].failPutAll = true;
+      graph.referenceManager.clearReferencesBlocking(refs.size());
+
+      backend[0].failPutAll = false;
+      graph.referenceManager.clearAllReferences();
+      for (int i = 0; i < refs.size(); i++) {
+        assertTrue(refs.get(i).isCleared());
+        assertEquals(i, (int) refs.get(i).value(TestNode.INT_PROPERTY));
+      }
+    }
+  }
+
+  @Test
+  public void keepsNodeModifiedIfSinglePersistFails() throws IOException {
+    final FailingBackend[] backend = new FailingBackend[1];
+    OdbConfig config = OdbConfig.withDefaults()
+        .withStorageBackend(location -> backend[0] = new FailingBackend(MVStoreBackend.factory.create(location)));
+    try (OdbGraph graph = SimpleDomain.newGraph(config)) {
+      NodeRef v0 = (NodeRef) graph.addVertex(T.label, TestNode.LABEL, TestNode.INT_PROPERTY, 1);
+
+      backend[0].failPut = true;
+      try {
+        v0.clear();
+        fail("expected the simulated storage failure");
+      } catch (RuntimeException e) {
+        assertEquals("simulated storage failure", e.getMessage());
+      }
+      assertEquals(NodeRef.LOADED, v0.getState());
+      assertTrue(v0.get().isModifiedSinceLastSerialization());
+
+      backend[0].failPut = false;
+      v0.clear();
+      assertTrue(v0.isCleared());
+      assertEquals(1, (int) v0.value(TestNode.INT_PROPERTY));
+    }
+  }
+
+  private static class FailingBackend implements StorageBackend {
+    private final StorageBackend underlying;
+    volatile boolean failPutAll = false;
+    volatile boolean failPut = false;
+
+    FailingBackend(StorageBackend underlying) {
+      this.underlying = underlying;
+    }
+
+    @Override
+    public void putAll(long[] ids, int[] labelIds, byte[][] serializedNodes) {
+      if (failPutAll) throw new RuntimeException("simulated storage failure");
+      underlying.putAll(ids, labelIds, serializedNodes);
+    }
+
+    @Override
+    public void put(long id, int labelId, byte[] serializedNode) {
+      if (failPut) throw new RuntimeException("simulated storage failure");
+      underlying.put(id, labelId, serializedNode);
+    }
+
+    @Override
+    public byte[] get(long id) {
+      return underlying.get(id);
+    }
+
+    @Override
+    public void remove(long id) {
+      underlying.remove(id);
+    }
+
+    @Override
+    public Iterator<Map.Entry<Long, byte[]>> scan() {
+      return underlying.scan();
+    }
+
+    @Override
+    public int size() {
+      return underlying.size();
+    }
+
+    @Override
+    public List<Iterator<Map.Entry<Long, Integer>>> scanLabelIdsPartitioned(int partitionCount) {
+      return underlying.scanLabelIdsPartitioned(partitionCount);
+    }
+
+    @Override
+    public int labelIdCount() {
+      return underlying.labelIdCount();
+    }
+
+    @Override
+    public void putSymbol(String symbol, int id) {
+      underlying.putSymbol(symbol, id);
+    }
+
+    @Override
+    public Map<String, Integer> allSymbols() {
+      return underlying.allSymbols();
+    }
+
+    @Override
+    public void flush() {
+      underlying.flush();
+    }
+
+    @Override
+    public File getLocation() {
+      return underlying.getLocation();
+    }
+
+    @Override
+    public void close() {
+      underlying.close();
+    }
+  }
+
 
 //  private class DummyElementRef extends NodeRef {
 //    private final String label;
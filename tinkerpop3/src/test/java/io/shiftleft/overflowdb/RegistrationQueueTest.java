@@ -0,0 +1,79 @@
+package io.shiftleft.overflowdb;
+
+import io.shiftleft.overflowdb.testdomains.simple.SimpleDomain;
+import io.shiftleft.overflowdb.testdomains.simple.TestNode;
+import org.apache.tinkerpop.gremlin.structure.T;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RegistrationQueueTest {
+
+  @Test
+  public void rejectsWhenFull() {
+    try (OdbGraph graph = SimpleDomain.newGraph()) {
+      RegistrationQueue queue = new RegistrationQueue(3); // rounded up to 4
+      for (int i = 0; i < 4; i++) {
+        assertTrue(queue.offer(newRef(graph)));
+      }
+      assertFalse(queue.offer(newRef(graph)));
+
+      List<NodeRef> drained = new ArrayList<>();
+      assertEquals(4, queue.drain(drained::add));
+      assertEquals(0, queue.size());
+      assertTrue(queue.offer(newRef(graph)));
+    }
+  }
+
+  @Test
+  public void deliversAllRefsFromConcurrentProducers() throws Exception {
+    try (OdbGraph graph = SimpleDomain.newGraph()) {
+      final int producerCount = 4;
+      final int refsPerProducer = 2000;
+      final List<NodeRef> refs = new ArrayList<>();
+      for (int i = 0; i < producerCount * refsPerProducer; i++) {
+        refs.add(newRef(graph));
+      }
+
+      final RegistrationQueue queue = new RegistrationQueue(64);
+      final Set<NodeRef> drained = Collections.newSetFromMap(new IdentityHashMap<>());
+      final Object drainLock = new Object();
+      ExecutorService executor = Executors.newFixedThreadPool(producerCount);
+      List<Future> futures = new ArrayList<>();
+      for (int p = 0; p < producerCount; p++) {
+        final List<NodeRef> producerRefs = refs.subList(p * refsPerProducer, (p + 1) * refsPerProducer);
+        futures.add(executor.submit(() -> {
+          for (NodeRef ref : producerRefs) {
+            while (!queue.offer(ref)) {
+              synchronized (drainLock) {
+                queue.drain(drained::add);
+              }
+            }
+          }
+        }));
+      }
+      for (Future future : futures) future.get();
+      executor.shutdown();
+      synchronized (drainLock) {
+        queue.drain(drained::add);
+      }
+
+      assertEquals(refs.size(), drained.size());
+    }
+  }
+
+  private NodeRef newRef(OdbGraph graph) {
+    return (NodeRef) graph.addVertex(T.label, TestNode.LABEL);
+  }
+}
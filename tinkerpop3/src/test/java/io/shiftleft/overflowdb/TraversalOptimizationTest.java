@@ -6,11 +6,19 @@ import io.shiftleft.overflowdb.testdomains.gratefuldead.GratefulDead;
 import io.shiftleft.overflowdb.testdomains.gratefuldead.Song;
 import io.shiftleft.overflowdb.testdomains.gratefuldead.SungBy;
 import io.shiftleft.overflowdb.testdomains.gratefuldead.WrittenBy;
+import io.shiftleft.overflowdb.tp3.optimizations.OdbBatchLoadBarrierStep;
+import org.apache.tinkerpop.gremlin.process.traversal.Traversal;
+import org.apache.tinkerpop.gremlin.process.traversal.util.TraversalHelper;
+import org.apache.tinkerpop.gremlin.structure.Vertex;
 import org.junit.Test;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 public class TraversalOptimizationTest {
 
@@ -41,4 +49,24 @@ public class TraversalOptimizationTest {
     }
   }
 
+  @Test
+  public void frontierBatchLoading() throws IOException {
+    final File overflowDb = Files.createTempFile("overflowdb", "bin").toFile();
+    overflowDb.deleteOnExit();
+    final long expectedCount;
+    try (OdbGraph graph = GratefulDead.newGraph(OdbConfig.withoutOverflow().withStorageLocation(overflowDb.getAbsolutePath()))) {
+      GratefulDead.loadData(graph);
+      expectedCount = graph.traversal().V(1l).out(FollowedBy.LABEL).out(FollowedBy.LABEL).out(FollowedBy.LABEL).count().next();
+    }
+
+    // all nodes are in storage only after restarting
+    try (OdbGraph graph = GratefulDead.newGraph(OdbConfig.withoutOverflow().withStorageLocation(overflowDb.getAbsolutePath()))) {
+      // LazyBarrierStrategy adds a barrier before the last `out`
+      Traversal.Admin<Vertex, Vertex> traversal = graph.traversal().V(1l).out(FollowedBy.LABEL).out(FollowedBy.LABEL).out(FollowedBy.LABEL).asAdmin();
+      traversal.applyStrategies();
+      assertFalse(TraversalHelper.getStepsOfClass(OdbBatchLoadBarrierStep.class, traversal).isEmpty());
+      assertEquals(expectedCount, traversal.toList().size());
+    }
+  }
+
 }
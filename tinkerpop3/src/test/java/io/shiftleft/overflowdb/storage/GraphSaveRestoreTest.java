@@ -2,6 +2,7 @@ package io.shiftleft.overflowdb.storage;
 
 import io.shiftleft.overflowdb.OdbConfig;
 import io.shiftleft.overflowdb.OdbGraph;
+import io.shiftleft.overflowdb.StartupListener;
 import io.shiftleft.overflowdb.testdomains.gratefuldead.FollowedBy;
 import io.shiftleft.overflowdb.testdomains.gratefuldead.GratefulDead;
 import io.shiftleft.overflowdb.testdomains.gratefuldead.Song;
@@ -9,13 +10,16 @@ import org.apache.tinkerpop.gremlin.structure.Edge;
 import org.apache.tinkerpop.gremlin.structure.T;
 import org.apache.tinkerpop.gremlin.structure.Vertex;
 import org.apache.tinkerpop.gremlin.structure.io.IoCore;
+import org.h2.mvstore.MVStore;
 import org.junit.Test;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 /**
  * save and restore a graph from disk overlay
@@ -86,8 +90,128 @@ public class GraphSaveRestoreTest {
     }
   }
 
+  @Test
+  public void completeGratefulDeadGraphWithParallelStartup() throws IOException {
+    final File overflowDb = Files.createTempFile("overflowdb", "bin").toFile();
+    overflowDb.deleteOnExit();
+
+    try (OdbGraph graph = newGratefulDeadGraph(overflowDb, false)) {
+      loadGraphMl(graph);
+    } // ARM auto-close will trigger saving to disk because we specified a location
+
+    // reload from disk
+    final AtomicInteger startNodeCount = new AtomicInteger();
+    final AtomicInteger completeNodeCount = new AtomicInteger();
+    OdbConfig config = OdbConfig.withoutOverflow().withStartupThreadCount(3).withStartupListener(new StartupListener() {
+      @Override
+      public void onStart(int nodeCount, int threadCount) {
+        startNodeCount.set(nodeCount);
+      }
+
+      @Override
+      public void onComplete(int nodeCount, long elapsedMillis) {
+        completeNodeCount.set(nodeCount);
+      }
+    });
+    try (OdbGraph graph = newGratefulDeadGraph(overflowDb, config)) {
+      assertEquals(808, startNodeCount.get());
+      assertEquals(808, completeNodeCount.get());
+      assertEquals(Long.valueOf(808), graph.traversal().V().count().next());
+      assertEquals(Long.valueOf(584), graph.traversal().V().hasLabel(Song.label).count().next());
+      assertEquals(Long.valueOf(8049), graph.traversal().V().outE().count().next());
+
+      // new ids must not clash with existing ones
+      Vertex v = graph.addVertex(T.label, Song.label, Song.NAME, "new song");
+      assertEquals(Long.valueOf(809), graph.traversal().V().count().next());
+      assertEquals("new song", graph.vertex((Long) v.id()).value(Song.NAME));
+    }
+  }
+
+  @Test
+  public void completeGratefulDeadGraphWithSmallEvictionBatches() throws IOException {
+    final File overflowDb = Files.createTempFile("overflowdb", "bin").toFile();
+    overflowDb.deleteOnExit();
+
+    OdbConfig config = OdbConfig.withoutOverflow().withEvictionBatchSize(7);
+    try (OdbGraph graph = newGratefulDeadGraph(overflowDb, config)) {
+      loadGraphMl(graph);
+    } // ARM auto-close will trigger saving to disk because we specified a location
+
+    // reload from disk
+    try (OdbGraph graph = newGratefulDeadGraph(overflowDb, config)) {
+      assertEquals(Long.valueOf(808), graph.traversal().V().count().next());
+      assertEquals(Long.valueOf(8049), graph.traversal().V().outE().count().next());
+    }
+  }
+
+  @Test
+  public void completeGratefulDeadGraphWithSegmentLogBackend() throws IOException {
+    final File overflowDb = Files.createTempDirectory("overflowdb").toFile();
+    overflowDb.deleteOnExit();
+
+    OdbConfig config = OdbConfig.withoutOverflow().withStorageBackend(SegmentLogBackend.factory(64 * 1024));
+    try (OdbGraph graph = newGratefulDeadGraph(overflowDb, config)) {
+      loadGraphMl(graph);
+    } // ARM auto-close will trigger saving to disk because we specified a location
+    for (File segment : overflowDb.listFiles()) segment.deleteOnExit();
+
+    // reload from disk
+    try (OdbGraph graph = newGratefulDeadGraph(overflowDb, config)) {
+      assertEquals(Long.valueOf(808), graph.traversal().V().count().next());
+      assertEquals(Long.valueOf(8049), graph.traversal().V().outE().count().next());
+    }
+  }
+
+  @Test
+  public void completeGratefulDeadGraphWithCompression() throws IOException {
+    final File overflowDb = Files.createTempFile("overflowdb", "bin").toFile();
+    overflowDb.deleteOnExit();
+
+    OdbConfig config = OdbConfig.withoutOverflow().withCompression(LzfCodec.instance).withCompressionThreshold(0);
+    try (OdbGraph graph = newGratefulDeadGraph(overflowDb, config)) {
+      loadGraphMl(graph);
+    } // ARM auto-close will trigger saving to disk because we specified a location
+
+    // reload from disk - without compression, the existing compressed nodes must still be readable
+    try (OdbGraph graph = newGratefulDeadGraph(overflowDb, false)) {
+      assertEquals(Long.valueOf(808), graph.traversal().V().count().next());
+      assertEquals(Long.valueOf(8049), graph.traversal().V().outE().count().next());
+      assertEquals("cover", graph.traversal().V().has(Song.NAME, "BLACK QUEEN").values(Song.SONG_TYPE).next());
+    }
+  }
+
+  @Test
+  public void completeGratefulDeadGraphWrittenWithoutLabelIds() throws IOException {
+    final File overflowDb = Files.createTempFile("overflowdb", "bin").toFile();
+    overflowDb.deleteOnExit();
+
+    try (OdbGraph graph = newGratefulDeadGraph(overflowDb, false)) {
+      loadGraphMl(graph);
+    } // ARM auto-close will trigger saving to disk because we specified a location
+
+    try (OdbStorage storage = OdbStorage.createWithSpecificLocation(overflowDb)) {
+      assertTrue(storage.hasLabelIdsForAllNodes());
+    }
+
+    // simulate storage written by an older version, which didn't store the label ids separately
+    MVStore mvstore = new MVStore.Builder().fileName(overflowDb.getAbsolutePath()).open();
+    mvstore.removeMap(mvstore.openMap("labelIds"));
+    mvstore.close();
+
+    // reload from disk: needs to fall back to reading the labels from the serialized nodes
+    try (OdbGraph graph = newGratefulDeadGraph(overflowDb, false)) {
+      assertEquals(Long.valueOf(808), graph.traversal().V().count().next());
+      assertEquals(Long.valueOf(584), graph.traversal().V().hasLabel(Song.label).count().next());
+      assertEquals(Long.valueOf(8049), graph.traversal().V().outE().count().next());
+    }
+  }
+
   private OdbGraph newGratefulDeadGraph(File overflowDb, boolean enableOverflow) {
     OdbConfig config = enableOverflow ? OdbConfig.withDefaults() : OdbConfig.withoutOverflow();
+    return newGratefulDeadGraph(overflowDb, config);
+  }
+
+  private OdbGraph newGratefulDeadGraph(File overflowDb, OdbConfig config) {
     return GratefulDead.newGraph(config.withStorageLocation(overflowDb.getAbsolutePath()));
   }
 
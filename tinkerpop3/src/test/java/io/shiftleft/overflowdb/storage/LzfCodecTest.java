@@ -0,0 +1,52 @@
+package io.shiftleft.overflowdb.storage;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LzfCodecTest {
+
+  @Test
+  public void shouldCompressRepetitiveData() {
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < 200; i++) {
+      builder.append("src/main/java/io/shiftleft/overflowdb/File").append(i % 7).append(".java;");
+    }
+    byte[] bytes = builder.toString().getBytes(StandardCharsets.UTF_8);
+
+    byte[] compressed = LzfCodec.instance.compress(bytes);
+    assertTrue(compressed.length < bytes.length / 4);
+    assertArrayEquals(bytes, LzfCodec.instance.decompress(compressed, 0, compressed.length, bytes.length));
+  }
+
+  @Test
+  public void shouldRoundTripArbitraryData() {
+    Random random = new Random(42);
+    for (int length = 1; length < 2000; length += 37) {
+      // mix of random and repeated sections, incl. long runs of the same byte
+      byte[] bytes = new byte[length];
+      for (int i = 0; i < length; i++) {
+        bytes[i] = (i / 50) % 3 == 0 ? (byte) random.nextInt() : (i / 50) % 3 == 1 ? (byte) (i % 11) : 7;
+      }
+      byte[] compressed = LzfCodec.instance.compress(bytes);
+      if (compressed != null) {
+        assertTrue(compressed.length < bytes.length);
+        byte[] withPadding = new byte[compressed.length + 5];
+        System.arraycopy(compressed, 0, withPadding, 3, compressed.length);
+        assertArrayEquals(bytes, LzfCodec.instance.decompress(withPadding, 3, compressed.length, bytes.length));
+      }
+    }
+  }
+
+  @Test
+  public void shouldNotCompressIncompressibleData() {
+    byte[] bytes = new byte[1000];
+    new Random(42).nextBytes(bytes);
+    assertNull(LzfCodec.instance.compress(bytes));
+  }
+}
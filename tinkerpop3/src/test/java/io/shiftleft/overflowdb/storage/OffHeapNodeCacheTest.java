@@ -0,0 +1,46 @@
+package io.shiftleft.overflowdb.storage;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class OffHeapNodeCacheTest {
+
+  @Test
+  public void putGetAndInvalidate() {
+    OffHeapNodeCache cache = new OffHeapNodeCache(1024);
+    cache.put(1, new byte[]{1, 2, 3});
+    cache.put(2, new byte[]{4});
+    assertArrayEquals(new byte[]{1, 2, 3}, cache.get(1));
+    assertArrayEquals(new byte[]{4}, cache.get(2));
+    assertNull(cache.get(3));
+
+    cache.put(1, new byte[]{5, 6});
+    assertArrayEquals(new byte[]{5, 6}, cache.get(1));
+    cache.invalidate(2);
+    assertNull(cache.get(2));
+    assertEquals(3, cache.getHitCount());
+    assertEquals(2, cache.getMissCount());
+  }
+
+  @Test
+  public void recyclesOldestEntriesWhenFull() {
+    // two slabs, each fits two entries of 12 header bytes + 88 bytes
+    OffHeapNodeCache cache = new OffHeapNodeCache(400, 200);
+    for (long id = 0; id < 4; id++) {
+      cache.put(id, new byte[88]);
+    }
+    assertEquals(4, cache.size());
+
+    cache.put(4, new byte[88]); // recycles the first slab
+    assertNull(cache.get(0));
+    assertNull(cache.get(1));
+    assertEquals(88, cache.get(2).length);
+    assertEquals(88, cache.get(4).length);
+
+    cache.put(5, new byte[10_000]); // too large to be cached
+    assertNull(cache.get(5));
+  }
+}
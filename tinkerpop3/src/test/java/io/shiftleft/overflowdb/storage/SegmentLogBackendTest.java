@@ -0,0 +1,156 @@
+package io.shiftleft.overflowdb.storage;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class SegmentLogBackendTest {
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void shouldStoreAndOverwriteEntries() {
+    try (SegmentLogBackend backend = new SegmentLogBackend(Optional.empty(), 64)) {
+      backend.put(1, 0, bytes(1, 10));
+      backend.put(2, 0, bytes(2, 20));
+      backend.put(1, 0, bytes(3, 30));
+
+      assertEquals(2, backend.size());
+      assertArrayEquals(bytes(3, 30), backend.get(1));
+      assertArrayEquals(bytes(2, 20), backend.get(2));
+      assertNull(backend.get(3));
+
+      backend.remove(2);
+      assertEquals(1, backend.size());
+      assertNull(backend.get(2));
+    }
+  }
+
+  @Test
+  public void shouldReadBatchesAtTheIndexOfTheirIds() {
+    try (SegmentLogBackend backend = new SegmentLogBackend(Optional.empty(), 64)) {
+      // storage order is append order, i.e. not sorted by id
+      backend.put(3, 0, bytes(3, 10));
+      backend.put(1, 0, bytes(1, 20));
+      backend.put(2, 1, bytes(2, 30));
+      backend.put(3, 0, bytes(4, 10));
+
+      byte[][] serializedNodes = backend.getAll(new long[]{1, 2, 3, 5});
+      assertArrayEquals(bytes(1, 20), serializedNodes[0]);
+      assertArrayEquals(bytes(2, 30), serializedNodes[1]);
+      assertArrayEquals(bytes(4, 10), serializedNodes[2]);
+      assertNull(serializedNodes[3]);
+    }
+  }
+
+  @Test
+  public void shouldSupportEntriesLargerThanSegmentSize() {
+    try (SegmentLogBackend backend = new SegmentLogBackend(Optional.empty(), 64)) {
+      backend.put(1, 0, bytes(1, 10));
+      backend.put(2, 0, bytes(2, 1000));
+      backend.put(3, 0, bytes(3, 10));
+
+      assertArrayEquals(bytes(1, 10), backend.get(1));
+      assertArrayEquals(bytes(2, 1000), backend.get(2));
+      assertArrayEquals(bytes(3, 10), backend.get(3));
+    }
+  }
+
+  @Test
+  public void shouldRestoreFromExistingLocation() throws IOException {
+    final File directory = temporaryFolder.newFolder();
+
+    try (SegmentLogBackend backend = new SegmentLogBackend(Optional.of(directory), 64)) {
+      long[] ids = new long[20];
+      int[] labelIds = new int[20];
+      byte[][] serializedNodes = new byte[20][];
+      for (int i = 0; i < 20; i++) {
+        ids[i] = i;
+        labelIds[i] = i % 2;
+        serializedNodes[i] = bytes(i, 20);
+      }
+      backend.putSymbol("even", 0);
+      backend.putSymbol("odd", 1);
+      backend.putAll(ids, labelIds, serializedNodes);
+      backend.put(5, 1, bytes(55, 30));
+      backend.remove(7);
+    }
+
+    try (SegmentLogBackend backend = new SegmentLogBackend(Optional.of(directory), 64)) {
+      assertEquals(19, backend.size());
+      assertArrayEquals(bytes(55, 30), backend.get(5));
+      assertArrayEquals(bytes(19, 20), backend.get(19));
+      assertNull(backend.get(7));
+
+      int scanned = 0;
+      Iterator<Map.Entry<Long, byte[]>> entries = backend.scan();
+      while (entries.hasNext()) {
+        Map.Entry<Long, byte[]> entry = entries.next();
+        assertArrayEquals(backend.get(entry.getKey()), entry.getValue());
+        scanned++;
+      }
+      assertEquals(19, scanned);
+
+      assertEquals(2, backend.allSymbols().size());
+      assertEquals(Integer.valueOf(1), backend.allSymbols().get("odd"));
+      int scannedLabelIds = 0;
+      for (Iterator<Map.Entry<Long, Integer>> partition : backend.scanLabelIdsPartitioned(3)) {
+        while (partition.hasNext()) {
+          Map.Entry<Long, Integer> entry = partition.next();
+          assertEquals(entry.getKey() % 2, (long) entry.getValue());
+          scannedLabelIds++;
+        }
+      }
+      assertEquals(19, scannedLabelIds);
+
+      // continue appending after restore
+      backend.put(100, 0, bytes(100, 10));
+      assertArrayEquals(bytes(100, 10), backend.get(100));
+    }
+  }
+
+  @Test
+  public void shouldTruncateIncompleteLastEntry() throws IOException {
+    final File directory = temporaryFolder.newFolder();
+    try (SegmentLogBackend backend = new SegmentLogBackend(Optional.of(directory), 64)) {
+      backend.put(1, 0, bytes(1, 20));
+    }
+    // simulate a crash while appending: the header of the next entry is written, but it's cut off by the end of the file
+    try (RandomAccessFile file = new RandomAccessFile(new File(directory, "segment-000000.log"), "rw")) {
+      file.seek(36);
+      file.writeInt(21);
+      file.writeLong(2);
+      file.writeInt(0);
+    }
+
+    try (SegmentLogBackend backend = new SegmentLogBackend(Optional.of(directory), 64)) {
+      assertEquals(1, backend.size());
+      assertArrayEquals(bytes(1, 20), backend.get(1));
+      backend.put(3, 0, bytes(3, 10));
+    }
+    try (SegmentLogBackend backend = new SegmentLogBackend(Optional.of(directory), 64)) {
+      assertEquals(2, backend.size());
+      assertArrayEquals(bytes(3, 10), backend.get(3));
+      assertNull(backend.get(2));
+    }
+  }
+
+  private byte[] bytes(int value, int length) {
+    byte[] bytes = new byte[length];
+    for (int i = 0; i < length; i++) {
+      bytes[i] = (byte) (value + i);
+    }
+    return bytes;
+  }
+}
@@ -12,21 +12,28 @@ import org.apache.tinkerpop.gremlin.structure.Edge;
 import org.apache.tinkerpop.gremlin.structure.T;
 import org.apache.tinkerpop.gremlin.structure.Vertex;
 import org.junit.Test;
+import org.msgpack.core.MessageBufferPacker;
+import org.msgpack.core.MessagePack;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 
 public class SerializerTest {
 
   @Test
   public void serializeVertex() throws IOException {
     try (OdbGraph graph = SimpleDomain.newGraph()) {
-      NodeSerializer serializer = new NodeSerializer();
       NodeDeserializer deserializer = newDeserializer(graph);
+      NodeSerializer serializer = new NodeSerializer(deserializer.getSymbolTable());
       TestNode testNode = (TestNode) graph.addVertex(
           T.label, TestNode.LABEL,
           TestNode.STRING_PROPERTY, "StringValue",
@@ -42,6 +49,10 @@ public class SerializerTest {
       assertEquals(testNodeDb.id(), deserialized.id());
       assertEquals(testNodeDb.label(), deserialized.label());
       assertEquals(testNodeDb.valueMap(), ((TestNodeDb) deserialized).valueMap());
+      // label and property keys are stored as symbol ids
+      String bytesAsString = new String(bytes, StandardCharsets.ISO_8859_1);
+      assertFalse(bytesAsString.contains(TestNode.LABEL));
+      assertFalse(bytesAsString.contains(TestNode.STRING_PROPERTY));
 
       final NodeRef deserializedRef = deserializer.deserializeRef(bytes);
       assertEquals(testNode.id(), deserializedRef.id);
@@ -52,8 +63,8 @@ public class SerializerTest {
   @Test
   public void serializeWithEdge() throws IOException {
     try (OdbGraph graph = SimpleDomain.newGraph()) {
-      NodeSerializer serializer = new NodeSerializer();
       NodeDeserializer deserializer = newDeserializer(graph);
+      NodeSerializer serializer = new NodeSerializer(deserializer.getSymbolTable());
 
       TestNode testNode1 = (TestNode) graph.addVertex(T.label, TestNode.LABEL);
       TestNode testNode2 = (TestNode) graph.addVertex(T.label, TestNode.LABEL);
@@ -81,10 +92,176 @@ public class SerializerTest {
     }
   }
 
+  @Test
+  public void deserializeSubsequentVerticesWithDifferentProperties() throws IOException {
+    try (OdbGraph graph = SimpleDomain.newGraph()) {
+      NodeDeserializer deserializer = newDeserializer(graph);
+      NodeSerializer serializer = new NodeSerializer(deserializer.getSymbolTable());
+      TestNode withProperties = (TestNode) graph.addVertex(
+          T.label, TestNode.LABEL,
+          TestNode.STRING_PROPERTY, "StringValue",
+          TestNode.INT_LIST_PROPERTY, Arrays.asList(42, 43));
+      TestNode withoutProperties = (TestNode) graph.addVertex(T.label, TestNode.LABEL);
+      TestNode withOtherProperty = (TestNode) graph.addVertex(T.label, TestNode.LABEL, TestNode.INT_PROPERTY, 7);
+
+      // the deserializer reuses its buffers - make sure nothing leaks from one node into the next
+      for (int i = 0; i < 2; i++) {
+        for (TestNode testNode : Arrays.asList(withProperties, withoutProperties, withOtherProperty)) {
+          TestNodeDb testNodeDb = testNode.get();
+          TestNodeDb deserialized = (TestNodeDb) deserializer.deserialize(serializer.serialize(testNodeDb));
+          assertEquals(testNodeDb.valueMap(), deserialized.valueMap());
+        }
+      }
+    }
+  }
+
+  @Test
+  public void serializeWithManyEdges() throws IOException {
+    try (OdbGraph graph = SimpleDomain.newGraph()) {
+      NodeDeserializer deserializer = newDeserializer(graph);
+      NodeSerializer serializer = new NodeSerializer(deserializer.getSymbolTable());
+
+      TestNode testNode = (TestNode) graph.addVertex(T.label, TestNode.LABEL);
+      List<Object> adjacentIds = new ArrayList<>();
+      // unordered ids, so that the deltas are both positive and negative
+      for (long id : new long[]{1000, 20, 5000000000L, 21, 3}) {
+        Vertex adjacent = graph.addVertex(T.id, id, T.label, TestNode.LABEL);
+        testNode.addEdge(TestEdge.LABEL, adjacent, TestEdge.LONG_PROPERTY, id * 2);
+        adjacent.addEdge(TestEdge.LABEL, testNode);
+        adjacentIds.add(id);
+      }
+
+      Vertex deserialized = deserializer.deserialize(serializer.serialize(testNode.get()));
+      List<Object> outIds = new ArrayList<>();
+      deserialized.edges(Direction.OUT).forEachRemaining(edge -> {
+        outIds.add(edge.inVertex().id());
+        assertEquals((long) edge.inVertex().id() * 2, (long) edge.value(TestEdge.LONG_PROPERTY));
+      });
+      List<Object> inIds = new ArrayList<>();
+      deserialized.vertices(Direction.IN).forEachRemaining(vertex -> inIds.add(vertex.id()));
+      assertEquals(adjacentIds, outIds);
+      assertEquals(adjacentIds, inIds);
+    }
+  }
+
+  @Test
+  public void partiallyMaterializeEdgeBlocks() throws IOException {
+    try (OdbGraph graph = SimpleDomain.newGraph()) {
+      NodeDeserializer deserializer = newDeserializer(graph);
+      NodeDeserializer eagerDeserializer = new NodeDeserializer(graph, deserializer.nodeFactoryByLabel, deserializer.getSymbolTable(), false);
+      NodeSerializer serializer = new NodeSerializer(deserializer.getSymbolTable());
+
+      TestNode testNode = (TestNode) graph.addVertex(T.label, TestNode.LABEL, TestNode.STRING_PROPERTY, "StringValue");
+      for (long id : new long[]{1000, 20, 3}) {
+        Vertex adjacent = graph.addVertex(T.id, id, T.label, TestNode.LABEL);
+        testNode.addEdge(TestEdge.LABEL, adjacent, TestEdge.LONG_PROPERTY, id);
+        adjacent.addEdge(TestEdge.LABEL, testNode);
+      }
+      byte[] bytes = serializer.serialize(testNode.get());
+
+      TestNodeDb partial = (TestNodeDb) deserializer.deserialize(bytes);
+      assertEquals("StringValue", partial.stringProperty());
+      List<Object> outIds = new ArrayList<>();
+      partial.vertices(Direction.OUT, TestEdge.LABEL).forEachRemaining(vertex -> outIds.add(vertex.id()));
+      assertEquals(Arrays.asList(1000L, 20L, 3L), outIds);
+      assertFalse(partial.isModifiedSinceLastSerialization());
+
+      Object[] eagerAdjacent = eagerDeserializer.deserialize(bytes).getAdjacentNodesWithProperties();
+      assertEquals(Arrays.asList(eagerAdjacent), Arrays.asList(partial.getAdjacentNodesWithProperties()));
+      assertEquals(Arrays.asList(testNode.get().getAdjacentNodesWithProperties()), Arrays.asList(eagerAdjacent));
+    }
+  }
+
+  @Test
+  public void deserializeLegacyFormat() throws IOException {
+    try (OdbGraph graph = SimpleDomain.newGraph()) {
+      NodeDeserializer deserializer = newDeserializer(graph);
+      TestNode adjacent = (TestNode) graph.addVertex(T.label, TestNode.LABEL);
+
+      // as written before the format header was introduced: every value is a `[ValueType.id, value]` array
+      MessageBufferPacker packer = MessagePack.newDefaultBufferPacker();
+      packer.packLong(99);
+      packer.packString(TestNode.LABEL);
+      packer.packMapHeader(2);
+      packer.packString(TestNode.STRING_PROPERTY);
+      packer.packArrayHeader(2).packByte(ValueTypes.STRING.id).packString("legacy");
+      packer.packString(TestNode.INT_LIST_PROPERTY);
+      packer.packArrayHeader(2).packByte(ValueTypes.LIST.id).packArrayHeader(2);
+      packer.packArrayHeader(2).packByte(ValueTypes.INTEGER.id).packInt(1);
+      packer.packArrayHeader(2).packByte(ValueTypes.INTEGER.id).packInt(2);
+      packer.packArrayHeader(4).packInt(0).packInt(2).packInt(2).packInt(0); // edgeOffsets: one outgoing TestEdge
+      packer.packArrayHeader(3);
+      packer.packArrayHeader(2).packByte(ValueTypes.NODE_REF.id).packLong((long) adjacent.id());
+      packer.packArrayHeader(2).packByte(ValueTypes.LONG.id).packLong(42);
+      packer.packArrayHeader(2).packByte(ValueTypes.UNKNOWN.id).packNil();
+      byte[] bytes = packer.toByteArray();
+
+      TestNodeDb deserialized = (TestNodeDb) deserializer.deserialize(bytes);
+      assertEquals(99L, deserialized.id());
+      assertEquals("legacy", deserialized.stringProperty());
+      assertEquals(Arrays.asList(1, 2), deserialized.intListProperty());
+      Edge edge = deserialized.edges(Direction.OUT, TestEdge.LABEL).next();
+      assertEquals(adjacent.id(), edge.inVertex().id());
+      assertEquals(42L, (long) edge.value(TestEdge.LONG_PROPERTY));
+      assertEquals(99L, deserializer.deserializeRef(bytes).id);
+    }
+  }
+
+  @Test
+  public void deserializeFormatVersion1() throws IOException {
+    try (OdbGraph graph = SimpleDomain.newGraph()) {
+      NodeDeserializer deserializer = newDeserializer(graph);
+
+      // version 1 stored the label and property keys as strings
+      MessageBufferPacker packer = MessagePack.newDefaultBufferPacker();
+      packer.writePayload(new byte[]{NodeSerializer.FORMAT_MARKER, 1});
+      packer.packLong(99);
+      packer.packString(TestNode.LABEL);
+      packer.packMapHeader(1);
+      packer.packString(TestNode.STRING_PROPERTY).packByte(ValueTypes.STRING.id).packString("version1");
+      packer.packArrayHeader(4).packInt(0).packInt(0).packInt(0).packInt(0);
+      packer.packArrayHeader(0).packBinaryHeader(0);
+      byte[] bytes = packer.toByteArray();
+
+      TestNodeDb deserialized = (TestNodeDb) deserializer.deserialize(bytes);
+      assertEquals(99L, deserialized.id());
+      assertEquals("version1", deserialized.stringProperty());
+      assertEquals(TestNode.LABEL, deserializer.deserializeRef(bytes).label());
+    }
+  }
+
+  @Test
+  public void deserializeFormatVersion2() throws IOException {
+    try (OdbGraph graph = SimpleDomain.newGraph()) {
+      NodeDeserializer deserializer = newDeserializer(graph);
+      SymbolTable symbolTable = deserializer.getSymbolTable();
+      TestNode adjacent = (TestNode) graph.addVertex(T.label, TestNode.LABEL);
+
+      // version 2 had no sections: all type tags of adjacentNodesWithProperties, followed by all values
+      MessageBufferPacker packer = MessagePack.newDefaultBufferPacker();
+      packer.writePayload(new byte[]{NodeSerializer.FORMAT_MARKER, 2});
+      packer.packLong(99);
+      packer.packInt(symbolTable.idFor(TestNode.LABEL));
+      packer.packMapHeader(1);
+      packer.packInt(symbolTable.idFor(TestNode.STRING_PROPERTY)).packByte(ValueTypes.STRING.id).packString("version2");
+      packer.packArrayHeader(4).packInt(0).packInt(2).packInt(2).packInt(0); // edgeOffsets: one outgoing TestEdge
+      packer.packArrayHeader(3).packBinaryHeader(3);
+      packer.writePayload(new byte[]{ValueTypes.NODE_REF.id, ValueTypes.LONG.id, ValueTypes.UNKNOWN.id});
+      packer.packLong((long) adjacent.id()).packLong(42);
+      byte[] bytes = packer.toByteArray();
+
+      TestNodeDb deserialized = (TestNodeDb) deserializer.deserialize(bytes);
+      assertEquals("version2", deserialized.stringProperty());
+      Edge edge = deserialized.edges(Direction.OUT, TestEdge.LABEL).next();
+      assertEquals(adjacent.id(), edge.inVertex().id());
+      assertEquals(42L, (long) edge.value(TestEdge.LONG_PROPERTY));
+    }
+  }
+
   private NodeDeserializer newDeserializer(OdbGraph graph) {
     Map<String, NodeFactory> vertexFactories = new HashMap();
     vertexFactories.put(TestNode.LABEL, TestNode.factory);
-    return new NodeDeserializer(graph, vertexFactories);
+    return new NodeDeserializer(graph, vertexFactories, new SymbolTable(MVStoreBackend.factory.create(Optional.empty())));
   }
 
 }